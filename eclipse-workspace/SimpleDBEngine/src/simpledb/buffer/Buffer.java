@@ -1,5 +1,7 @@
 package simpledb.buffer;
 
+import java.util.*;
+import java.util.concurrent.locks.*;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 
@@ -10,27 +12,86 @@ import simpledb.log.LogMgr;
  * the number of times the buffer has been pinned,
  * whether its contents have been modified,
  * and if so, the id and lsn of the modifying transaction.
+ * The LSN of each logged change is also stored in the page itself,
+ * so that recovery can tell which changes a block on disk contains.
+ * The buffer's recovery LSN is the LSN of the first logged change
+ * made since the buffer was last written; a checkpoint records it
+ * as the point from which the buffer's changes would have to be redone.
+ * Since records are locked individually, several transactions
+ * may modify a buffer before it is written; each of them
+ * is recorded, so that each one's commit writes the buffer.
+ * <P>
+ * Each buffer has a reader-writer latch, which is held only for
+ * the duration of a single access to its page: shared to read
+ * values, exclusive to write them. Transaction locks decide which
+ * transactions may access a value; the latch keeps concurrent
+ * accesses to the same page from seeing each other half done.
+ * A latch is obtained before the buffer's monitor, except when
+ * the buffer is assigned to a new block; the buffer is then
+ * unpinned, so no access to it can be holding the latch.
  * @author Edward Sciore
  */
 public class Buffer {
    private FileMgr fm;
    private LogMgr lm;
-   private Page contents;
+   private Page page;
+   private volatile Page contents;
    private BlockId blk = null;
    private int pins = 0;
    private int txnum = -1;
-   private int lsn = -1;
+   private Set<Integer> modifiers = new HashSet<>();
+   private long lsn = -1;
+   private long recLsn = -1;
+   private int frame = 0;
+   private long version = 0;
+   private boolean loading = false;
+   private boolean prefetched = false;
+   private ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
 
    public Buffer(FileMgr fm, LogMgr lm) {
       this.fm = fm;
       this.lm = lm;
-      contents = new Page(fm.blockSize());
+      page = new Page(fm.blockSize());
+      contents = page;
+   }
+
+   /**
+    * Creates a buffer that occupies the specified slot
+    * of the buffer pool.
+    * The slot number is used by the replacement policies
+    * to keep per-buffer statistics in arrays.
+    */
+   Buffer(FileMgr fm, LogMgr lm, int frame) {
+      this(fm, lm);
+      this.frame = frame;
    }
    
+   /**
+    * Returns the buffer's page.
+    * When the file manager reads through memory mappings,
+    * the page may be read-only until {@link #makeWritable} is called.
+    * @return the buffer's page
+    */
    public Page contents() {
       return contents;
    }
 
+   /**
+    * Returns the latch to hold while reading the buffer's page.
+    * @return the shared latch
+    */
+   public Lock readLatch() {
+      return latch.readLock();
+   }
+
+   /**
+    * Returns the latch to hold while writing the buffer's page.
+    * @return the exclusive latch
+    */
+   public Lock writeLatch() {
+      return latch.writeLock();
+   }
+
    /**
     * Returns a reference to the disk block
     * allocated to the buffer.
@@ -40,10 +101,23 @@ public class Buffer {
       return blk;
    }
 
-   public void setModified(int txnum, int lsn) {
+   /**
+    * Marks the buffer as modified by the specified transaction.
+    * If the change was logged, its LSN becomes the page LSN.
+    * The page must have been made writable.
+    * @param txnum the modifying transaction
+    * @param lsn the LSN of the change's log record, or -1 if not logged
+    */
+   public synchronized void setModified(int txnum, long lsn) {
       this.txnum = txnum;
-      if (lsn >= 0)
+      modifiers.add(txnum);
+      if (lsn >= 0) {
          this.lsn = lsn;
+         if (recLsn < 0)
+            recLsn = lsn;
+         contents.setLsn(lsn);
+      }
+      version++;
    }
 
    /**
@@ -59,6 +133,62 @@ public class Buffer {
       return txnum;
    }
 
+   /**
+    * Returns the slot of the buffer pool that this buffer occupies.
+    * @return the buffer's slot number
+    */
+   int frame() {
+      return frame;
+   }
+
+   synchronized boolean isModified() {
+      return txnum >= 0;
+   }
+
+   /**
+    * Returns true if the specified transaction has modified
+    * the buffer since it was last written.
+    */
+   synchronized boolean isModifiedBy(int txnum) {
+      return modifiers.contains(txnum);
+   }
+
+   /**
+    * Returns a counter that changes whenever the buffer
+    * is modified or assigned to a different block.
+    * The background writer uses it to detect that a
+    * snapshot of the buffer has become stale.
+    */
+   synchronized long version() {
+      return version;
+   }
+
+   synchronized long lsn() {
+      return lsn;
+   }
+
+   /**
+    * Adds the buffer's block and recovery LSN to the specified
+    * dirty page table, if the buffer has a logged change that
+    * has not been written.
+    * The shared latch is obtained first, so that a change
+    * whose log record has already been written is not missed.
+    * @param dpt the dirty page table
+    */
+   void addDirtyPage(Map<BlockId,Long> dpt) {
+      Lock l = latch.readLock();
+      l.lock();
+      try {
+         synchronized (this) {
+            if (recLsn >= 0)
+               dpt.put(blk, recLsn);
+         }
+      }
+      finally {
+         l.unlock();
+      }
+   }
+
    /**
     * Reads the contents of the specified block into
     * the contents of the buffer.
@@ -66,22 +196,152 @@ public class Buffer {
     * are first written to disk.
     * @param b a reference to the data block
     */
-   void assignToBlock(BlockId b) {
+   synchronized void assignToBlock(BlockId b) {
       flush();
       blk = b;
-      fm.read(blk, contents);
-      pins = 0;
+      contents = fm.mappedPage(blk);
+      if (contents == null) {
+         contents = page;
+         fm.read(blk, contents);
+      }
+      version++;
+   }
+
+   /**
+    * Marks the buffer as being loaded by the prefetcher.
+    * The pin count is not reset by the load,
+    * because a client may pin the block before it arrives.
+    */
+   synchronized void startLoading() {
+      loading = true;
+      prefetched = true;
+   }
+
+   /**
+    * Reads the specified block into the buffer
+    * on behalf of the prefetcher, and wakes the
+    * clients waiting for it.
+    * @param b a reference to the data block
+    */
+   synchronized void load(BlockId b) {
+      try {
+         assignToBlock(b);
+      }
+      finally {
+         loading = false;
+         notifyAll();
+      }
+   }
+
+   /**
+    * Assigns the buffer to the specified block without
+    * reading it, because the block will be read together
+    * with its neighbors by a vectored read.
+    * Clients that pin the block in the meantime wait
+    * until {@link #endLoading} is called.
+    * If the buffer was dirty, its previous contents
+    * are first written to disk.
+    * @param b a reference to the data block
+    */
+   synchronized void startBatchLoad(BlockId b) {
+      flush();
+      blk = b;
+      contents = page;
+      loading = true;
+      version++;
+   }
+
+   /**
+    * Marks the end of a vectored read into the buffer,
+    * and wakes the clients waiting for it.
+    */
+   synchronized void endLoading() {
+      loading = false;
+      notifyAll();
+   }
+
+   /**
+    * Waits until the buffer's block has been read,
+    * if it is being loaded by the prefetcher.
+    */
+   synchronized void awaitLoaded() {
+      try {
+         while (loading)
+            wait();
+      }
+      catch(InterruptedException e) {
+         throw new BufferAbortException();
+      }
+   }
+
+   /**
+    * Records a use of the buffer's block, and returns true
+    * if this is the first use of a block that was prefetched.
+    */
+   synchronized boolean usePrefetched() {
+      boolean result = prefetched;
+      prefetched = false;
+      return result;
    }
    
+   /**
+    * Prepares the buffer to be modified.
+    * If the buffer's contents are a read-only view of
+    * a memory-mapped block, they are first copied
+    * into the buffer's own page.
+    */
+   public synchronized void makeWritable() {
+      if (contents != page) {
+         contents.copyTo(page);
+         contents = page;
+      }
+   }
+
    /**
     * Write the buffer to its disk block if it is dirty.
+    * The shared latch is held during the write, so that
+    * a page being modified is not written half done.
     */
    void flush() {
-      if (txnum >= 0) {
-         lm.flush(lsn);
-         fm.write(blk, contents);
-         txnum = -1;
+      Lock l = latch.readLock();
+      l.lock();
+      try {
+         synchronized (this) {
+            if (txnum >= 0) {
+               lm.flush(lsn);
+               fm.write(blk, contents);
+               txnum = -1;
+               recLsn = -1;
+               modifiers.clear();
+            }
+         }
       }
+      finally {
+         l.unlock();
+      }
+   }
+
+   /**
+    * Write a snapshot of the buffer to disk, provided that
+    * the buffer has not changed since the snapshot was taken.
+    * The log is first flushed up to the snapshot's LSN,
+    * so the write obeys the write-ahead rule.
+    * The buffer becomes clean only if the write happens.
+    * @param b the block that the snapshot was taken from
+    * @param v the buffer's version when the snapshot was taken
+    * @param snapshot a copy of the buffer's contents
+    * @param snaplsn the buffer's LSN when the snapshot was taken
+    * @return true if the snapshot was written
+    */
+   synchronized boolean writeSnapshot(BlockId b, long v, Page snapshot, long snaplsn) {
+      if (txnum < 0 || version != v || !b.equals(blk))
+         return false;
+      lm.flush(snaplsn);
+      fm.write(b, snapshot);
+      txnum = -1;
+      recLsn = -1;
+      modifiers.clear();
+      return true;
    }
 
    /**
@@ -1,129 +1,409 @@
 package simpledb.buffer;
 
+import java.util.*;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * The pool is divided into partitions, and each block
+ * is always placed in the partition its id hashes to.
+ * Within a partition, a hash table maps each block to the
+ * buffer holding it, and a {@link ReplacementPolicy} chooses
+ * which buffer to replace when a block is not in the pool.
  * @author Edward Sciore
  *
  */
 public class BufferMgr {
-   private Buffer[] bufferpool;
-   private int numAvailable;
+   private FileMgr fm;
+   private BufferPartition[] partitions;
+   private int blocksize;
+   private BufferWriter writer;
+   private Thread writerThread;
+   private volatile Prefetcher prefetcher;
    private static final long MAX_TIME = 10000; // 10 seconds
-   
+
    /**
-    * Creates a buffer manager having the specified number 
-    * of buffer slots.
+    * Creates a buffer manager having the specified number
+    * of buffer slots, using the clock replacement policy.
     * This constructor depends on a {@link FileMgr} and
     * {@link simpledb.log.LogMgr LogMgr} object.
     * @param numbuffs the number of buffer slots to allocate
     */
    public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs) {
-      bufferpool = new Buffer[numbuffs];
-      numAvailable = numbuffs;
-      for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer(fm, lm);
+      this(fm, lm, numbuffs, ReplacementPolicy.CLOCK);
    }
-   
+
+   /**
+    * Creates a buffer manager having the specified number
+    * of buffer slots and the specified replacement policy.
+    * The pool has a single partition.
+    * @param numbuffs the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, String policyname) {
+      this(fm, lm, numbuffs, policyname, 0);
+   }
+
+   /**
+    * Creates a buffer manager whose slots are divided
+    * among the specified number of partitions.
+    * Each partition has its own lock, so pins of blocks
+    * in different partitions do not contend.
+    * However, a pin can only use the buffers of its block's
+    * partition, so operators that size themselves from
+    * {@link #available()} get fewer buffers.
+    * A value of 0 or less gives a single partition.
+    * @param numbuffs the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @param numpartitions the number of partitions
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, String policyname, int numpartitions) {
+      numpartitions = Math.max(1, Math.min(numpartitions, numbuffs));
+      this.fm = fm;
+      blocksize = fm.blockSize();
+      partitions = new BufferPartition[numpartitions];
+      for (int i=0; i<numpartitions; i++) {
+         int size = numbuffs / numpartitions + (i < numbuffs % numpartitions ? 1 : 0);
+         partitions[i] = new BufferPartition(fm, lm, size, policyname);
+      }
+   }
+
    /**
-    * Returns the number of available (i.e. unpinned) buffers.
+    * Returns the number of available (i.e. unpinned) buffers
+    * that a client can rely on pinning without waiting.
+    * Each block can only be pinned in its own partition,
+    * so free buffers in other partitions do not help;
+    * the result is therefore the number of available buffers
+    * in the partition that has the fewest, times the number of partitions.
     * @return the number of available buffers
     */
-   public synchronized int available() {
-      return numAvailable;
+   public int available() {
+      int min = Integer.MAX_VALUE;
+      for (BufferPartition p : partitions)
+         min = Math.min(min, p.available());
+      return min * partitions.length;
    }
-   
+
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Flushes the dirty buffers modified by the specified transaction,
+    * and forces the data files to disk.
+    * The force also covers pages of the transaction that were
+    * written earlier, when their buffers were replaced.
     * @param txnum the transaction's id number
     */
-   public synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
-         if (buff.modifyingTx() == txnum)
-         buff.flush();
+   public void flushAll(int txnum) {
+      for (BufferPartition p : partitions)
+         p.flushAll(txnum);
+      fm.forceAll();
    }
-   
-   
+
+   /**
+    * Returns the dirty page table: the blocks whose buffers have
+    * logged changes that have not been written, each with the
+    * LSN of the first such change.
+    * The data files are then forced to disk, so that the blocks
+    * missing from the table are known to be on disk.
+    * @return a map from each dirty block to its recovery LSN
+    */
+   public Map<BlockId,Long> dirtyPages() {
+      Map<BlockId,Long> dpt = new HashMap<>();
+      for (BufferPartition p : partitions)
+         p.dirtyPages(dpt);
+      fm.forceAll();
+      return dpt;
+   }
+
    /**
     * Unpins the specified data buffer. If its pin count
-    * goes to zero, then notify any waiting threads.
+    * goes to zero, then notify a waiting thread.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      buff.unpin();
-      if (!buff.isPinned()) {
-         numAvailable++;
-         notifyAll();
-      }
+   public void unpin(Buffer buff) {
+      partition(buff.block()).unpin(buff);
    }
-   
+
    /**
     * Pins a buffer to the specified block, potentially
     * waiting until a buffer becomes available.
-    * If no buffer becomes available within a fixed 
+    * If no buffer becomes available within a fixed
     * time period, then a {@link BufferAbortException} is thrown.
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(BlockId blk) {
+   public Buffer pin(BlockId blk) {
       try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = tryToPin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = tryToPin(blk);
-         }
+         Buffer buff = partition(blk).pin(blk, MAX_TIME);
          if (buff == null)
             throw new BufferAbortException();
+         buff.awaitLoaded();
+         Prefetcher p = prefetcher;
+         if (p != null)
+            p.pinned(blk);
          return buff;
       }
       catch(InterruptedException e) {
          throw new BufferAbortException();
       }
-   }  
-   
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
-   }
-   
-   /**
-    * Tries to pin a buffer to the specified block. 
-    * If there is already a buffer assigned to that block
-    * then that buffer is used;  
-    * otherwise, an unpinned buffer from the pool is chosen.
-    * Returns a null value if there are no available buffers.
-    * @param blk a reference to a disk block
-    * @return the pinned buffer
+   }
+
+   /**
+    * Starts a background thread that writes dirty, unpinned
+    * buffers to disk ahead of their replacement.
+    * Whenever more than the specified fraction of a
+    * partition's buffers are dirty, the thread writes
+    * buffers until the fraction is met.
+    * @param dirtyRatio the target fraction of dirty buffers
+    * @param interval the number of milliseconds between passes
     */
-   private Buffer tryToPin(BlockId blk) {
-      Buffer buff = findExistingBuffer(blk);
-      if (buff == null) {
-         buff = chooseUnpinnedBuffer();
-         if (buff == null)
-            return null;
-         buff.assignToBlock(blk);
+   public synchronized void startWriter(double dirtyRatio, long interval) {
+      if (writerThread != null)
+         return;
+      writer = new BufferWriter(partitions, blocksize, dirtyRatio, interval);
+      writerThread = new Thread(writer, "buffer-writer");
+      writerThread.setDaemon(true);
+      writerThread.start();
+   }
+
+   /**
+    * Stops the background writer, if it is running.
+    */
+   public synchronized void stopWriter() {
+      if (writerThread == null)
+         return;
+      writer.stop();
+      try {
+         writerThread.join();
+      }
+      catch(InterruptedException e) {}
+      writerThread = null;
+   }
+
+   /**
+    * Returns the number of buffers that the background
+    * writer has written.
+    * @return the number of background writes
+    */
+   public synchronized long backgroundWrites() {
+      return (writer == null) ? 0 : writer.written();
+   }
+
+   /**
+    * Pins the consecutive blocks of a file in the specified range.
+    * The blocks that are not in the pool are assigned to
+    * buffers first, and then each run of consecutive such blocks
+    * is read with a single vectored read.
+    * If a buffer is not immediately available for some block,
+    * the runs collected so far are read, and the block is
+    * pinned in the usual way, waiting if necessary.
+    * @param filename the name of the file
+    * @param first the number of the first block
+    * @param last the number of the last block
+    * @return the pinned buffers, in block order
+    */
+   public List<Buffer> pinBlocks(String filename, int first, int last) {
+      List<Buffer> result = new ArrayList<>();
+      if (fm.isMemoryMapped()) {
+         for (int i=first; i<=last; i++)
+            result.add(pin(new BlockId(filename, i)));
+         return result;
       }
-      if (!buff.isPinned())
-         numAvailable--;
-      buff.pin();
-      return buff;
-   }
-   
-   private Buffer findExistingBuffer(BlockId blk) {
-      for (Buffer buff : bufferpool) {
-         BlockId b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
+      List<Buffer> run = new ArrayList<>();
+      List<Buffer> unread = new ArrayList<>();
+      int runstart = first;
+      try {
+         for (int i=first; i<=last; i++) {
+            BlockId blk = new BlockId(filename, i);
+            Buffer buff = partition(blk).pinUnread(blk, unread);
+            if (buff == null) {
+               readRun(filename, runstart, run);
+               buff = pin(blk);
+            }
+            else if (!unread.isEmpty()) {
+               if (runstart + run.size() != i)
+                  readRun(filename, runstart, run);
+               if (run.isEmpty())
+                  runstart = i;
+               run.add(unread.remove(0));
+            }
+            result.add(buff);
+         }
+         readRun(filename, runstart, run);
       }
-      return null;
+      catch(RuntimeException e) {
+         for (Buffer buff : run)
+            buff.endLoading();
+         for (Buffer buff : result)
+            unpin(buff);
+         throw e;
+      }
+      for (Buffer buff : result)
+         buff.awaitLoaded();
+      return result;
    }
-   
-   private Buffer chooseUnpinnedBuffer() {
-      for (Buffer buff : bufferpool)
-         if (!buff.isPinned())
-         return buff;
-      return null;
+
+   /**
+    * Reads the consecutive blocks of a run into their buffers
+    * with one vectored read, and empties the run.
+    */
+   private void readRun(String filename, int runstart, List<Buffer> run) {
+      if (run.isEmpty())
+         return;
+      Page[] pages = new Page[run.size()];
+      for (int i=0; i<pages.length; i++)
+         pages[i] = run.get(i).contents();
+      try {
+         fm.read(new BlockId(filename, runstart), pages);
+      }
+      catch(RuntimeException e) {
+         for (Buffer buff : run)
+            partition(buff.block()).discard(buff);
+         throw e;
+      }
+      finally {
+         for (Buffer buff : run)
+            buff.endLoading();
+         run.clear();
+      }
+   }
+
+   /**
+    * Starts prefetching blocks of files that are read sequentially.
+    * When a block is pinned right after its predecessor,
+    * the next blocks of the file, up to the specified depth,
+    * are read into unpinned buffers in the background.
+    * @param depth the number of blocks to read ahead
+    */
+   public synchronized void startPrefetcher(int depth) {
+      if (prefetcher == null)
+         prefetcher = new Prefetcher(this, fm, depth);
+   }
+
+   /**
+    * Stops prefetching.
+    */
+   public synchronized void stopPrefetcher() {
+      if (prefetcher != null) {
+         prefetcher.shutdown();
+         prefetcher = null;
+      }
+   }
+
+   /**
+    * Asks for the specified blocks to be read into the pool
+    * in the background, because they will be pinned soon.
+    * The request is ignored if the prefetcher is not running.
+    * @param filename the name of the file
+    * @param first the number of the first block
+    * @param last the number of the last block
+    */
+   public void prefetch(String filename, int first, int last) {
+      Prefetcher p = prefetcher;
+      if (p != null)
+         p.prefetch(filename, first, last);
+   }
+
+   /**
+    * Reads the specified block into the pool on behalf
+    * of the prefetcher, provided that enough buffers
+    * are available for the clients' own pins.
+    */
+   void prefetchBlock(BlockId blk) {
+      BufferPartition p = partition(blk);
+      p.prefetch(blk, Math.max(1, p.size() / 4));
+   }
+
+   /**
+    * Returns the number of prefetched blocks that were
+    * later pinned.
+    * @return the number of prefetch hits
+    */
+   public long prefetchHits() {
+      long result = 0;
+      for (BufferPartition p : partitions)
+         result += p.prefetchHits();
+      return result;
+   }
+
+   /**
+    * Returns the number of prefetched blocks that were
+    * replaced before they were pinned.
+    * @return the number of wasted prefetches
+    */
+   public long prefetchWasted() {
+      long result = 0;
+      for (BufferPartition p : partitions)
+         result += p.prefetchWasted();
+      return result;
+   }
+
+   /**
+    * Returns the fraction of buffers that hold modified pages.
+    * @return the fraction of dirty buffers
+    */
+   public double dirtyRatio() {
+      int dirty = 0, size = 0;
+      for (BufferPartition p : partitions) {
+         dirty += p.numDirty();
+         size += p.size();
+      }
+      return (double) dirty / size;
+   }
+
+   /**
+    * Returns the number of partitions of the pool.
+    * @return the number of partitions
+    */
+   public int numPartitions() {
+      return partitions.length;
+   }
+
+   /**
+    * Returns the number of pins that found their block
+    * already in the buffer pool.
+    * @return the number of buffer hits
+    */
+   public long hits() {
+      long result = 0;
+      for (BufferPartition p : partitions)
+         result += p.hits();
+      return result;
+   }
+
+   /**
+    * Returns the number of pins that had to read
+    * their block from disk.
+    * @return the number of buffer misses
+    */
+   public long misses() {
+      long result = 0;
+      for (BufferPartition p : partitions)
+         result += p.misses();
+      return result;
+   }
+
+   /**
+    * Returns the fraction of pins that were buffer hits,
+    * which is the measure used to size the buffer pool.
+    * @return the hit ratio, or 0 if nothing has been pinned
+    */
+   public double hitRatio() {
+      long hits = hits();
+      long total = hits + misses();
+      return (total == 0) ? 0.0 : (double) hits / total;
+   }
+
+   /**
+    * Resets the hit and miss counters.
+    */
+   public void resetStatistics() {
+      for (BufferPartition p : partitions)
+         p.resetStatistics();
+   }
+
+   private BufferPartition partition(BlockId blk) {
+      int h = blk.hashCode();
+      h ^= (h >>> 16);
+      return partitions[(h & Integer.MAX_VALUE) % partitions.length];
    }
 }
@@ -0,0 +1,376 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.*;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+/**
+ * One independently-locked sub-pool of the buffer manager.
+ * Each block always hashes to the same partition, so
+ * a partition can decide by itself whether a block is resident.
+ * Threads that find no unpinned buffer wait on the
+ * partition's condition queue, and an unpin wakes
+ * only one of them.
+ */
+class BufferPartition {
+   private Buffer[] bufferpool;
+   private Map<BlockId,Buffer> bufferTable = new HashMap<>();
+   private Deque<Buffer> unassigned = new ArrayDeque<>();
+   private ReplacementPolicy policy;
+   private AtomicInteger numAvailable;
+   private long hits = 0, misses = 0;
+   private long prefetchHits = 0, prefetchWasted = 0;
+   private ReentrantLock lock = new ReentrantLock();
+   private Condition bufferFreed = lock.newCondition();
+
+   BufferPartition(FileMgr fm, LogMgr lm, int numbuffs, String policyname) {
+      bufferpool = new Buffer[numbuffs];
+      numAvailable = new AtomicInteger(numbuffs);
+      for (int i=0; i<numbuffs; i++) {
+         bufferpool[i] = new Buffer(fm, lm, i);
+         unassigned.add(bufferpool[i]);
+      }
+      policy = ReplacementPolicy.create(policyname, bufferpool);
+   }
+
+   int available() {
+      return numAvailable.get();
+   }
+
+   void flushAll(int txnum) {
+      lock.lock();
+      try {
+         for (Buffer buff : bufferpool)
+            if (buff.isModifiedBy(txnum))
+            buff.flush();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Adds the partition's dirty buffers to the dirty page table.
+    * The partition is not locked, because a buffer is
+    * written before it is assigned to another block.
+    * @param dpt the dirty page table
+    */
+   void dirtyPages(Map<BlockId,Long> dpt) {
+      for (Buffer buff : bufferpool)
+         buff.addDirtyPage(dpt);
+   }
+
+   void unpin(Buffer buff) {
+      lock.lock();
+      try {
+         buff.unpin();
+         if (!buff.isPinned()) {
+            numAvailable.incrementAndGet();
+            policy.unpinned(buff);
+            bufferFreed.signal();
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Pins a buffer to the specified block, waiting at most
+    * the specified time for a buffer to become available.
+    * A thread that was woken passes the signal on if
+    * it did not need the freed buffer, so that it is not lost.
+    * @return the pinned buffer, or null if the time expired
+    */
+   Buffer pin(BlockId blk, long maxtime) throws InterruptedException {
+      lock.lock();
+      try {
+         Buffer buff = tryToPin(blk);
+         if (buff != null)
+            return buff;
+         long remaining = TimeUnit.MILLISECONDS.toNanos(maxtime);
+         while (buff == null && remaining > 0) {
+            remaining = bufferFreed.awaitNanos(remaining);
+            buff = tryToPin(blk);
+         }
+         if (numAvailable.get() > 0)
+            bufferFreed.signal();
+         return buff;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of buffers in the partition.
+    * @return the partition's size
+    */
+   int size() {
+      return bufferpool.length;
+   }
+
+   /**
+    * Returns the number of buffers holding modified pages.
+    * @return the number of dirty buffers
+    */
+   int numDirty() {
+      int result = 0;
+      for (Buffer buff : bufferpool)
+         if (buff.isModified())
+         result++;
+      return result;
+   }
+
+   /**
+    * Writes up to the specified number of dirty, unpinned buffers.
+    * The buffers are copied into the scratch pages
+    * while the partition is locked, so that none of them
+    * can be pinned, and they are written after it is unlocked,
+    * so that pins are not held up by the disk.
+    * A buffer that changes in the meantime is left dirty.
+    * @param limit the maximum number of buffers to write
+    * @param scratch the pages that receive the copies
+    * @return the number of buffers written
+    */
+   int writeDirty(int limit, Page[] scratch) {
+      int written = 0;
+      int start = 0;
+      while (written < limit && start < bufferpool.length) {
+         Buffer[] buffs = new Buffer[scratch.length];
+         BlockId[] blks = new BlockId[scratch.length];
+         long[] versions = new long[scratch.length];
+         long[] lsns = new long[scratch.length];
+         int n = 0;
+         lock.lock();
+         try {
+            while (n < scratch.length && n < limit - written && start < bufferpool.length) {
+               Buffer buff = bufferpool[start++];
+               if (buff.isPinned() || !buff.isModified())
+                  continue;
+               buffs[n] = buff;
+               blks[n] = buff.block();
+               versions[n] = buff.version();
+               lsns[n] = buff.lsn();
+               buff.contents().copyTo(scratch[n]);
+               n++;
+            }
+         }
+         finally {
+            lock.unlock();
+         }
+         for (int i=0; i<n; i++)
+            if (buffs[i].writeSnapshot(blks[i], versions[i], scratch[i], lsns[i]))
+            written++;
+      }
+      return written;
+   }
+
+   /**
+    * Reads the specified block into an unpinned buffer in
+    * the background, unless the block is already in the pool.
+    * A buffer is taken only if at least the specified number
+    * of buffers would remain available.
+    * The buffer to be replaced is flushed while the partition
+    * is locked, as with a normal pin, so that no client can
+    * read the old block from disk before it is written.
+    * The new block is read after the partition is unlocked;
+    * clients that pin it in the meantime wait for the read.
+    * @param blk the block to read
+    * @param reserve the number of buffers to leave available
+    */
+   void prefetch(BlockId blk, int reserve) {
+      Buffer buff;
+      lock.lock();
+      try {
+         if (bufferTable.containsKey(blk) || numAvailable.get() <= reserve)
+            return;
+         buff = chooseUnpinnedBuffer();
+         if (buff == null)
+            return;
+         if (buff.block() != null) {
+            bufferTable.remove(buff.block(), buff);
+            buff.flush();
+            if (buff.usePrefetched())
+               prefetchWasted++;
+         }
+         bufferTable.put(blk, buff);
+         numAvailable.decrementAndGet();
+         buff.pin();
+         policy.pinned(buff, false);
+         buff.startLoading();
+      }
+      finally {
+         lock.unlock();
+      }
+      try {
+         buff.load(blk);
+      }
+      catch(RuntimeException e) {
+         lock.lock();
+         try {
+            bufferTable.remove(blk, buff);
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+      unpin(buff);
+   }
+
+   /**
+    * Pins the specified block without waiting and without
+    * reading it.
+    * If the block is not in the pool, an unpinned buffer is
+    * assigned to it and added to the list of unread buffers;
+    * the caller must read the block and then call
+    * {@link Buffer#endLoading}.
+    * @param blk the block to pin
+    * @param unread the list of buffers that still need to be read
+    * @return the pinned buffer, or null if no buffer is available
+    */
+   Buffer pinUnread(BlockId blk, List<Buffer> unread) {
+      lock.lock();
+      try {
+         Buffer buff = bufferTable.get(blk);
+         boolean hit = (buff != null);
+         if (!hit) {
+            buff = chooseUnpinnedBuffer();
+            if (buff == null)
+               return null;
+            if (buff.block() != null) {
+               bufferTable.remove(buff.block(), buff);
+               if (buff.usePrefetched())
+                  prefetchWasted++;
+            }
+            buff.startBatchLoad(blk);
+            bufferTable.put(blk, buff);
+            unread.add(buff);
+         }
+         if (!buff.isPinned())
+            numAvailable.decrementAndGet();
+         buff.pin();
+         policy.pinned(buff, hit);
+         if (hit && buff.usePrefetched())
+            prefetchHits++;
+         if (hit)
+            hits++;
+         else
+            misses++;
+         return buff;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Removes the buffer from the block table, because
+    * its contents could not be read.
+    * The buffer keeps its pins, and will be replaced later.
+    */
+   void discard(Buffer buff) {
+      lock.lock();
+      try {
+         bufferTable.remove(buff.block(), buff);
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   long prefetchHits() {
+      lock.lock();
+      try {
+         return prefetchHits;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   long prefetchWasted() {
+      lock.lock();
+      try {
+         return prefetchWasted;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   long hits() {
+      lock.lock();
+      try {
+         return hits;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   long misses() {
+      lock.lock();
+      try {
+         return misses;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   void resetStatistics() {
+      lock.lock();
+      try {
+         hits = 0;
+         misses = 0;
+         prefetchHits = 0;
+         prefetchWasted = 0;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   private Buffer tryToPin(BlockId blk) {
+      Buffer buff = bufferTable.get(blk);
+      boolean hit = (buff != null);
+      if (!hit) {
+         buff = chooseUnpinnedBuffer();
+         if (buff == null)
+            return null;
+         if (buff.block() != null) {
+            bufferTable.remove(buff.block(), buff);
+            if (buff.usePrefetched())
+               prefetchWasted++;
+         }
+         buff.assignToBlock(blk);
+         bufferTable.put(blk, buff);
+      }
+      if (!buff.isPinned())
+         numAvailable.decrementAndGet();
+      buff.pin();
+      policy.pinned(buff, hit);
+      if (hit && buff.usePrefetched())
+         prefetchHits++;
+      if (hit)
+         hits++;
+      else
+         misses++;
+      return buff;
+   }
+
+   /**
+    * Buffers that have never held a block are used first;
+    * after that, the replacement policy makes the choice.
+    */
+   private Buffer chooseUnpinnedBuffer() {
+      Buffer buff = unassigned.poll();
+      if (buff != null)
+         return buff;
+      return policy.chooseUnpinnedBuffer();
+   }
+}
@@ -0,0 +1,55 @@
+package simpledb.buffer;
+
+import java.util.Random;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Measures pin/unpin throughput of the buffer manager
+ * from 1 to 32 threads, with a single partition
+ * and with a partitioned pool.
+ * The working set fits in the pool, so the test
+ * measures contention rather than disk I/O.
+ */
+public class BufferThroughputTest {
+   private static final int NUMBUFFS = 1024;
+   private static final int NUMBLOCKS = 512;
+   private static final int OPS_PER_THREAD = 200000;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("throughputtest", 400, 8);
+      int[] partitionCounts = {1, 16};
+      for (int numpartitions : partitionCounts) {
+         BufferMgr bm = new BufferMgr(db.fileMgr(), db.logMgr(), NUMBUFFS,
+                                      ReplacementPolicy.CLOCK, numpartitions);
+         for (int i=0; i<NUMBLOCKS; i++)
+            bm.unpin(bm.pin(new BlockId("benchfile", i)));
+         System.out.println(bm.numPartitions() + " partition(s):");
+         for (int numthreads=1; numthreads<=32; numthreads*=2) {
+            double rate = run(bm, numthreads);
+            System.out.println(String.format("   %2d threads: %,12.0f pins/sec", numthreads, rate));
+         }
+      }
+   }
+
+   private static double run(BufferMgr bm, int numthreads) throws InterruptedException {
+      Thread[] threads = new Thread[numthreads];
+      for (int t=0; t<numthreads; t++) {
+         int seed = t;
+         threads[t] = new Thread(() -> {
+            Random rand = new Random(seed);
+            for (int i=0; i<OPS_PER_THREAD; i++) {
+               Buffer buff = bm.pin(new BlockId("benchfile", rand.nextInt(NUMBLOCKS)));
+               bm.unpin(buff);
+            }
+         });
+      }
+      long start = System.nanoTime();
+      for (Thread t : threads)
+         t.start();
+      for (Thread t : threads)
+         t.join();
+      long elapsed = System.nanoTime() - start;
+      return (double) numthreads * OPS_PER_THREAD * 1e9 / elapsed;
+   }
+}
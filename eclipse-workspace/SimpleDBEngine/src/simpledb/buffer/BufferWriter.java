@@ -0,0 +1,79 @@
+package simpledb.buffer;
+
+import simpledb.file.Page;
+
+/**
+ * The background writer.
+ * At regular intervals it checks each partition of the pool,
+ * and if more than the target fraction of the partition's buffers
+ * are dirty, it writes unpinned dirty buffers to disk until
+ * the target is met.
+ * Buffers chosen for replacement are then usually clean,
+ * so that a pin seldom has to wait for a write.
+ */
+class BufferWriter implements Runnable {
+   private static final int BATCH_SIZE = 8;
+   private BufferPartition[] partitions;
+   private double dirtyRatio;
+   private long interval;
+   private Page[] scratch = new Page[BATCH_SIZE];
+   private long written = 0;
+   private boolean stopped = false;
+
+   /**
+    * @param partitions the partitions of the pool
+    * @param blocksize the size of a page
+    * @param dirtyRatio the fraction of dirty buffers to aim for
+    * @param interval the number of milliseconds between passes
+    */
+   BufferWriter(BufferPartition[] partitions, int blocksize, double dirtyRatio, long interval) {
+      this.partitions = partitions;
+      this.dirtyRatio = dirtyRatio;
+      this.interval = interval;
+      for (int i=0; i<BATCH_SIZE; i++)
+         scratch[i] = new Page(blocksize);
+   }
+
+   public void run() {
+      try {
+         while (waitForInterval())
+            writePass();
+      }
+      catch(InterruptedException e) {
+         // the writer was stopped
+      }
+   }
+
+   /**
+    * Stops the writer at the end of its current pass.
+    * The writer is not interrupted, because an interrupt
+    * during I/O would close the channel of the file being written.
+    */
+   synchronized void stop() {
+      stopped = true;
+      notifyAll();
+   }
+
+   private synchronized boolean waitForInterval() throws InterruptedException {
+      if (!stopped)
+         wait(interval);
+      return !stopped;
+   }
+
+   /**
+    * Returns the number of buffers written so far.
+    * @return the number of buffers written
+    */
+   synchronized long written() {
+      return written;
+   }
+
+   private synchronized void writePass() {
+      for (BufferPartition p : partitions) {
+         int target = (int) (dirtyRatio * p.size());
+         int excess = p.numDirty() - target;
+         if (excess > 0)
+            written += p.writeDirty(excess, scratch);
+      }
+   }
+}
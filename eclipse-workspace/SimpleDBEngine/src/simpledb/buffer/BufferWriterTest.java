@@ -0,0 +1,44 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Measures the time taken by pins that replace a buffer,
+ * with and without the background writer.
+ * Every block is modified before it is unpinned, so
+ * without the writer every replacement must first
+ * write the old page.
+ */
+public class BufferWriterTest {
+   private static final int NUMBUFFS = 64;
+   private static final int NUMBLOCKS = 2000;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("bufferwritertest", 400, 8);
+      run(db, false);
+      run(db, true);
+   }
+
+   private static void run(SimpleDB db, boolean useWriter) throws InterruptedException {
+      BufferMgr bm = new BufferMgr(db.fileMgr(), db.logMgr(), NUMBUFFS);
+      if (useWriter)
+         bm.startWriter(0.25, 1);
+      long pintime = 0;
+      for (int i=0; i<NUMBLOCKS; i++) {
+         long start = System.nanoTime();
+         Buffer buff = bm.pin(new BlockId("writerfile", i));
+         pintime += System.nanoTime() - start;
+         buff.contents().setInt(0, i);
+         buff.setModified(1, -1);
+         bm.unpin(buff);
+         if (i % 16 == 0)
+            Thread.sleep(1); // time for other work, such as query processing
+      }
+      bm.stopWriter();
+      System.out.println((useWriter ? "with writer:    " : "without writer: ")
+            + String.format("%.1f us/pin", pintime / 1000.0 / NUMBLOCKS)
+            + ", background writes = " + bm.backgroundWrites()
+            + ", dirty ratio = " + String.format("%.2f", bm.dirtyRatio()));
+   }
+}
@@ -0,0 +1,44 @@
+package simpledb.buffer;
+
+/**
+ * The clock (second-chance) replacement strategy.
+ * Each buffer has a reference bit that is set whenever it is pinned.
+ * The clock hand sweeps the pool, clearing reference bits,
+ * and chooses the first unpinned buffer whose bit is already clear.
+ */
+class ClockPolicy implements ReplacementPolicy {
+   private Buffer[] bufferpool;
+   private boolean[] referenced;
+   private int hand = 0;
+
+   public ClockPolicy(Buffer[] bufferpool) {
+      this.bufferpool = bufferpool;
+      referenced = new boolean[bufferpool.length];
+   }
+
+   /**
+    * Sweeps the pool at most twice: the first sweep
+    * may only clear reference bits, and the second sweep
+    * is then guaranteed to find any unpinned buffer.
+    */
+   public Buffer chooseUnpinnedBuffer() {
+      for (int i=0; i<2*bufferpool.length; i++) {
+         Buffer buff = bufferpool[hand];
+         int frame = hand;
+         hand = (hand + 1) % bufferpool.length;
+         if (buff.isPinned())
+            continue;
+         if (referenced[frame])
+            referenced[frame] = false;
+         else
+            return buff;
+      }
+      return null;
+   }
+
+   public void pinned(Buffer buff, boolean hit) {
+      referenced[buff.frame()] = true;
+   }
+
+   public void unpinned(Buffer buff) {}
+}
@@ -0,0 +1,120 @@
+package simpledb.buffer;
+
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.Lock;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Stress-tests the buffer latches.
+ * A writer thread repeatedly replaces a string in a page,
+ * while reader threads read it and a flusher thread writes the
+ * page to disk. Each value is a run of one character whose length
+ * is stored beside it, so a page seen half written is detected.
+ * The readers share the latch and run in parallel.
+ */
+public class LatchTest {
+   private static final int NUMREADERS = 4;
+   private static final long DURATION = 2000; // ms
+   private static final int MAXLEN = 100;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("latchtest", 400, 8);
+      BufferMgr bm = db.bufferMgr();
+      BlockId blk = new BlockId("latchfile", 0);
+      Buffer b = bm.pin(blk);
+      write(b, 'a', 1);
+      AtomicBoolean done = new AtomicBoolean(false);
+      AtomicLong reads = new AtomicLong(), writes = new AtomicLong(), flushes = new AtomicLong();
+      AtomicReference<String> error = new AtomicReference<>();
+
+      Thread writer = new Thread(() -> {
+         Buffer buff = bm.pin(blk);
+         int i = 0;
+         while (!done.get()) {
+            i++;
+            write(buff, (char) ('a' + i % 26), 1 + i % MAXLEN);
+            writes.incrementAndGet();
+         }
+         bm.unpin(buff);
+      });
+      Thread flusher = new Thread(() -> {
+         while (!done.get()) {
+            bm.flushAll(1);
+            flushes.incrementAndGet();
+         }
+      });
+      Thread[] readers = new Thread[NUMREADERS];
+      for (int r=0; r<NUMREADERS; r++) {
+         readers[r] = new Thread(() -> {
+            Buffer buff = bm.pin(blk);
+            while (!done.get()) {
+               Lock latch = buff.readLatch();
+               latch.lock();
+               try {
+                  String msg = check(buff.contents());
+                  if (msg != null)
+                     error.compareAndSet(null, msg);
+               }
+               finally {
+                  latch.unlock();
+               }
+               reads.incrementAndGet();
+            }
+            bm.unpin(buff);
+         });
+      }
+
+      writer.start();
+      flusher.start();
+      for (Thread t : readers)
+         t.start();
+      Thread.sleep(DURATION);
+      done.set(true);
+      writer.join();
+      flusher.join();
+      for (Thread t : readers)
+         t.join();
+
+      bm.flushAll(1);
+      bm.unpin(b);
+      Page p = new Page(db.fileMgr().blockSize());
+      db.fileMgr().read(blk, p);
+      String diskmsg = check(p);
+      System.out.println(reads.get() + " reads, " + writes.get() + " writes, "
+            + flushes.get() + " flushes");
+      if (error.get() != null)
+         throw new RuntimeException("reader saw a torn page: " + error.get());
+      if (diskmsg != null)
+         throw new RuntimeException("disk has a torn page: " + diskmsg);
+      System.out.println("no torn pages seen");
+   }
+
+   private static void write(Buffer buff, char c, int len) {
+      StringBuilder sb = new StringBuilder();
+      for (int i=0; i<len; i++)
+         sb.append(c);
+      Lock latch = buff.writeLatch();
+      latch.lock();
+      try {
+         Page p = buff.contents();
+         p.setInt(0, len);
+         p.setString(Integer.BYTES, sb.toString());
+         buff.setModified(1, -1);
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   private static String check(Page p) {
+      int len = p.getInt(0);
+      String s = p.getString(Integer.BYTES);
+      if (s.length() != len)
+         return "length " + len + " but string " + s;
+      for (int i=1; i<len; i++)
+         if (s.charAt(i) != s.charAt(0))
+            return "mixed string " + s;
+      return null;
+   }
+}
@@ -0,0 +1,66 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The LRU-K replacement strategy.
+ * The policy remembers the times of the last K pins of each buffer,
+ * and replaces the unpinned buffer whose K-th most recent pin
+ * is the oldest. Buffers pinned fewer than K times
+ * are replaced first, in LRU order.
+ * The unpinned buffers are kept in a sorted set,
+ * so that choosing a victim takes logarithmic time.
+ */
+class LruKPolicy implements ReplacementPolicy {
+   private int k;
+   private long[][] history;
+   private long clock = 0;
+   private TreeSet<Buffer> candidates;
+
+   public LruKPolicy(Buffer[] bufferpool, int k) {
+      this.k = k;
+      history = new long[bufferpool.length][k];
+      candidates = new TreeSet<>(this::compare);
+   }
+
+   public Buffer chooseUnpinnedBuffer() {
+      return candidates.pollFirst();
+   }
+
+   /**
+    * Records the time of the pin.
+    * The history of a buffer is discarded when
+    * a new block is read into it.
+    */
+   public void pinned(Buffer buff, boolean hit) {
+      candidates.remove(buff);
+      long[] times = history[buff.frame()];
+      clock++;
+      if (!hit)
+         Arrays.fill(times, 0);
+      for (int i=k-1; i>0; i--)
+         times[i] = times[i-1];
+      times[0] = clock;
+   }
+
+   public void unpinned(Buffer buff) {
+      candidates.add(buff);
+   }
+
+   /**
+    * Order buffers by their K-th most recent pin,
+    * then by their most recent pin.
+    * A buffer's history does not change while it is a candidate,
+    * which keeps the ordering of the sorted set stable.
+    */
+   private int compare(Buffer b1, Buffer b2) {
+      long[] t1 = history[b1.frame()];
+      long[] t2 = history[b2.frame()];
+      int result = Long.compare(t1[k-1], t2[k-1]);
+      if (result == 0)
+         result = Long.compare(t1[0], t2[0]);
+      if (result == 0)
+         result = Integer.compare(b1.frame(), b2.frame());
+      return result;
+   }
+}
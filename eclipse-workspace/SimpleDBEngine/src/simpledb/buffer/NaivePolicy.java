@@ -0,0 +1,24 @@
+package simpledb.buffer;
+
+/**
+ * The original replacement strategy:
+ * choose the first unpinned buffer in the pool.
+ */
+class NaivePolicy implements ReplacementPolicy {
+   private Buffer[] bufferpool;
+
+   public NaivePolicy(Buffer[] bufferpool) {
+      this.bufferpool = bufferpool;
+   }
+
+   public Buffer chooseUnpinnedBuffer() {
+      for (Buffer buff : bufferpool)
+         if (!buff.isPinned())
+         return buff;
+      return null;
+   }
+
+   public void pinned(Buffer buff, boolean hit) {}
+
+   public void unpinned(Buffer buff) {}
+}
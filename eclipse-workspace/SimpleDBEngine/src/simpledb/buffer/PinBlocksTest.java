@@ -0,0 +1,58 @@
+package simpledb.buffer;
+
+import java.util.List;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Pins a file chunk by chunk, first one block at a time
+ * and then with pinBlocks, which reads each run of
+ * missing blocks with one vectored read.
+ * Some blocks of each chunk are pinned beforehand,
+ * so that the runs are broken up by buffer hits.
+ */
+public class PinBlocksTest {
+   private static final int NUMBLOCKS = 4096;
+   private static final int CHUNKSIZE = 32;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("pinblockstest", 4096, 8);
+      FileMgr fm = db.fileMgr();
+      Page p = new Page(fm.blockSize());
+      while (fm.length("chunkfile") < NUMBLOCKS) {
+         BlockId blk = fm.append("chunkfile");
+         p.setInt(0, blk.number());
+         fm.write(blk, p);
+      }
+      for (int round=0; round<3; round++) {
+         run(db, false);
+         run(db, true);
+      }
+   }
+
+   private static void run(SimpleDB db, boolean batch) {
+      BufferMgr bm = new BufferMgr(db.fileMgr(), db.logMgr(), 2*CHUNKSIZE);
+      long start = System.nanoTime();
+      for (int first=0; first<NUMBLOCKS; first+=CHUNKSIZE) {
+         int last = first + CHUNKSIZE - 1;
+         Buffer hit = bm.pin(new BlockId("chunkfile", first + 10));
+         Buffer[] buffs = new Buffer[CHUNKSIZE];
+         if (batch) {
+            List<Buffer> list = bm.pinBlocks("chunkfile", first, last);
+            buffs = list.toArray(buffs);
+         }
+         else
+            for (int i=first; i<=last; i++)
+               buffs[i-first] = bm.pin(new BlockId("chunkfile", i));
+         for (int i=first; i<=last; i++) {
+            if (buffs[i-first].contents().getInt(0) != i)
+               throw new RuntimeException("wrong block read");
+            bm.unpin(buffs[i-first]);
+         }
+         bm.unpin(hit);
+      }
+      long elapsed = System.nanoTime() - start;
+      System.out.println((batch ? "pinBlocks:  " : "single pins: ")
+            + String.format("%.1f ms", elapsed / 1e6) + ", hits = " + bm.hits());
+   }
+}
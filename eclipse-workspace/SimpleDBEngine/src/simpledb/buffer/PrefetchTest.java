@@ -0,0 +1,57 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Scans a file sequentially, doing some work on each block,
+ * with and without the prefetcher, and prints the
+ * elapsed time and the prefetch hit and waste counts.
+ */
+public class PrefetchTest {
+   private static final int NUMBLOCKS = 2000;
+   private static final int NUMBUFFS = 64;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("prefetchtest", 4096, 8);
+      FileMgr fm = db.fileMgr();
+      Page p = new Page(fm.blockSize());
+      while (fm.length("scanfile") < NUMBLOCKS) {
+         BlockId blk = fm.append("scanfile");
+         p.setInt(0, blk.number());
+         fm.write(blk, p);
+      }
+      run(db, 0);
+      run(db, 8);
+      run(db, 32);
+   }
+
+   private static void run(SimpleDB db, int depth) {
+      BufferMgr bm = new BufferMgr(db.fileMgr(), db.logMgr(), NUMBUFFS);
+      if (depth > 0)
+         bm.startPrefetcher(depth);
+      long start = System.nanoTime();
+      long sum = 0;
+      for (int i=0; i<NUMBLOCKS; i++) {
+         Buffer buff = bm.pin(new BlockId("scanfile", i));
+         if (buff.contents().getInt(0) != i)
+            throw new RuntimeException("wrong block read");
+         sum += work();
+         bm.unpin(buff);
+      }
+      long elapsed = System.nanoTime() - start;
+      bm.stopPrefetcher();
+      System.out.println("depth " + depth + ": " + String.format("%.1f ms", elapsed / 1e6)
+            + ", misses = " + bm.misses()
+            + ", prefetch hits = " + bm.prefetchHits()
+            + ", wasted = " + bm.prefetchWasted() + (sum == 0 ? "" : " "));
+   }
+
+   // simulates the processing of the records in a block
+   private static long work() {
+      long x = 0;
+      for (int i=0; i<20000; i++)
+         x += i ^ (x >>> 3);
+      return x;
+   }
+}
@@ -0,0 +1,120 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.*;
+import simpledb.file.*;
+
+/**
+ * Reads blocks into the buffer pool ahead of their use.
+ * The prefetcher watches the pins of each file, and when
+ * a block is pinned right after its predecessor, it schedules
+ * reads of the next blocks of the file, up to the read-ahead depth.
+ * Clients that know which blocks they will need,
+ * such as a chunk of a multibuffer operator,
+ * can also ask for them explicitly.
+ * The reads are done by background threads, so that
+ * they overlap with the processing of the current block.
+ */
+class Prefetcher {
+   private static final int NUM_THREADS = 2;
+   private static final int MAX_FILES = 256;
+   private BufferMgr bm;
+   private FileMgr fm;
+   private int depth;
+   private ExecutorService readers;
+   private Set<BlockId> scheduled = ConcurrentHashMap.newKeySet();
+   private Map<String,FileState> files = Collections.synchronizedMap(
+         new LinkedHashMap<String,FileState>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String,FileState> e) {
+               return size() > MAX_FILES;
+            }
+         });
+
+   /**
+    * The pin history of one file.
+    */
+   private static class FileState {
+      int lastblk = -1;
+      int prefetchedTo = -1;
+   }
+
+   Prefetcher(BufferMgr bm, FileMgr fm, int depth) {
+      this.bm = bm;
+      this.fm = fm;
+      this.depth = depth;
+      readers = Executors.newFixedThreadPool(NUM_THREADS, r -> {
+         Thread t = new Thread(r, "prefetcher");
+         t.setDaemon(true);
+         return t;
+      });
+   }
+
+   /**
+    * Notes that the specified block has been pinned.
+    * If the pin continues a sequential run, the blocks
+    * following it are scheduled for reading.
+    * @param blk the block that was pinned
+    */
+   void pinned(BlockId blk) {
+      FileState state = files.computeIfAbsent(blk.fileName(), f -> new FileState());
+      int first, last;
+      synchronized (state) {
+         int blknum = blk.number();
+         boolean sequential = (blknum == state.lastblk + 1);
+         state.lastblk = blknum;
+         if (!sequential) {
+            state.prefetchedTo = blknum;
+            return;
+         }
+         first = Math.max(blknum + 1, state.prefetchedTo + 1);
+         last = blknum + depth;
+         if (first > last)
+            return;
+         state.prefetchedTo = last;
+      }
+      prefetch(blk.fileName(), first, last);
+   }
+
+   /**
+    * Schedules the reading of the specified blocks.
+    * Blocks past the end of the file are ignored.
+    * @param filename the name of the file
+    * @param first the number of the first block to read
+    * @param last the number of the last block to read
+    */
+   void prefetch(String filename, int first, int last) {
+      last = Math.min(last, fm.length(filename) - 1);
+      for (int i=first; i<=last; i++) {
+         BlockId blk = new BlockId(filename, i);
+         if (scheduled.add(blk)) {
+            readers.execute(() -> {
+               try {
+                  if (!passed(blk))
+                     bm.prefetchBlock(blk);
+               }
+               finally {
+                  scheduled.remove(blk);
+               }
+            });
+         }
+      }
+   }
+
+   /**
+    * Returns true if the file's sequential reader has already
+    * pinned the block, in which case reading it ahead is useless.
+    * This happens when the readers fall behind the scan.
+    */
+   private boolean passed(BlockId blk) {
+      FileState state = files.get(blk.fileName());
+      if (state == null)
+         return false;
+      synchronized (state) {
+         return state.lastblk >= blk.number() && state.prefetchedTo >= blk.number();
+      }
+   }
+
+   void shutdown() {
+      readers.shutdown();
+   }
+}
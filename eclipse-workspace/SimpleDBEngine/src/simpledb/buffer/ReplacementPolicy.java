@@ -0,0 +1,55 @@
+package simpledb.buffer;
+
+/**
+ * The interface implemented by each buffer replacement policy.
+ * The buffer manager tells the policy whenever a buffer is pinned
+ * or becomes unpinned, and asks it for a victim when a block
+ * has to be read into a buffer that is already in use.
+ */
+public interface ReplacementPolicy {
+   static final String NAIVE = "naive", CLOCK = "clock",
+         LRUK = "lruk", TWOQ = "2q";
+
+   /**
+    * Returns an unpinned buffer whose block can be replaced,
+    * or null if every buffer is pinned.
+    * @return the buffer to be replaced
+    */
+   Buffer chooseUnpinnedBuffer();
+
+   /**
+    * Called each time the buffer is pinned.
+    * @param buff the pinned buffer
+    * @param hit true if the block was already in the buffer,
+    * false if it has just been read into it
+    */
+   void pinned(Buffer buff, boolean hit);
+
+   /**
+    * Called when the pin count of the buffer goes to zero.
+    * @param buff the unpinned buffer
+    */
+   void unpinned(Buffer buff);
+
+   /**
+    * Creates the replacement policy having the specified name
+    * for the specified buffers.
+    * @param name one of "naive", "clock", "lruk" or "2q"
+    * @param bufferpool the buffers managed by the policy
+    * @return the replacement policy
+    */
+   static ReplacementPolicy create(String name, Buffer[] bufferpool) {
+      switch (name) {
+      case NAIVE:
+         return new NaivePolicy(bufferpool);
+      case CLOCK:
+         return new ClockPolicy(bufferpool);
+      case LRUK:
+         return new LruKPolicy(bufferpool, 2);
+      case TWOQ:
+         return new TwoQPolicy(bufferpool);
+      default:
+         throw new IllegalArgumentException("unknown replacement policy " + name);
+      }
+   }
+}
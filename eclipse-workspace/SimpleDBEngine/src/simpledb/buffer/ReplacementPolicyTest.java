@@ -0,0 +1,45 @@
+package simpledb.buffer;
+
+import java.util.Random;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Compares the hit ratio of the replacement policies.
+ * The workload mixes pins of a small set of hot blocks
+ * with sequential scans of a large file, which is the
+ * case where first-unpinned replacement does badly.
+ */
+public class ReplacementPolicyTest {
+   private static final int NUMBUFFS = 20;
+   private static final int HOTBLOCKS = 10;
+   private static final int SCANBLOCKS = 200;
+   private static final int ROUNDS = 200;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("policytest", 400, 8);
+      FileMgr fm = db.fileMgr();
+      String[] policies = {ReplacementPolicy.NAIVE, ReplacementPolicy.CLOCK,
+                           ReplacementPolicy.LRUK, ReplacementPolicy.TWOQ};
+      for (String name : policies) {
+         BufferMgr bm = new BufferMgr(fm, db.logMgr(), NUMBUFFS, name);
+         Random rand = new Random(3223);
+         int scanpos = 0;
+         for (int round=0; round<ROUNDS; round++) {
+            for (int i=0; i<HOTBLOCKS; i++)
+               pinAndUnpin(bm, new BlockId("hotfile", rand.nextInt(HOTBLOCKS)));
+            for (int i=0; i<5; i++) {
+               pinAndUnpin(bm, new BlockId("scanfile", scanpos));
+               scanpos = (scanpos + 1) % SCANBLOCKS;
+            }
+         }
+         System.out.println(name + ": hits=" + bm.hits() + " misses=" + bm.misses()
+               + " hit ratio=" + String.format("%.3f", bm.hitRatio()));
+      }
+   }
+
+   private static void pinAndUnpin(BufferMgr bm, BlockId blk) {
+      Buffer buff = bm.pin(blk);
+      bm.unpin(buff);
+   }
+}
@@ -0,0 +1,83 @@
+package simpledb.buffer;
+
+import java.util.*;
+import simpledb.file.BlockId;
+
+/**
+ * The 2Q replacement strategy.
+ * A newly-read block enters the FIFO queue A1in.
+ * When it is replaced from A1in, its id is remembered in the
+ * ghost queue A1out; if the block is read again while it is
+ * still remembered, it enters the LRU queue Am.
+ * Blocks that are touched only once (such as those of a
+ * sequential scan) therefore never push hot blocks out of Am.
+ */
+class TwoQPolicy implements ReplacementPolicy {
+   private LinkedHashSet<Buffer> a1in = new LinkedHashSet<>();
+   private LinkedHashSet<Buffer> am = new LinkedHashSet<>();
+   private LinkedHashSet<BlockId> a1out = new LinkedHashSet<>();
+   private int kin, kout;
+
+   public TwoQPolicy(Buffer[] bufferpool) {
+      kin  = Math.max(1, bufferpool.length / 4);
+      kout = Math.max(1, bufferpool.length / 2);
+   }
+
+   /**
+    * Replaces from A1in if it is larger than its quota,
+    * and from Am otherwise.
+    * If the preferred queue has no unpinned buffer,
+    * the other queue is tried.
+    */
+   public Buffer chooseUnpinnedBuffer() {
+      if (a1in.size() > kin) {
+         Buffer buff = removeUnpinned(a1in);
+         if (buff != null) {
+            remember(buff.block());
+            return buff;
+         }
+         return removeUnpinned(am);
+      }
+      Buffer buff = removeUnpinned(am);
+      if (buff != null)
+         return buff;
+      buff = removeUnpinned(a1in);
+      if (buff != null)
+         remember(buff.block());
+      return buff;
+   }
+
+   public void pinned(Buffer buff, boolean hit) {
+      if (hit) {
+         if (am.remove(buff))
+            am.add(buff);
+      }
+      else if (a1out.remove(buff.block()))
+         am.add(buff);
+      else
+         a1in.add(buff);
+   }
+
+   public void unpinned(Buffer buff) {}
+
+   private Buffer removeUnpinned(LinkedHashSet<Buffer> queue) {
+      Iterator<Buffer> iter = queue.iterator();
+      while (iter.hasNext()) {
+         Buffer buff = iter.next();
+         if (!buff.isPinned()) {
+            iter.remove();
+            return buff;
+         }
+      }
+      return null;
+   }
+
+   private void remember(BlockId blk) {
+      a1out.add(blk);
+      if (a1out.size() > kout) {
+         Iterator<BlockId> iter = a1out.iterator();
+         iter.next();
+         iter.remove();
+      }
+   }
+}
@@ -0,0 +1,54 @@
+package simpledb.file;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Measures random block reads per second over several files,
+ * from 1 to 16 threads.
+ * Each thread reads into its own page, so the threads
+ * share nothing but the file manager.
+ */
+public class ConcurrentReadTest {
+   private static final int NUMFILES = 4;
+   private static final int BLOCKS_PER_FILE = 256;
+   private static final int READS_PER_THREAD = 20000;
+
+   public static void main(String[] args) throws Exception {
+      FileMgr fm = new FileMgr(new File("concurrentreadtest"), 4096);
+      Page p = new Page(fm.blockSize());
+      for (int f=0; f<NUMFILES; f++) {
+         String filename = "readfile" + f;
+         while (fm.length(filename) < BLOCKS_PER_FILE) {
+            BlockId blk = fm.append(filename);
+            p.setInt(0, blk.number());
+            fm.write(blk, p);
+         }
+      }
+
+      for (int numthreads=1; numthreads<=16; numthreads*=2) {
+         Thread[] threads = new Thread[numthreads];
+         for (int t=0; t<numthreads; t++) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+               Random rand = new Random(seed);
+               Page page = new Page(fm.blockSize());
+               for (int i=0; i<READS_PER_THREAD; i++) {
+                  int blknum = rand.nextInt(BLOCKS_PER_FILE);
+                  fm.read(new BlockId("readfile" + rand.nextInt(NUMFILES), blknum), page);
+                  if (page.getInt(0) != blknum)
+                     throw new RuntimeException("wrong block read");
+               }
+            });
+         }
+         long start = System.nanoTime();
+         for (Thread t : threads)
+            t.start();
+         for (Thread t : threads)
+            t.join();
+         long elapsed = System.nanoTime() - start;
+         double rate = (double) numthreads * READS_PER_THREAD * 1e9 / elapsed;
+         System.out.println(String.format("%2d threads: %,10.0f reads/sec", numthreads, rate));
+      }
+   }
+}
@@ -1,13 +1,16 @@
 package simpledb.file;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FileMgr {
    private File dbDirectory;
    private int blocksize;
    private boolean isNew;
-   private Map<String,RandomAccessFile> openFiles = new HashMap<>();
+   private Map<String,OpenFile> openFiles = new ConcurrentHashMap<>();
+   private boolean memoryMapped = false;
 
    public FileMgr(File dbDirectory, int blocksize) {
       this.dbDirectory = dbDirectory;
@@ -24,53 +27,170 @@ public class FileMgr {
          		new File(dbDirectory, filename).delete();
    }
 
-   public synchronized void read(BlockId blk, Page p) {
+   public void read(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().read(p.contents());
+         OpenFile f = getFile(blk.fileName());
+         f.read(blk.number(), p.contents());
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
-   public synchronized void write(BlockId blk, Page p) {
+   /**
+    * Reads consecutive blocks of a file into the specified pages,
+    * using one vectored read instead of one read per block.
+    * @param first a reference to the first block
+    * @param pages the pages that receive the blocks, in order
+    */
+   public void read(BlockId first, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i=0; i<pages.length; i++)
+         bbs[i] = pages[i].contents();
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().write(p.contents());
+         OpenFile f = getFile(first.fileName());
+         f.read(first.number(), bbs);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + pages.length + " blocks from " + first);
+      }
+   }
+
+   /**
+    * Returns a page that shares the memory mapping of the specified block,
+    * so that the block can be read without being copied.
+    * The page is read-only.
+    * The method returns null if memory mapping is disabled
+    * or the block cannot be mapped,
+    * in which case the block must be read with {@link #read}.
+    * @param blk a reference to a disk block
+    * @return a read-only page for the block, or null
+    */
+   public Page mappedPage(BlockId blk) {
+      if (!memoryMapped)
+         return null;
+      try {
+         OpenFile f = getFile(blk.fileName());
+         ByteBuffer bb = f.mappedBlock(blk.number());
+         return (bb == null) ? null : new Page(bb);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot map block " + blk);
+      }
+   }
+
+   /**
+    * Enables or disables the memory-mapped read path.
+    * @param memoryMapped true if blocks should be read through mappings
+    */
+   public void setMemoryMapped(boolean memoryMapped) {
+      this.memoryMapped = memoryMapped;
+   }
+
+   public boolean isMemoryMapped() {
+      return memoryMapped;
+   }
+
+   public void write(BlockId blk, Page p) {
+      try {
+         OpenFile f = getFile(blk.fileName());
+         f.write(blk.number(), p.contents());
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
    }
 
-   public synchronized BlockId append(String filename) {
-      int newblknum = length(filename);
-      BlockId blk = new BlockId(filename, newblknum);
-      byte[] b = new byte[blocksize];
+   public BlockId append(String filename) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.write(b);
+         OpenFile f = getFile(filename);
+         return new BlockId(filename, f.append());
       }
       catch (IOException e) {
-         throw new RuntimeException("cannot append block" + blk);
+         throw new RuntimeException("cannot append block to " + filename);
       }
-      return blk;
    }
 
    public int length(String filename) {
       try {
-         RandomAccessFile f = getFile(filename);
-         return (int)(f.length() / blocksize);
+         OpenFile f = getFile(filename);
+         return f.length();
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
 
+   /**
+    * Forces the writes made to the specified file to disk.
+    * Reads and writes of the file can proceed in the meantime.
+    * Writes to temporary files are never forced.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
+      OpenFile f = openFiles.get(filename);
+      if (f == null)
+         return;
+      try {
+         f.force();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot force " + filename);
+      }
+   }
+
+   /**
+    * Forces the writes made to every non-temporary file to disk.
+    */
+   public void forceAll() {
+      for (String filename : openFiles.keySet())
+         force(filename);
+   }
+
+   /**
+    * Returns the names of the database's files
+    * that begin with the specified prefix.
+    * @param prefix the beginning of the file names
+    * @return the names of the matching files
+    */
+   public List<String> fileNames(String prefix) {
+      List<String> result = new ArrayList<>();
+      for (String filename : dbDirectory.list())
+         if (filename.startsWith(prefix))
+            result.add(filename);
+      return result;
+   }
+
+   /**
+    * Deletes the specified file, closing it first if it is open.
+    * The file must no longer be used.
+    * @param filename the name of the file
+    */
+   public synchronized void delete(String filename) {
+      close(filename);
+      new File(dbDirectory, filename).delete();
+   }
+
+   /**
+    * Moves the specified file into the specified directory,
+    * closing it first if it is open.
+    * The file must no longer be used by the database.
+    * A relative directory is taken to be within the database directory,
+    * and is created if necessary.
+    * @param filename the name of the file
+    * @param dirname the name of the directory
+    */
+   public synchronized void moveTo(String filename, String dirname) {
+      close(filename);
+      File dir = new File(dirname);
+      if (!dir.isAbsolute())
+         dir = new File(dbDirectory, dirname);
+      dir.mkdirs();
+      File f = new File(dbDirectory, filename);
+      if (!f.renameTo(new File(dir, filename)))
+         throw new RuntimeException("cannot move " + filename + " to " + dir);
+   }
+
    public boolean isNew() {
       return isNew;
    }
@@ -79,12 +199,29 @@ public class FileMgr {
       return blocksize;
    }
 
-   private RandomAccessFile getFile(String filename) throws IOException {
-      RandomAccessFile f = openFiles.get(filename);
+   private void close(String filename) {
+      OpenFile f = openFiles.remove(filename);
+      if (f == null)
+         return;
+      try {
+         f.close();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot close " + filename);
+      }
+   }
+
+   private OpenFile getFile(String filename) throws IOException {
+      OpenFile f = openFiles.get(filename);
       if (f == null) {
-         File dbTable = new File(dbDirectory, filename);
-         f = new RandomAccessFile(dbTable, "rws");
-         openFiles.put(filename, f);
+         synchronized (this) {
+            f = openFiles.get(filename);
+            if (f == null) {
+               File dbTable = new File(dbDirectory, filename);
+               f = new OpenFile(dbTable, blocksize);
+               openFiles.put(filename, f);
+            }
+         }
       }
       return f;
    }
@@ -0,0 +1,142 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * An open file of the database.
+ * All reads and writes are positional, so they do not
+ * share a file pointer and can proceed in parallel.
+ * The file keeps its length in blocks, so that the length
+ * does not have to be asked of the operating system,
+ * and the counts of writes made and writes forced to disk.
+ * A file can also be read through read-only memory mappings,
+ * one per segment of SEGMENT_BLOCKS blocks.
+ */
+class OpenFile {
+   private static final int SEGMENT_BLOCKS = 1024;
+   private RandomAccessFile raf;
+   private FileChannel channel;
+   private int blocksize;
+   private boolean isTemp;
+   private AtomicInteger numBlocks;
+   private AtomicLong writes = new AtomicLong(0);
+   private AtomicLong forced = new AtomicLong(0);
+   private List<MappedByteBuffer> segments = new ArrayList<>();
+
+   OpenFile(File f, int blocksize) throws IOException {
+      raf = new RandomAccessFile(f, "rw");
+      channel = raf.getChannel();
+      this.blocksize = blocksize;
+      isTemp = f.getName().startsWith("temp");
+      numBlocks = new AtomicInteger((int)(raf.length() / blocksize));
+   }
+
+   /**
+    * Reads the specified block into the buffer.
+    * The part of the buffer that lies beyond the end
+    * of the file is set to zeros.
+    */
+   void read(int blknum, ByteBuffer bb) throws IOException {
+      long pos = (long) blknum * blocksize;
+      while (bb.hasRemaining()) {
+         int n = channel.read(bb, pos + bb.position());
+         if (n < 0)
+            break;
+      }
+      while (bb.hasRemaining())
+         bb.put((byte) 0);
+   }
+
+   /**
+    * Reads consecutive blocks, starting at the specified block,
+    * into the buffers with a single scatter read.
+    * A scatter read uses the channel's position, so scatter
+    * reads of the file are serialized with each other;
+    * positional reads and writes are not affected.
+    */
+   synchronized void read(int blknum, ByteBuffer[] bbs) throws IOException {
+      channel.position((long) blknum * blocksize);
+      while (bbs[bbs.length-1].hasRemaining()) {
+         long n = channel.read(bbs);
+         if (n < 0)
+            break;
+      }
+      for (ByteBuffer bb : bbs)
+         while (bb.hasRemaining())
+            bb.put((byte) 0);
+   }
+
+   void write(int blknum, ByteBuffer bb) throws IOException {
+      long pos = (long) blknum * blocksize;
+      while (bb.hasRemaining())
+         channel.write(bb, pos + bb.position());
+      numBlocks.accumulateAndGet(blknum + 1, Math::max);
+      if (!isTemp)
+         writes.incrementAndGet();
+   }
+
+   /**
+    * Appends a block of zeros to the file.
+    * Appends are serialized, so that each one gets a new block;
+    * they do not block reads and writes of existing blocks.
+    * @return the number of the new block
+    */
+   synchronized int append() throws IOException {
+      int blknum = numBlocks.get();
+      write(blknum, ByteBuffer.allocate(blocksize));
+      return blknum;
+   }
+
+   /**
+    * Returns a read-only view of the specified block in the
+    * mapping of its segment, or null if the block cannot be mapped.
+    * A segment is never mapped past the end of the file;
+    * when the file has grown past the end of a segment's mapping,
+    * the segment is mapped again.
+    * Temporary files are not mapped, because they are short-lived.
+    */
+   synchronized ByteBuffer mappedBlock(int blknum) throws IOException {
+      if (isTemp || blknum >= numBlocks.get())
+         return null;
+      int seg = blknum / SEGMENT_BLOCKS;
+      int offset = (blknum % SEGMENT_BLOCKS) * blocksize;
+      while (segments.size() <= seg)
+         segments.add(null);
+      MappedByteBuffer m = segments.get(seg);
+      if (m == null || m.capacity() < offset + blocksize) {
+         int firstblk = seg * SEGMENT_BLOCKS;
+         int size = Math.min(SEGMENT_BLOCKS, numBlocks.get() - firstblk) * blocksize;
+         m = channel.map(FileChannel.MapMode.READ_ONLY, (long) firstblk * blocksize, size);
+         segments.set(seg, m);
+      }
+      return m.slice(offset, blocksize);
+   }
+
+   /**
+    * Closes the file. Its mappings remain valid
+    * until they are garbage collected.
+    */
+   void close() throws IOException {
+      raf.close();
+   }
+
+   int length() {
+      return numBlocks.get();
+   }
+
+   /**
+    * Forces the file's writes to disk, unless every
+    * write made so far is already known to be forced.
+    */
+   void force() throws IOException {
+      long target = writes.get();
+      if (target <= forced.get())
+         return;
+      channel.force(false);
+      forced.accumulateAndGet(target, Math::max);
+   }
+}
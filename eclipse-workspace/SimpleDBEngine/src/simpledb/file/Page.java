@@ -17,6 +17,11 @@ public class Page {
       bb = ByteBuffer.wrap(b);
    }
 
+   // For wrapping a slice of a memory-mapped file, needed by FileMgr
+   Page(ByteBuffer bb) {
+      this.bb = bb;
+   }
+
    public int getInt(int offset) {
       return bb.getInt(offset);
    }
@@ -25,18 +30,35 @@ public class Page {
       bb.putInt(offset, n);
    }
 
+   public long getLong(int offset) {
+      return bb.getLong(offset);
+   }
+
+   public void setLong(int offset, long n) {
+      bb.putLong(offset, n);
+   }
+
+   // All gets and puts use absolute offsets and never move
+   // the buffer's position, so pages can be read concurrently.
+
    public byte[] getBytes(int offset) {
-      bb.position(offset);
-      int length = bb.getInt();
+      int length = bb.getInt(offset);
       byte[] b = new byte[length];
-      bb.get(b);
+      bb.get(offset + Integer.BYTES, b);
       return b;
    }
 
+   // copies the bytes at the offset into dest, which must be
+   // large enough, and returns their number
+   public int getBytes(int offset, byte[] dest) {
+      int length = bb.getInt(offset);
+      bb.get(offset + Integer.BYTES, dest, 0, length);
+      return length;
+   }
+
    public void setBytes(int offset, byte[] b) {
-      bb.position(offset);
-      bb.putInt(b.length);
-      bb.put(b);
+      bb.putInt(offset, b.length);
+      bb.put(offset + Integer.BYTES, b);
    }
    
    public String getString(int offset) {
@@ -45,8 +67,59 @@ public class Page {
    }
 
    public void setString(int offset, String s) {
-      byte[] b = s.getBytes(CHARSET);
-      setBytes(offset, b);
+      if (CHARSET != StandardCharsets.US_ASCII) {
+         setBytes(offset, s.getBytes(CHARSET));
+         return;
+      }
+      // ASCII strings are stored a character at a time,
+      // without building a byte array
+      int length = s.length();
+      bb.putInt(offset, length);
+      int pos = offset + Integer.BYTES;
+      for (int i=0; i<length; i++) {
+         char c = s.charAt(i);
+         bb.put(pos + i, (byte) (c < 128 ? c : '?'));
+      }
+   }
+
+   // compares the string at the offset with s, in the order of
+   // String.compareTo, without reading the stored string into a String
+   public int compareString(int offset, String s) {
+      if (CHARSET != StandardCharsets.US_ASCII)
+         return getString(offset).compareTo(s);
+      int length = bb.getInt(offset);
+      int pos = offset + Integer.BYTES;
+      int n = Math.min(length, s.length());
+      for (int i=0; i<n; i++) {
+         int c1 = bb.get(pos + i) & 0xff;
+         int c2 = s.charAt(i);
+         if (c1 != c2)
+            return c1 - c2;
+      }
+      return length - s.length();
+   }
+
+   // returns the hash code of the string at the offset,
+   // which is the same as the hash code of the String
+   public int hashString(int offset) {
+      if (CHARSET != StandardCharsets.US_ASCII)
+         return getString(offset).hashCode();
+      int length = bb.getInt(offset);
+      int pos = offset + Integer.BYTES;
+      int h = 0;
+      for (int i=0; i<length; i++)
+         h = 31 * h + (bb.get(pos + i) & 0xff);
+      return h;
+   }
+
+   // the last long of a data page holds the page LSN, which is the
+   // LSN of the latest logged change that the page contains
+   public long lsn() {
+      return bb.getLong(bb.capacity() - Long.BYTES);
+   }
+
+   public void setLsn(long lsn) {
+      bb.putLong(bb.capacity() - Long.BYTES, lsn);
    }
 
    public static int maxLength(int strlen) {
@@ -54,6 +127,16 @@ public class Page {
       return Integer.BYTES + (strlen * (int)bytesPerChar);
    }
 
+   // copies the contents of this page into another page of the same size,
+   // without disturbing the position of either buffer
+   public void copyTo(Page p) {
+      ByteBuffer src = bb.duplicate();
+      ByteBuffer dst = p.bb.duplicate();
+      src.clear();
+      dst.clear();
+      dst.put(src);
+   }
+
    // a package private method, needed by FileMgr
    ByteBuffer contents() {
       bb.position(0);
@@ -118,7 +118,9 @@ public class BTPage {
    }
  
    public void format(BlockId blk, int flag) {
-      tx.setInt(blk, 0, flag, false);
+      // the flag is logged, so that it can be redone; the rest
+      // of a new page is zero, as it was when the block was appended
+      tx.setInt(blk, 0, flag, true);
       tx.setInt(blk, Integer.BYTES, 0, false);  // #records = 0
       int recsize = layout.slotSize();
       for (int pos=2*Integer.BYTES; pos+recsize<=tx.blockSize(); pos += recsize)
@@ -15,6 +15,7 @@ class EmbeddedConnection extends ConnectionAdapter {
    private SimpleDB db;
    private Transaction currentTx;
    private Planner planner;
+   private boolean readOnly = false;
 
    /**
     * Creates a connection
@@ -46,7 +47,7 @@ class EmbeddedConnection extends ConnectionAdapter {
     */
    public void commit() throws SQLException {
       currentTx.commit();
-      currentTx = db.newTx();
+      currentTx = db.newTx(readOnly);
    }
 
    /**
@@ -54,7 +55,29 @@ class EmbeddedConnection extends ConnectionAdapter {
     */
    public void rollback() throws SQLException {
       currentTx.rollback();
-      currentTx = db.newTx();
+      currentTx = db.newTx(readOnly);
+   }
+
+   /**
+    * Puts the connection in read-only mode, or takes it out.
+    * A read-only transaction reads a snapshot of the database
+    * without taking shared locks.
+    * Since the mode of a transaction cannot change,
+    * the current transaction is committed and a new one
+    * is begun in the requested mode.
+    */
+   public void setReadOnly(boolean readOnly) throws SQLException {
+      if (readOnly == this.readOnly)
+         return;
+      this.readOnly = readOnly;
+      commit();
+   }
+
+   /**
+    * Returns true if the connection is in read-only mode.
+    */
+   public boolean isReadOnly() throws SQLException {
+      return readOnly;
    }
 
    /**
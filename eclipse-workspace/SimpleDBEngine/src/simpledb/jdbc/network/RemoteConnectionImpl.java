@@ -16,6 +16,7 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
    private SimpleDB db;
    private Transaction currentTx;
    private Planner planner;
+   private boolean readOnly = false;
    
    /**
     * Creates a remote connection
@@ -45,6 +46,27 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
       currentTx.commit();
    }
    
+   /**
+    * Puts the connection in read-only mode, or takes it out.
+    * The current transaction is committed, and a new one
+    * is begun in the requested mode.
+    * @see simpledb.jdbc.network.RemoteConnection#setReadOnly(boolean)
+    */
+   public void setReadOnly(boolean readOnly) throws RemoteException {
+      if (readOnly == this.readOnly)
+         return;
+      this.readOnly = readOnly;
+      commit();
+   }
+   
+   /**
+    * Returns true if the connection is in read-only mode.
+    * @see simpledb.jdbc.network.RemoteConnection#isReadOnly()
+    */
+   public boolean isReadOnly() throws RemoteException {
+      return readOnly;
+   }
+   
 // The following methods are used by the server-side classes.
    
    /**
@@ -62,7 +84,7 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
     */
    void commit() {
       currentTx.commit();
-      currentTx = db.newTx();
+      currentTx = db.newTx(readOnly);
    }
    
    /**
@@ -71,7 +93,7 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
     */
    void rollback() {
       currentTx.rollback();
-      currentTx = db.newTx();
+      currentTx = db.newTx(readOnly);
    }
 }
 
@@ -0,0 +1,85 @@
+package simpledb.log;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.Page;
+
+/**
+ * Measures appends per second against the number of
+ * concurrent appenders, while another thread keeps flushing the log.
+ * It then checks that the log holds every appended record
+ * exactly once, at the LSN that its append returned.
+ */
+public class ConcurrentAppendTest {
+   private static final int RECORDS = 400000;
+   private static volatile boolean done;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("concurrentappendtest", 400, 8);
+      LogMgr lm = db.logMgr();
+      for (int numthreads=1; numthreads<=16; numthreads*=2) {
+         long first = lm.latestLSN();
+         long[][] lsns = new long[numthreads][RECORDS / numthreads];
+         double rate = run(lm, lsns);
+         check(lm, first, lsns);
+         System.out.println(String.format("%2d appenders: %,12.0f appends/sec", numthreads, rate));
+      }
+   }
+
+   private static double run(LogMgr lm, long[][] lsns) throws InterruptedException {
+      Thread[] threads = new Thread[lsns.length];
+      for (int t=0; t<threads.length; t++) {
+         int id = t;
+         threads[t] = new Thread(() -> {
+            for (int i=0; i<lsns[id].length; i++)
+               lsns[id][i] = lm.append(createLogRecord(id, i));
+         });
+      }
+      done = false;
+      Thread flusher = new Thread(() -> {
+         while (!done)
+            lm.flush(lm.latestLSN());
+      });
+      flusher.start();
+      long start = System.nanoTime();
+      for (Thread t : threads)
+         t.start();
+      for (Thread t : threads)
+         t.join();
+      long elapsed = System.nanoTime() - start;
+      done = true;
+      flusher.join();
+      return (double) lsns.length * lsns[0].length * 1e9 / elapsed;
+   }
+
+   private static void check(LogMgr lm, long first, long[][] lsns) {
+      int[] next = new int[lsns.length];
+      int count = 0;
+      ForwardLogIterator iter = lm.iterator(first + 1);
+      while (iter.hasNext()) {
+         Page p = new Page(iter.next());
+         int id = p.getInt(0);
+         int i = p.getInt(Integer.BYTES);
+         if (i != next[id] || lsns[id][i] != iter.lsn())
+            throw new RuntimeException("record " + i + " of appender " + id
+                                       + " is out of place at LSN " + iter.lsn());
+         next[id]++;
+         count++;
+         if (count % 1000 == 0 && new Page(lm.read(iter.lsn())).getInt(Integer.BYTES) != i)
+            throw new RuntimeException("reading LSN " + iter.lsn() + " gave another record");
+      }
+      for (int id=0; id<lsns.length; id++)
+         if (next[id] != lsns[id].length)
+            throw new RuntimeException("appender " + id + " has " + next[id]
+                                       + " records instead of " + lsns[id].length);
+   }
+
+   // Create a log record holding the appender and the record's number.
+   private static byte[] createLogRecord(int id, int i) {
+      byte[] b = new byte[3 * Integer.BYTES];
+      Page p = new Page(b);
+      p.setInt(0, id);
+      p.setInt(Integer.BYTES, i);
+      p.setInt(2 * Integer.BYTES, i * 31 + id);
+      return b;
+   }
+}
@@ -0,0 +1,93 @@
+package simpledb.log;
+
+import java.util.*;
+import simpledb.file.*;
+
+/**
+ * A class that moves through the records of the log file
+ * in the order in which they were appended, starting
+ * from a given LSN.
+ * Within a block, records are stored from the end of the block
+ * towards its beginning, so the positions of a block's records
+ * are found first and then visited in reverse.
+ */
+public class ForwardLogIterator implements Iterator<byte[]> {
+   private LogSegments segs;
+   private BlockId blk;
+   private int lastblk;
+   private Page p;
+   private int[] positions = new int[0];
+   private int current = 0;
+   private long lsn = 0;
+
+   /**
+    * Creates an iterator for the records of the log file
+    * whose LSN is at least the specified one.
+    * Records of removed log segments are not visited.
+    * @param segs the segments of the log
+    * @param lastblk the last block of the log file
+    * @param startlsn the LSN of the first record to return
+    */
+   ForwardLogIterator(LogSegments segs, BlockId lastblk, long startlsn) {
+      this.segs = segs;
+      this.lastblk = lastblk.number();
+      p = new Page(new byte[segs.blockSize()]);
+      int startblk = (int) Math.min(startlsn / segs.blockSize(), this.lastblk);
+      int blknum = Math.max(segs.firstBlock(), startblk);
+      blk = new BlockId(lastblk.fileName(), blknum);
+      moveToBlock();
+      while (current < positions.length && lsnAt(positions[current]) < startlsn)
+         current++;
+   }
+
+   /**
+    * Determines if there is a later record in the log file.
+    * @return true if there is a later record
+    */
+   public boolean hasNext() {
+      while (current == positions.length && blk.number() < lastblk) {
+         blk = new BlockId(blk.fileName(), blk.number()+1);
+         moveToBlock();
+      }
+      return current < positions.length;
+   }
+
+   /**
+    * Moves to the next log record.
+    * @return the next later log record
+    */
+   public byte[] next() {
+      if (!hasNext())
+         throw new NoSuchElementException();
+      int pos = positions[current++];
+      lsn = lsnAt(pos);
+      return LogMgr.expand(p.getBytes(pos));
+   }
+
+   /**
+    * Returns the LSN of the record most recently returned by next.
+    * @return the record's LSN
+    */
+   public long lsn() {
+      return lsn;
+   }
+
+   private long lsnAt(int pos) {
+      return LogMgr.lsn(blk, pos, segs.blockSize());
+   }
+
+   /**
+    * Reads the current block and finds the positions
+    * of its records, from the oldest to the newest.
+    */
+   private void moveToBlock() {
+      segs.read(blk, p);
+      List<Integer> list = new ArrayList<>();
+      for (int pos = p.getInt(0); pos < segs.blockSize(); pos += Integer.BYTES + p.getInt(pos))
+         list.add(pos);
+      positions = new int[list.size()];
+      for (int i=0; i<positions.length; i++)
+         positions[i] = list.get(positions.length-1-i);
+      current = 0;
+   }
+}
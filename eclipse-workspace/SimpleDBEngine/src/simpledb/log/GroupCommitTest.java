@@ -0,0 +1,46 @@
+package simpledb.log;
+
+import simpledb.server.SimpleDB;
+
+/**
+ * Measures commits per second against the number of
+ * concurrent committers, with and without group commit.
+ * Each commit appends a small log record and then
+ * waits until it is on disk.
+ */
+public class GroupCommitTest {
+   private static final int COMMITS_PER_THREAD = 200;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("groupcommittest", 400, 8);
+      LogMgr lm = db.logMgr();
+      for (int numthreads=1; numthreads<=32; numthreads*=2) {
+         lm.disableGroupCommit();
+         double single = run(lm, numthreads);
+         lm.enableGroupCommit(0, 64);
+         double group = run(lm, numthreads);
+         System.out.println(String.format("%2d committers: %,10.0f commits/sec without group commit, %,10.0f with",
+               numthreads, single, group));
+      }
+   }
+
+   private static double run(LogMgr lm, int numthreads) throws InterruptedException {
+      Thread[] threads = new Thread[numthreads];
+      for (int t=0; t<numthreads; t++) {
+         threads[t] = new Thread(() -> {
+            byte[] rec = new byte[32];
+            for (int i=0; i<COMMITS_PER_THREAD; i++) {
+               long lsn = lm.append(rec);
+               lm.flushCommit(lsn);
+            }
+         });
+      }
+      long start = System.nanoTime();
+      for (Thread t : threads)
+         t.start();
+      for (Thread t : threads)
+         t.join();
+      long elapsed = System.nanoTime() - start;
+      return (double) numthreads * COMMITS_PER_THREAD * 1e9 / elapsed;
+   }
+}
@@ -10,7 +10,7 @@ import simpledb.file.*;
  * @author Edward Sciore
  */
 class LogIterator implements Iterator<byte[]> {
-   private FileMgr fm;
+   private LogSegments segs;
    private BlockId blk;
    private Page p;
    private int currentpos;
@@ -20,10 +20,10 @@ class LogIterator implements Iterator<byte[]> {
     * Creates an iterator for the records in the log file,
     * positioned after the last log record.
     */
-   public LogIterator(FileMgr fm, BlockId blk) {
-      this.fm = fm;
+   public LogIterator(LogSegments segs, BlockId blk) {
+      this.segs = segs;
       this.blk = blk;
-      byte[] b = new byte[fm.blockSize()];
+      byte[] b = new byte[segs.blockSize()];
       p = new Page(b);
       moveToBlock(blk);
    }
@@ -31,10 +31,11 @@ class LogIterator implements Iterator<byte[]> {
    /**
     * Determines if the current log record
     * is the earliest record in the log file.
+    * The records of removed log segments are not visited.
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentpos<fm.blockSize() || blk.number()>0;
+      return currentpos<segs.blockSize() || blk.number()>segs.firstBlock();
    }
 
    /**
@@ -45,13 +46,13 @@ class LogIterator implements Iterator<byte[]> {
     * @return the next earliest log record
     */
    public byte[] next() {
-      if (currentpos == fm.blockSize()) {
+      if (currentpos == segs.blockSize()) {
          blk = new BlockId(blk.fileName(), blk.number()-1);
          moveToBlock(blk);
       }
       byte[] rec = p.getBytes(currentpos);
       currentpos += Integer.BYTES + rec.length;
-      return rec;
+      return LogMgr.expand(rec);
    }
 
    /**
@@ -60,7 +61,7 @@ class LogIterator implements Iterator<byte[]> {
     * (i.e., the most recent one).
     */
    private void moveToBlock(BlockId blk) {
-      fm.read(blk, p);
+      segs.read(blk, p);
       boundary = p.getInt(0);
       currentpos = boundary;
    }
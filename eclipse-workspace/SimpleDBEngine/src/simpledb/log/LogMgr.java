@@ -1,6 +1,8 @@
 package simpledb.log;
 
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.*;
 import simpledb.file.*;
 
 /**
@@ -8,15 +10,72 @@ import simpledb.file.*;
  * writing log records into a log file. The tail of 
  * the log is kept in a bytebuffer, which is flushed
  * to disk when needed. 
+ * In group-commit mode, committing transactions do not
+ * flush the log themselves; a log-writer thread flushes
+ * once for a whole batch of commits.
+ * <P>
+ * The LSN of a log record is its address in the log: the number
+ * of bytes in the blocks before its block, plus its distance from
+ * the end of its block. Records are written from the end of a block
+ * towards its beginning, so LSNs increase in the order that records
+ * are appended, and they remain valid when the database is restarted.
+ * LSNs are longs, so they do not wrap over the lifetime of the database;
+ * log blocks are numbered with ints, and the log fails rather than
+ * wrap once it has had 2^31 blocks.
+ * <P>
+ * Records may be compressed individually as they are appended.
+ * A compressed record begins with a negative marker and the length
+ * of the original record; the iterators and {@link #read} return the
+ * original bytes. Log blocks themselves are not compressed, since
+ * LSNs are computed from the positions of records in their blocks.
+ * <P>
+ * The log is stored in segment files of a fixed number of blocks.
+ * After a checkpoint, the segments that precede every record that
+ * recovery might need are deleted, or moved to an archive directory.
+ * <P>
+ * Appending a record does not lock the log manager.
+ * The tail of the log is kept in a ring of block-sized pages.
+ * A thread reserves the space for its record by advancing the
+ * latest LSN atomically, and then copies the record into its page
+ * while other threads copy theirs. Once the records before it have
+ * been copied, the thread advances the copied LSN past its record.
+ * A flush writes the pages up to the copied LSN, and then advances
+ * the durable LSN; a page is reused only after its block is durable.
  * @author Edward Sciore
  */
 public class LogMgr {
    private FileMgr fm;
    private String logfile;
-   private Page logpage;
-   private BlockId currentblk;
-   private int latestLSN = 0;
-   private int lastSavedLSN = 0;
+   private LogSegments segs;
+   private String archiveDir = null;
+   private Page[] buffers = new Page[BUFFER_BLOCKS];
+   private long[] blockEnds = new long[BUFFER_BLOCKS];
+   private AtomicLong reservedLSN = new AtomicLong();
+   private AtomicLong copiedLSN = new AtomicLong();
+   private volatile long durableLSN;
+   private Object flushLock = new Object();
+   private Page flushpage;
+   private Thread logWriter = null;
+   private long batchWindow;
+   private int maxBatchSize;
+   private int pendingCommits = 0;
+   private volatile boolean compress = false;
+   private ThreadLocal<Deflater> deflaters =
+         ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+   private static final int COMPRESSED = -1;
+   private static final int MIN_COMPRESSED_SIZE = 64;
+   private static final int BUFFER_BLOCKS = 8;
+   private static final int SPINS = 100;
+
+   /**
+    * Creates the manager for the specified log file,
+    * which is stored in a single segment.
+    * @param FileMgr the file manager
+    * @param logfile the name of the log file
+    */
+   public LogMgr(FileMgr fm, String logfile) {
+      this(fm, logfile, Integer.MAX_VALUE);
+   }
 
    /**
     * Creates the manager for the specified log file.
@@ -24,35 +83,247 @@ public class LogMgr {
     * with an empty first block.
     * @param FileMgr the file manager
     * @param logfile the name of the log file
+    * @param segmentSize the number of blocks in each segment of the log
     */
-   public LogMgr(FileMgr fm, String logfile) {
+   public LogMgr(FileMgr fm, String logfile, int segmentSize) {
       this.fm = fm;
       this.logfile = logfile;
-      byte[] b = new byte[fm.blockSize()];
-      logpage = new Page(b);
-      int logsize = fm.length(logfile);
-      if (logsize == 0)
-         currentblk = appendNewBlock();
+      segs = new LogSegments(fm, logfile, segmentSize);
+      for (int i=0; i<BUFFER_BLOCKS; i++)
+         buffers[i] = new Page(fm.blockSize());
+      flushpage = new Page(fm.blockSize());
+      int logsize = segs.size();
+      long lsn = 0;
+      if (logsize == 0) {
+         BlockId blk = segs.append();
+         flushpage.setInt(0, fm.blockSize());
+         segs.write(blk, flushpage);
+      }
       else {
-         currentblk = new BlockId(logfile, logsize-1);
-         fm.read(currentblk, logpage);
+         BlockId blk = new BlockId(logfile, logsize-1);
+         Page p = buffers[blk.number() % BUFFER_BLOCKS];
+         segs.read(blk, p);
+         lsn = lsn(blk, p.getInt(0));
       }
+      reservedLSN.set(lsn);
+      copiedLSN.set(lsn);
+      durableLSN = lsn;
    }
 
    /**
     * Ensures that the log record corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * The calling thread first waits until the records up to the
+    * LSN have been copied into the log buffer, and then writes
+    * every record that has been copied.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= lastSavedLSN)
-         flush();
+   public void flush(long lsn) {
+      if (lsn <= durableLSN)
+         return;
+      lsn = Math.min(lsn, reservedLSN.get());
+      awaitCopied(lsn);
+      synchronized (flushLock) {
+         if (lsn <= durableLSN)
+            return;
+         int blocksize = fm.blockSize();
+         int first = blockNumber(durableLSN, blocksize);
+         long target = copiedLSN.get();
+         int last = blockNumber(target, blocksize);
+         for (int b=first; b<=last; b++) {
+            long end = (b == last) ? target : blockEnds[b % BUFFER_BLOCKS];
+            buffers[b % BUFFER_BLOCKS].copyTo(flushpage);
+            flushpage.setInt(0, blocksize - (int) (end % blocksize));
+            BlockId blk = (b < segs.size()) ? new BlockId(logfile, b) : segs.append();
+            segs.write(blk, flushpage);
+         }
+         segs.force(first, last);
+         durableLSN = target;
+      }
+      synchronized (this) {
+         notifyAll(); // wake any commits that were waiting for the flush
+      }
+   }
+
+   /**
+    * Ensures that the commit record having the specified LSN
+    * is on disk.
+    * If group commit is enabled, the calling thread joins the
+    * current batch and waits for the log writer to flush it;
+    * otherwise the log is flushed immediately.
+    * @param lsn the LSN of a commit record
+    */
+   public void flushCommit(long lsn) {
+      synchronized (this) {
+         if (logWriter != null) {
+            if (lsn <= durableLSN)
+               return;
+            pendingCommits++;
+            notifyAll();
+            try {
+               while (lsn > durableLSN)
+                  wait();
+               return;
+            }
+            catch(InterruptedException e) {}
+         }
+      }
+      flush(lsn);
+   }
+
+   /**
+    * Starts a log-writer thread that performs group commit.
+    * After the first commit of a batch arrives, the writer
+    * waits for up to the batch window for further commits,
+    * and then flushes the log once for all of them.
+    * The batch is flushed early if it reaches the maximum size.
+    * Commits that arrive while the log is being written
+    * form the next batch, so even a zero window batches
+    * commits under load.
+    * @param batchWindow the number of milliseconds to wait for a batch to fill
+    * @param maxBatchSize the number of commits that fill a batch
+    */
+   public synchronized void enableGroupCommit(long batchWindow, int maxBatchSize) {
+      if (logWriter != null)
+         return;
+      this.batchWindow = batchWindow;
+      this.maxBatchSize = maxBatchSize;
+      logWriter = new Thread(this::writeBatches, "log-writer");
+      logWriter.setDaemon(true);
+      logWriter.start();
+   }
+
+   /**
+    * Stops the log-writer thread;
+    * commits then flush the log themselves.
+    */
+   public void disableGroupCommit() {
+      Thread t;
+      synchronized (this) {
+         t = logWriter;
+         logWriter = null;
+         notifyAll();
+      }
+      if (t != null) {
+         try {
+            t.join();
+         }
+         catch(InterruptedException e) {}
+      }
+   }
+
+   /**
+    * Turns the compression of appended records on or off.
+    * Records are compressed only when that makes them smaller;
+    * records appended earlier are read either way.
+    * @param compress true if appended records are to be compressed
+    */
+   public void setCompression(boolean compress) {
+      this.compress = compress;
+   }
+
+   /**
+    * Sets the directory to which removed log segments are moved.
+    * A relative directory is within the database directory.
+    * @param archiveDir the directory, or null if removed segments are deleted
+    */
+   public synchronized void setArchiveDir(String archiveDir) {
+      this.archiveDir = archiveDir;
+   }
+
+   /**
+    * Removes the log segments that hold only records
+    * preceding the specified LSN. The segments are
+    * deleted, or moved to the archive directory.
+    * @param lsn the LSN of the oldest record to keep
+    * @return the names of the removed segment files
+    */
+   public List<String> truncate(long lsn) {
+      flush(lsn); // the flush may still need the segment holding the durable LSN
+      List<String> removed = segs.removeBefore(blockNumber(lsn, fm.blockSize()));
+      String dir;
+      synchronized (this) {
+         dir = archiveDir;
+      }
+      for (String segment : removed) {
+         if (dir == null)
+            fm.delete(segment);
+         else
+            fm.moveTo(segment, dir);
+      }
+      return removed;
+   }
+
+   /**
+    * Returns the names of the log's segment files, from the oldest.
+    * @return the segment names
+    */
+   public List<String> segments() {
+      return segs.names();
+   }
+
+   /**
+    * Returns an iterator over the records of a single segment file,
+    * in the order in which they were appended.
+    * The segment may have been removed from the log and archived.
+    * @param fm the file manager
+    * @param segment the name of the segment file, within the database directory
+    * @return an iterator that also gives the LSN of each record
+    */
+   public static ForwardLogIterator segmentIterator(FileMgr fm, String segment) {
+      LogSegments seg = new LogSegments(fm, segment);
+      BlockId last = new BlockId(segment, seg.size()-1);
+      return new ForwardLogIterator(seg, last, 0);
    }
 
    public Iterator<byte[]> iterator() {
-      flush();
-      return new LogIterator(fm, currentblk);
+      return new LogIterator(segs, new BlockId(logfile, blockNumber(flush(), fm.blockSize())));
+   }
+
+   /**
+    * Returns an iterator over the records whose LSN is at least
+    * the specified one, in the order in which they were appended.
+    * @param lsn the LSN at which to start
+    * @return an iterator that also gives the LSN of each record
+    */
+   public ForwardLogIterator iterator(long lsn) {
+      return new ForwardLogIterator(segs, new BlockId(logfile, blockNumber(flush(), fm.blockSize())), lsn);
+   }
+
+   /**
+    * Returns the log record having the specified LSN.
+    * The record's block and position are computed from its LSN,
+    * so no other records are read.
+    * The record is read from the log file, which is first
+    * flushed if the record is not yet durable.
+    * @param lsn the LSN of a log record
+    * @return the bytes of the record
+    */
+   public byte[] read(long lsn) {
+      flush(lsn);
+      int blocksize = fm.blockSize();
+      BlockId blk = new BlockId(logfile, blockNumber(lsn, blocksize));
+      int recpos = blocksize - (int) (lsn % blocksize);
+      Page p = new Page(new byte[blocksize]);
+      segs.read(blk, p);
+      return expand(p.getBytes(recpos));
+   }
+
+   /**
+    * Returns the LSN of the most recently appended log record.
+    * @return the latest LSN
+    */
+   public long latestLSN() {
+      return reservedLSN.get();
+   }
+
+   /**
+    * Returns the size of the largest record that fits in a log block.
+    * @return the maximum record size in bytes
+    */
+   public int maxRecordSize() {
+      return fm.blockSize() - 2*Integer.BYTES;
    }
 
    /**
@@ -64,41 +335,170 @@ public class LogMgr {
     * of the last-written record (the "boundary").
     * Storing the records backwards makes it easy to read
     * them in reverse order.
+    * The boundary is written when the block is flushed.
     * @param logrec a byte buffer containing the bytes.
     * @return the LSN of the final value
     */
-   public synchronized int append(byte[] logrec) {
-      int boundary = logpage.getInt(0);
-      int recsize = logrec.length;
-      int bytesneeded = recsize + Integer.BYTES;
-      if (boundary - bytesneeded < Integer.BYTES) { // the log record doesn't fit,
-         flush();        // so move to the next block.
-         currentblk = appendNewBlock();
-         boundary = logpage.getInt(0);
+   public long append(byte[] logrec) {
+      if (compress && logrec.length >= MIN_COMPRESSED_SIZE)
+         logrec = compress(logrec);
+      int blocksize = fm.blockSize();
+      int bytesneeded = logrec.length + Integer.BYTES;
+      if (bytesneeded > blocksize - Integer.BYTES)
+         throw new RuntimeException("log record of " + logrec.length + " bytes is too large");
+      long start, lsn;
+      do {
+         start = reservedLSN.get();
+         int boundary = blocksize - (int) (start % blocksize);
+         if (boundary - bytesneeded >= Integer.BYTES)
+            lsn = start + bytesneeded;
+         else  // the log record doesn't fit, so move to the next block
+            lsn = (start / blocksize + 1) * blocksize + bytesneeded;
+      } while (!reservedLSN.compareAndSet(start, lsn));
+
+      int blknum = blockNumber(lsn, blocksize);
+      // the block's page may still hold a block that is not durable
+      while (blknum - blockNumber(durableLSN, blocksize) >= BUFFER_BLOCKS)
+         flush((long) (blknum - BUFFER_BLOCKS + 1) * blocksize + 1);
+      buffers[blknum % BUFFER_BLOCKS].setBytes(blocksize - (int) (lsn % blocksize), logrec);
+
+      // the copied LSN advances past the records in the order they were reserved
+      for (int spins=0; copiedLSN.get() != start; spins++)
+         pause(spins);
+      // the end of the previous block is recorded only now, since
+      // its slot may be read by a flush of an older block until then
+      if (blknum != start / blocksize)
+         blockEnds[(blknum-1) % BUFFER_BLOCKS] = start;
+      copiedLSN.set(lsn);
+      return lsn;
+   }
+
+   /**
+    * Returns the LSN of the record at the specified position of a log block.
+    */
+   static long lsn(BlockId blk, int recpos, int blocksize) {
+      return (long) blk.number() * blocksize + (blocksize - recpos);
+   }
+
+   /**
+    * Returns the number of the log block that holds the specified LSN.
+    * @throws ArithmeticException if the block number does not fit in an int
+    */
+   static int blockNumber(long lsn, int blocksize) {
+      return Math.toIntExact(lsn / blocksize);
+   }
+
+   /**
+    * Returns the original bytes of a record read from the log,
+    * which are the record itself unless it was compressed.
+    * A record that is not compressed must not begin with a negative integer.
+    */
+   static byte[] expand(byte[] rec) {
+      if (rec.length < 2*Integer.BYTES || new Page(rec).getInt(0) != COMPRESSED)
+         return rec;
+      Page p = new Page(rec);
+      byte[] result = new byte[p.getInt(Integer.BYTES)];
+      // the inflater needs an extra byte after the data of a raw stream
+      byte[] input = new byte[rec.length - 2*Integer.BYTES + 1];
+      System.arraycopy(rec, 2*Integer.BYTES, input, 0, input.length - 1);
+      Inflater inflater = new Inflater(true);
+      try {
+         inflater.setInput(input);
+         inflater.inflate(result);
       }
-      int recpos = boundary - bytesneeded;
+      catch(DataFormatException e) {
+         throw new RuntimeException("corrupt compressed log record");
+      }
+      finally {
+         inflater.end();
+      }
+      return result;
+   }
+
+   /**
+    * Returns the compressed form of the record,
+    * or the record itself if compressing does not make it smaller.
+    */
+   private byte[] compress(byte[] logrec) {
+      byte[] buf = new byte[logrec.length];
+      Deflater deflater = deflaters.get();
+      deflater.reset();
+      deflater.setInput(logrec);
+      deflater.finish();
+      int len = deflater.deflate(buf, 2*Integer.BYTES, buf.length - 2*Integer.BYTES);
+      if (!deflater.finished())
+         return logrec;
+      Page p = new Page(buf);
+      p.setInt(0, COMPRESSED);
+      p.setInt(Integer.BYTES, logrec.length);
+      byte[] result = new byte[2*Integer.BYTES + len];
+      System.arraycopy(buf, 0, result, 0, result.length);
+      return result;
+   }
+
+   private long lsn(BlockId blk, int recpos) {
+      return lsn(blk, recpos, fm.blockSize());
+   }
+
+   /**
+    * Waits until the records up to the specified LSN
+    * have been copied into the log buffer.
+    */
+   private void awaitCopied(long lsn) {
+      for (int spins=0; copiedLSN.get() < lsn; spins++)
+         pause(spins);
+   }
 
-      logpage.setBytes(recpos, logrec);
-      logpage.setInt(0, recpos); // the new boundary
-      latestLSN += 1;
-      return latestLSN;
+   /**
+    * Waits briefly for another thread, which is expected
+    * to be copying a record into the log buffer.
+    */
+   private static void pause(int spins) {
+      if (spins < SPINS)
+         Thread.onSpinWait();
+      else
+         Thread.yield();
    }
 
    /**
-    * Initialize the bytebuffer and append it to the log file.
+    * Writes every appended record to disk.
+    * @return the durable LSN
     */
-   private BlockId appendNewBlock() {
-      BlockId blk = fm.append(logfile);     
-      logpage.setInt(0, fm.blockSize());
-      fm.write(blk, logpage);
-      return blk;
+   private long flush() {
+      flush(reservedLSN.get());
+      return durableLSN;
    }
 
    /**
-    * Write the buffer to the log file.
+    * The body of the log-writer thread.
+    * The thread gives up the lock while it waits,
+    * so that transactions can keep appending to the log.
+    * The thread is stopped by clearing logWriter rather than
+    * by an interrupt, because an interrupt during I/O
+    * would close the log file's channel.
     */
-   private void flush() {
-      fm.write(currentblk, logpage);
-      lastSavedLSN = latestLSN;
+   private synchronized void writeBatches() {
+      Thread me = Thread.currentThread();
+      try {
+         while (logWriter == me) {
+            while (pendingCommits == 0 && logWriter == me)
+               wait();
+            long deadline = System.currentTimeMillis() + batchWindow;
+            long remaining = batchWindow;
+            while (pendingCommits < maxBatchSize && remaining > 0 && logWriter == me) {
+               wait(remaining);
+               remaining = deadline - System.currentTimeMillis();
+            }
+            if (pendingCommits > 0) {
+               pendingCommits = 0;
+               flush();
+            }
+         }
+      }
+      catch(InterruptedException e) {
+         // the thread was stopped
+      }
+      if (pendingCommits > 0)
+         flush();
    }
 }
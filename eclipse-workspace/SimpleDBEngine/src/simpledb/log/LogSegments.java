@@ -0,0 +1,173 @@
+package simpledb.log;
+
+import java.util.*;
+import simpledb.file.*;
+
+/**
+ * The files that hold the blocks of the log.
+ * The log's blocks are numbered from 0 as if they were in a single file,
+ * but they are stored in segment files that each hold a limited number
+ * of consecutive blocks. A segment is named after the log file and
+ * the number of its first block, as in simpledb.log.1024, so the segment
+ * size can be changed without affecting the existing segments.
+ * Segments at the beginning of the log are removed once no
+ * recovery can need their records; their blocks cannot be read.
+ * Removing segments does not renumber the remaining blocks,
+ * so block numbers, like LSNs, only grow; the log refuses
+ * to append once the block numbers are used up.
+ */
+class LogSegments {
+   private FileMgr fm;
+   private String logfile;
+   private int segsize;
+   private TreeMap<Integer,String> segments = new TreeMap<>();
+   private int numBlocks = 0;
+
+   /**
+    * Finds the existing segments of the specified log file.
+    * @param fm the file manager
+    * @param logfile the name of the log file
+    * @param segsize the number of blocks in a new segment
+    */
+   LogSegments(FileMgr fm, String logfile, int segsize) {
+      this.fm = fm;
+      this.logfile = logfile;
+      this.segsize = segsize;
+      for (String filename : fm.fileNames(logfile + "."))
+         segments.put(firstBlock(filename), filename);
+      if (!segments.isEmpty())
+         numBlocks = segments.lastKey() + fm.length(segments.lastEntry().getValue());
+   }
+
+   /**
+    * Creates the log that consists of a single segment,
+    * such as one that has been archived.
+    * @param fm the file manager
+    * @param segment the name of the segment file
+    */
+   LogSegments(FileMgr fm, String segment) {
+      this.fm = fm;
+      this.logfile = segment;
+      int first = firstBlock(segment);
+      segments.put(first, segment);
+      numBlocks = first + fm.length(segment);
+      segsize = numBlocks - first;
+   }
+
+   /**
+    * Returns the number of the first block of the segment
+    * having the specified name.
+    */
+   static int firstBlock(String segment) {
+      return Integer.parseInt(segment.substring(segment.lastIndexOf('.') + 1));
+   }
+
+   int blockSize() {
+      return fm.blockSize();
+   }
+
+   /**
+    * Returns the number of the first block that has not been removed.
+    */
+   synchronized int firstBlock() {
+      return segments.isEmpty() ? 0 : segments.firstKey();
+   }
+
+   /**
+    * Returns the number of blocks in the log,
+    * including the ones that have been removed.
+    */
+   synchronized int size() {
+      return numBlocks;
+   }
+
+   /**
+    * Returns the names of the segment files, from the oldest.
+    */
+   synchronized List<String> names() {
+      return new ArrayList<>(segments.values());
+   }
+
+   /**
+    * Reads the specified log block into the page.
+    * The segments are not removed while the block is read.
+    * @param blk a block of the log, numbered within the whole log
+    * @param p the page that receives the block
+    */
+   synchronized void read(BlockId blk, Page p) {
+      fm.read(segmentBlock(blk.number()), p);
+   }
+
+   /**
+    * Writes the page to the specified log block.
+    * @param blk a block of the log, numbered within the whole log
+    * @param p the page to write
+    */
+   void write(BlockId blk, Page p) {
+      BlockId b;
+      synchronized (this) {
+         b = segmentBlock(blk.number());
+      }
+      fm.write(b, p);
+   }
+
+   /**
+    * Forces the writes to the segments containing the specified blocks.
+    * @param first the first block, numbered within the whole log
+    * @param last the last block
+    */
+   void force(int first, int last) {
+      Set<String> filenames = new LinkedHashSet<>();
+      synchronized (this) {
+         for (int b=first; b<=last; b++)
+            filenames.add(segmentBlock(b).fileName());
+      }
+      for (String filename : filenames)
+         fm.force(filename);
+   }
+
+   /**
+    * Appends a block to the log, starting a new segment
+    * if the last one is full.
+    * @return the new block, numbered within the whole log
+    */
+   synchronized BlockId append() {
+      if (numBlocks == Integer.MAX_VALUE)
+         throw new RuntimeException("the log has used up its block numbers");
+      if (segments.isEmpty() || numBlocks - segments.lastKey() >= segsize) {
+         String filename = logfile + "." + numBlocks;
+         segments.put(numBlocks, filename);
+      }
+      fm.append(segments.lastEntry().getValue());
+      numBlocks++;
+      return new BlockId(logfile, numBlocks-1);
+   }
+
+   /**
+    * Removes the segments all of whose blocks precede the
+    * specified block. The last segment is never removed.
+    * @param blknum the number of the first block to keep
+    * @return the names of the removed segment files
+    */
+   synchronized List<String> removeBefore(int blknum) {
+      List<String> result = new ArrayList<>();
+      while (segments.size() > 1) {
+         Map.Entry<Integer,String> second = segments.higherEntry(segments.firstKey());
+         if (second.getKey() > blknum)
+            break;
+         result.add(segments.pollFirstEntry().getValue());
+      }
+      return result;
+   }
+
+   /**
+    * Returns the block of a segment file that holds
+    * the specified log block.
+    */
+   private BlockId segmentBlock(int blknum) {
+      Map.Entry<Integer,String> e = segments.floorEntry(blknum);
+      if (e == null || blknum >= numBlocks)
+         throw new RuntimeException("log block " + blknum + " is not in the log");
+      return new BlockId(e.getValue(), blknum - e.getKey());
+   }
+}
@@ -38,7 +38,7 @@ public class LogTest {
       System.out.print("Creating records: ");
       for (int i=start; i<=end; i++) {
          byte[] rec = createLogRecord("record"+i, i+100);
-         int lsn = lm.append(rec);
+         long lsn = lm.append(rec);
          System.out.print(lsn + " ");
       }
       System.out.println();
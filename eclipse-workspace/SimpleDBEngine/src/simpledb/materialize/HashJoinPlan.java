@@ -9,8 +9,8 @@ import java.util.*;
 
 
 public class HashJoinPlan implements Plan {
+	private Transaction tx;
 	private Plan p1, p2;
-	private int totalPartitions;
 	private String fldname1, fldname2;
 	private Schema sch = new Schema();
 	
@@ -23,34 +23,55 @@ public class HashJoinPlan implements Plan {
 	 * @param fldname2 the RHS join field
 	 */
 	public HashJoinPlan(Transaction tx, Plan p1, Plan p2, String fldname1, String fldname2) {      
+		this.tx = tx;
 		this.p1 = p1;
 		this.p2 = p2;
 		sch.addAll(p1.schema());
 		sch.addAll(p2.schema());
 		this.fldname1 = fldname1;
 		this.fldname2 = fldname2;
-		this.totalPartitions = tx.availableBuffs() - 1; // 1 for Input page.
 	}
 
 	/** 
 	 * Lab 05: Hash Based Join.
-	 * Returns HashJoinScan.
+	 * Returns HashJoinScan, which splits the LHS into as many
+	 * partitions as its estimated size needs. The RHS is opened
+	 * by the scan, after it has pushed its filter into the RHS plan.
 	 */
 	public Scan open() {
 		Scan s1 = p1.open();
-		Scan s2 = p2.open();
-		return new HashJoinScan(s1, fldname1, s2, fldname2, totalPartitions, p1.schema().fields());
+		int partitions = HashJoinScan.partitions(buildBlocks(), tx.availableBuffs());
+		return new HashJoinScan(tx, s1, fldname1, p1.schema(), p2, fldname2, partitions);
 	}
 
 
 	/**
 	 * Return the number of block acceses required to
 	 * hash join the tables.
-	 * Formula: 3 * (|P1| + |P2|).
+	 * Both inputs are read once. If the LHS does not fit in memory,
+	 * the fraction of each input outside partition 0 is written to
+	 * temporary tables and read back, which is repeated for
+	 * partitions that are still too large:
+	 * <pre> B(p1) + B(p2) + 2 * (M(p1) + f * M(p2)) * (k-1)/k + ... </pre>
+	 * where M is the materialized size, k the number of partitions,
+	 * and f the fraction of RHS records that pass the filter.
+	 * The method uses the current number of available buffers,
+	 * and so this value may differ when the query scan is opened.
 	 * @see simpledb.plan.Plan#blocksAccessed()
 	 */
 	public int blocksAccessed() {
-		return 3 * (p1.blocksAccessed() + p2.blocksAccessed());
+		int available = tx.availableBuffs();
+		int partitionBlocks = buildBlocks();
+		double spilled = partitionBlocks + filterSelectivity() * new MaterializePlan(tx, p2).blocksAccessed();
+		double cost = p1.blocksAccessed() + p2.blocksAccessed();
+		int k = HashJoinScan.partitions(partitionBlocks, available);
+		for (int level = 0; k > 1 && level < HashJoinScan.MAX_LEVELS; level++) {
+			spilled = spilled * (k - 1) / k;
+			cost += 2 * spilled;
+			partitionBlocks = (partitionBlocks + k - 1) / k;
+			k = HashJoinScan.partitions(partitionBlocks, available);
+		}
+		return (int) Math.ceil(cost);
 	}
 
 	/**
@@ -60,7 +81,9 @@ public class HashJoinPlan implements Plan {
 	 * @see simpledb.plan.Plan#recordsOutput()
 	 */
 	public int recordsOutput() {
-		return p1.recordsOutput() * p2.recordsOutput();
+		int maxvals = Math.max(p1.distinctValues(fldname1),
+				p2.distinctValues(fldname2));
+		return (p1.recordsOutput() * p2.recordsOutput()) / Math.max(1, maxvals);
 	}
 
 	/**
@@ -84,6 +107,27 @@ public class HashJoinPlan implements Plan {
 	public Schema schema() {
 		return sch;
 	}
+	/**
+	 * Return the estimated fraction of RHS records that pass
+	 * the filter of LHS join values. Assuming that the smaller
+	 * set of join values is contained in the larger, it is the
+	 * fraction of RHS join values that occur in the LHS,
+	 * plus the false positives among the rest.
+	 */
+	private double filterSelectivity() {
+		double matching = Math.min(1.0, (double) p1.distinctValues(fldname1)
+				/ Math.max(1, p2.distinctValues(fldname2)));
+		return matching + (1 - matching) * BloomFilter.falsePositiveRate();
+	}
+
+	/**
+	 * Return the estimated size of the LHS in blocks,
+	 * as it would be stored in a temporary table.
+	 */
+	private int buildBlocks() {
+		return new MaterializePlan(tx, p1).blocksAccessed();
+	}
+
 	// Lab 6: query plan
     public String toString(){
         return String.format("[(%s) hash join (%s)](%s = %s)", p1.toString(), p2.toString(), fldname1, fldname2);
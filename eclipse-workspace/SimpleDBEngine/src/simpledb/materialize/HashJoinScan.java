@@ -1,165 +1,386 @@
 package simpledb.materialize;
 
+import simpledb.tx.Transaction;
+import simpledb.plan.Plan;
 import simpledb.query.*;
+import simpledb.record.*;
 import java.util.*;
 
 
+/**
+ * The scan for the hybrid Grace hash join.
+ * A single pass over the LHS scan splits it into partitions.
+ * Partition 0 is kept in a {@link JoinHashTable}, and the others
+ * are spilled to temporary tables. A single pass over the RHS
+ * scan then joins its partition 0 records with the hash table,
+ * and spills the rest. Each pair of spilled partitions is
+ * joined in the same way, so a partition whose LHS is too
+ * large for memory is partitioned again with another hash function.
+ * <P>
+ * While it reads the LHS, the scan also builds a Bloom filter on
+ * its join values, which it pushes into the RHS as a runtime filter.
+ * If the RHS is given as a plan, it is opened only after the filter
+ * is built, so that the filter can discard records before they
+ * are materialized.
+ */
 public class HashJoinScan implements Scan {
+	private Transaction tx;
 	private Scan s1, s2;
-	private int curIndex;
+	private Plan p2;
+	private BloomFilter filter;
+	private boolean filterPushed;
 	private String fldname1, fldname2;
-	private int curPartition, totalPartitions;
-	private List<String> s1Fields;
-	private Map<String, Constant> curS1Record;
-	private ArrayList<Map<String, Constant>> curArrayList;
-	private Map<Constant, ArrayList<Map<String, Constant>>> hashTable;
+	private Schema sch1, sch2;
+	private int firstPartitions, available, recordsPerBlock;
+	private Deque<Partition> pending = new ArrayDeque<>();
+
+	// the state of the partition pair being joined
+	private Scan probe;
+	private int level, numPartitions;
+	private boolean inMemory;
+	private int[] buildCounts;
+	private TempTable[] buildParts, probeParts;
+	private UpdateScan[] probeScans;
+
+	private int curRow = -1;
+	private JoinHashTable hashTable;
+
+	/**
+	 * The number of times that a partition is partitioned again.
+	 * Beyond it the partition is joined in memory however large it is,
+	 * since its records are likely to share a single join value.
+	 */
+	static final int MAX_LEVELS = 3;
 
 	/**
 	 * Create a hash join scan for the two underlying scans.
-	 * @param s1 the LHS scan, used as the Hash Table reference.
-	 * @param s2 the RHS scan
+	 * @param tx the calling transaction
+	 * @param s1 the LHS scan, which builds the hash tables
 	 * @param fldname1 the LHS join field
+	 * @param sch1 the schema of the LHS scan
+	 * @param s2 the RHS scan, which probes the hash tables
 	 * @param fldname2 the RHS join field
-	 * @param totalPartitions the number of partition available
-	 * @param s1Fields the fields of p1.
+	 * @param sch2 the schema of the RHS scan
+	 * @param partitions the number of partitions of the LHS scan
 	 */
-	public HashJoinScan(Scan s1, String fldname1, Scan s2, String fldname2, int totalPartitions, List<String> s1Fields) {
+	public HashJoinScan(Transaction tx, Scan s1, String fldname1, Schema sch1,
+			Scan s2, String fldname2, Schema sch2, int partitions) {
+		this(tx, s1, fldname1, sch1, null, s2, fldname2, sch2, partitions);
+	}
+
+	/**
+	 * Create a hash join scan for the LHS scan and the RHS plan.
+	 * The plan is opened once the LHS has been read.
+	 * @param tx the calling transaction
+	 * @param s1 the LHS scan, which builds the hash tables
+	 * @param fldname1 the LHS join field
+	 * @param sch1 the schema of the LHS scan
+	 * @param p2 the RHS plan, whose scan probes the hash tables
+	 * @param fldname2 the RHS join field
+	 * @param partitions the number of partitions of the LHS scan
+	 */
+	public HashJoinScan(Transaction tx, Scan s1, String fldname1, Schema sch1,
+			Plan p2, String fldname2, int partitions) {
+		this(tx, s1, fldname1, sch1, p2, null, fldname2, p2.schema(), partitions);
+	}
+
+	private HashJoinScan(Transaction tx, Scan s1, String fldname1, Schema sch1,
+			Plan p2, Scan s2, String fldname2, Schema sch2, int partitions) {
+		this.tx = tx;
 		this.s1 = s1;
+		this.p2 = p2;
 		this.s2 = s2;
-		this.curIndex = 0;
 		this.fldname1 = fldname1;
 		this.fldname2 = fldname2;
-		this.s1Fields = s1Fields;
-		this.totalPartitions = totalPartitions;
+		this.sch1 = sch1;
+		this.sch2 = sch2;
+		this.firstPartitions = partitions;
+		this.available = tx.availableBuffs();
+		this.recordsPerBlock = Math.max(1, tx.blockSize() / new Layout(sch1).slotSize());
+		this.hashTable = new JoinHashTable(sch1, fldname1);
+		// sized for the records that the partitions were chosen for
+		this.filter = new BloomFilter(partitions * memory(available) * recordsPerBlock);
 		beforeFirst();
 	}
 
 	/**
-	 * Close the scan by closing the two underlying scans.
+	 * Return the number of partitions into which a LHS
+	 * of the specified size is split.
+	 * A LHS that fits in memory is not partitioned. Otherwise
+	 * each spilled partition needs a buffer while it is written,
+	 * and partition 0 must fit in the remaining memory.
+	 * @param blocks the size of the LHS in blocks
+	 * @param available the number of available buffers
+	 * @return the number of partitions
+	 */
+	static int partitions(int blocks, int available) {
+		int memory = memory(available);
+		if (blocks <= memory)
+			return 1;
+		int k = (blocks + memory - 1) / memory + 1;
+		while (k < memory && (blocks + k - 1) / k > memory - (k - 1))
+			k++;
+		return Math.min(k, memory);
+	}
+
+	/**
+	 * Return the number of blocks of memory that a join may use,
+	 * which leaves a buffer for the input and another spare.
+	 */
+	static int memory(int available) {
+		return Math.max(1, available - 2);
+	}
+
+	/**
+	 * Close the scan by closing the two underlying scans
+	 * and the partition being joined.
 	 * @see simpledb.query.Scan#close()
 	 */
 	public void close() {
+		closePartition();
 		s1.close();
-		s2.close();
+		if (s2 != null)
+			s2.close();
 	}
 
 	/**
-	 * Set-up the next partition being used.
+	 * Partition both underlying scans again, and
+	 * position the scan before the first joined record.
+	 * The RHS is opened or repositioned once the LHS has been
+	 * read, and the filter of LHS join values is pushed into it.
 	 * @see simpledb.query.Scan#beforeFirst()
 	 */
 	public void beforeFirst() {
-		curPartition = 0;
-		useNextPartition();
+		closePartition();
+		pending.clear();
+		s1.beforeFirst();
+		filter.clear();
+		build(s1, 0, firstPartitions);
+		if (s2 == null) {
+			p2.setFilter(fldname2, filter);
+			s2 = p2.open();
+		}
+		else
+			s2.beforeFirst();
+		filterPushed = s2.setFilter(fldname2, filter);
+		probe = s2;
 	}
 
 	/**
-	 * Overview: 
-	 * curArrayList is the set of records in a particular slot in
-	 * HashTable. It is initialized when a s2 record matches a slot.
-	 * s2 scan will only move forward, after finishing the curArrayList.
-	 * Every s2 will be hashed against the fldname2, and matched against
-	 * the HashTable. When there is a match, initialize curArrayList.
-	 * When s2 reaches the end, move to next partition.
-	 * When there is no more partition to scan, return false.
+	 * Overview:
+	 * curRow is the LHS record in the hash table that matches the
+	 * current probe record; the other matches are chained from it.
+	 * The probe scan only moves forward after the chain
+	 * is finished. A probe record in partition 0 is matched against
+	 * the hash table; any other is copied to its spilled partition,
+	 * unless the LHS partition is empty. A RHS record that the filter
+	 * rejects is skipped here if the RHS could not apply the filter
+	 * itself. When the probe scan reaches
+	 * the end, the next pair of spilled partitions is joined.
+	 * When there is no more partition to join, return false.
 	 * @see simpledb.query.Scan#next()
 	 */
 	public boolean next() {
-		// There are still records to be matched with current s2 scan.
-		if (curArrayList != null && curIndex < curArrayList.size()) {
-			curS1Record = curArrayList.get(curIndex++);
-			return true;
+		// There are still records to be matched with the current probe record.
+		if (curRow >= 0) {
+			curRow = hashTable.nextMatch(curRow);
+			if (curRow >= 0)
+				return true;
 		}
-		// Move s2 scan when curArrayList is finished.
-		while(s2.next()) {
-			// Hash s2 field value and match against hash table.
-			if(s2.getVal(fldname2).hashCode() % totalPartitions == curPartition) {
-				if(hashTable.keySet().contains(s2.getVal(fldname2))) {
-					// Return true, and initialize curArrayList.
-					curIndex = 0;
-					curArrayList = hashTable.get(s2.getVal(fldname2));
-					curS1Record = curArrayList.get(curIndex++);
-					return true;
+		while (probe != null) {
+			while (probe.next()) {
+				int hash = probe.hashVal(fldname2);
+				if (!filterPushed && probe == s2 && !filter.mightContain(hash))
+					continue;
+				int p = partition(hash);
+				if (p == 0 && inMemory) {
+					curRow = hashTable.find(probe, fldname2);
+					if (curRow >= 0)
+						return true;
+				}
+				else if (buildCounts[p] > 0) {
+					if (probeScans[p] == null) {
+						probeParts[p] = new TempTable(tx, sch2);
+						probeScans[p] = probeParts[p].open();
+					}
+					copy(probe, probeScans[p], sch2);
 				}
 			}
+			nextPartition();
 		}
-		// Dereference curArrayList, for next partition.
-		curArrayList = null;
-		if(!useNextPartition())
-			// No more next partition -> return false.
-			return false;
-		// Go to next.
-		return next();
+		return false;
 	}
 
-	/** 
+	/**
 	 * Return the integer value of the specified field.
 	 * The value is obtained from whichever scan
 	 * contains the field.
 	 * @see simpledb.query.Scan#getInt(java.lang.String)
 	 */
 	public int getInt(String fldname) {
-		if (s2.hasField(fldname))
-			return s2.getInt(fldname);
+		if (sch2.hasField(fldname))
+			return probe.getInt(fldname);
 		else
-			return curS1Record.get(fldname).asInt();
+			return hashTable.getInt(curRow, fldname);
 	}
 
-	/** 
+	/**
 	 * Return the string value of the specified field.
 	 * The value is obtained from whichever scan
 	 * contains the field.
 	 * @see simpledb.query.Scan#getString(java.lang.String)
 	 */
 	public String getString(String fldname) {
-		if (s2.hasField(fldname))
-			return s2.getString(fldname);
+		if (sch2.hasField(fldname))
+			return probe.getString(fldname);
 		else
-			return curS1Record.get(fldname).asString();
+			return hashTable.getString(curRow, fldname);
 	}
 
-	/** 
+	/**
 	 * Return the value of the specified field.
 	 * The value is obtained from whichever scan
 	 * contains the field.
 	 * @see simpledb.query.Scan#getVal(java.lang.String)
 	 */
 	public Constant getVal(String fldname) {
-		if (s2.hasField(fldname))
-			return s2.getVal(fldname);
+		if (sch2.hasField(fldname))
+			return probe.getVal(fldname);
 		else
-			return curS1Record.get(fldname);
+			return hashTable.getVal(curRow, fldname);
 	}
 
 	/**
-	 * Return true if the specified field is inouterPages
+	 * Return true if the specified field is in
 	 * either of the underlying scans.
 	 * @see simpledb.query.Scan#hasField(java.lang.String)
 	 */
 	public boolean hasField(String fldname) {
-		return s2.hasField(fldname) || curS1Record.containsKey(fldname);
+		return sch2.hasField(fldname) || sch1.hasField(fldname);
 	}
 
-	private boolean useNextPartition() {
-		// No more partition, returns false.
-		if(++curPartition >= totalPartitions)
-			return false;
-		// Place s1 and s2 scan before the first record.
-		s1.beforeFirst();
-		s2.beforeFirst();
-		hashTable = new HashMap<>();
-		// Traverse s1 Scan to setup hash table.
-		while(s1.next()) {
-			if(s1.getVal(fldname1).hashCode() % totalPartitions == curPartition) {
-				// Store the partitioned record into HashMap's ArrayList as HashMap with reference to field name and value.
-				Map<String, Constant> record = new HashMap<>();
-				for(String fieldName: s1Fields) 
-					record.put(fieldName, s1.getVal(fieldName));
-				hashTable.computeIfAbsent(s1.getVal(fldname1), k -> new ArrayList<Map<String, Constant>>()).add(record);
+	/**
+	 * Read the LHS records of a partition pair, keeping those
+	 * of partition 0 in the hash table and spilling the others.
+	 * If partition 0 outgrows its memory, it is spilled too.
+	 */
+	private void build(Scan src, int level, int k) {
+		this.level = level;
+		numPartitions = k;
+		buildCounts = new int[k];
+		buildParts = new TempTable[k];
+		probeParts = new TempTable[k];
+		probeScans = new UpdateScan[k];
+		UpdateScan[] buildScans = new UpdateScan[k];
+		int capacity = (level >= MAX_LEVELS) ? Integer.MAX_VALUE
+				: Math.max(1, memory(available) - (k - 1)) * recordsPerBlock;
+		hashTable.clear(capacity);
+		inMemory = true;
+		while (src.next()) {
+			int hash = src.hashVal(fldname1);
+			if (level == 0)
+				filter.add(hash);
+			int p = partition(hash);
+			if (p == 0 && inMemory) {
+				if (hashTable.insert(src))
+					continue;
+				buildCounts[0] = hashTable.size();
+				buildScans[0] = spillHashTable();
 			}
+			if (buildScans[p] == null) {
+				buildParts[p] = new TempTable(tx, sch1);
+				buildScans[p] = buildParts[p].open();
+			}
+			copy(src, buildScans[p], sch1);
+			buildCounts[p]++;
+		}
+		for (UpdateScan s : buildScans)
+			if (s != null)
+				s.close();
+	}
+
+	/**
+	 * Copy the records of the hash table into the
+	 * temporary table of partition 0, and empty the table.
+	 * @return the open scan of the temporary table
+	 */
+	private UpdateScan spillHashTable() {
+		inMemory = false;
+		buildParts[0] = new TempTable(tx, sch1);
+		UpdateScan dest = buildParts[0].open();
+		for (int row = 0; row < hashTable.size(); row++) {
+			dest.insert();
+			for (String fieldName : sch1.fields())
+				dest.setVal(fieldName, hashTable.getVal(row, fieldName));
 		}
-		
-		return true;
+		hashTable.clear(0);
+		return dest;
+	}
 
+	/**
+	 * Finish the partition pair being joined, and start
+	 * joining the next pair of spilled partitions, if any.
+	 */
+	private void nextPartition() {
+		for (int p = numPartitions - 1; p >= 0; p--)
+			if (probeParts[p] != null)
+				pending.push(new Partition(buildParts[p], probeParts[p], buildCounts[p], level + 1));
+		closePartition();
+		if (pending.isEmpty())
+			return;
+		Partition next = pending.pop();
+		int blocks = (next.buildRecords + recordsPerBlock - 1) / recordsPerBlock;
+		int k = (next.level >= MAX_LEVELS) ? 1 : partitions(blocks, available);
+		Scan src = next.build.open();
+		build(src, next.level, k);
+		src.close();
+		probe = next.probe.open();
 	}
-}
 
+	/**
+	 * Close the scans of the partition pair being joined.
+	 * The underlying RHS scan is left open.
+	 */
+	private void closePartition() {
+		curRow = -1;
+		if (probeScans != null)
+			for (UpdateScan s : probeScans)
+				if (s != null)
+					s.close();
+		probeScans = null;
+		if (probe != null && probe != s2)
+			probe.close();
+		probe = null;
+	}
+
+	/**
+	 * Return the partition of a join value having the specified hash code.
+	 * The hash code is mixed with the level, so that a partition
+	 * is split by a different function than the one that formed it.
+	 */
+	private int partition(int hash) {
+		int h = (hash + level) * 0x9E3779B9;
+		return Math.floorMod(h ^ (h >>> 16), numPartitions);
+	}
+
+	private void copy(Scan src, UpdateScan dest, Schema sch) {
+		dest.insert();
+		for (String fldname : sch.fields())
+			dest.setVal(fldname, src.getVal(fldname));
+	}
+
+	/**
+	 * A pair of spilled partitions that remains to be joined.
+	 */
+	private static class Partition {
+		TempTable build, probe;
+		int buildRecords, level;
+
+		Partition(TempTable build, TempTable probe, int buildRecords, int level) {
+			this.build = build;
+			this.probe = probe;
+			this.buildRecords = buildRecords;
+			this.level = level;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package simpledb.materialize;
+
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.query.*;
+import simpledb.record.*;
+
+/**
+ * Joins two tables with a hash join whose LHS is much larger
+ * than memory, so that its partitions are spilled and some of
+ * them partitioned again, and checks every joined record.
+ * The LHS also holds many records with a single join value,
+ * whose partition can never be made small enough.
+ * Half of the RHS records match no LHS record, and are mostly
+ * discarded by the filter that the join pushes into the RHS scan.
+ */
+public class HashJoinTest {
+   private static final int NUMRECS1 = 6000;
+   private static final int NUMRECS2 = 6000;
+   private static final int SKEWED = 500;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("hashjointest", 400, 12);
+      Transaction tx = db.newTx();
+      Schema sch1 = new Schema();
+      sch1.addIntField("A");
+      sch1.addStringField("B", 9);
+      Layout layout1 = new Layout(sch1);
+      Schema sch2 = new Schema();
+      sch2.addIntField("C");
+      sch2.addStringField("D", 9);
+      Layout layout2 = new Layout(sch2);
+
+      // LHS: A = i/2 for most records, so that each join value
+      // matches two of them, plus SKEWED records with A = 0
+      TableScan ts = new TableScan(tx, "T1", layout1);
+      for (int i=0; i<NUMRECS1; i++) {
+         ts.insert();
+         ts.setInt("A", i < SKEWED ? 0 : i/2);
+         ts.setString("B", "b" + i);
+      }
+      ts.close();
+      ts = new TableScan(tx, "T2", layout2);
+      for (int i=0; i<NUMRECS2; i++) {
+         ts.insert();
+         ts.setInt("C", i);
+         ts.setString("D", "d" + i);
+      }
+      ts.close();
+      tx.commit();
+
+      tx = db.newTx();
+      Scan s1 = new TableScan(tx, "T1", layout1);
+      Scan s2 = new TableScan(tx, "T2", layout2);
+      int blocks = tx.size("T1.tbl");
+      int partitions = HashJoinScan.partitions(blocks, tx.availableBuffs());
+      long start = System.nanoTime();
+      Scan s = new HashJoinScan(tx, s1, "A", sch1, s2, "C", sch2, partitions);
+      int count = 0;
+      while (s.next()) {
+         int a = s.getInt("A");
+         int i = Integer.parseInt(s.getString("B").substring(1));
+         if (a != s.getInt("C") || !s.getString("D").equals("d" + a)
+               || a != (i < SKEWED ? 0 : i/2))
+            throw new RuntimeException("wrong joined record " + a + " " + s.getString("B"));
+         count++;
+      }
+      long elapsed = System.nanoTime() - start;
+      s.close();
+      tx.commit();
+
+      int expected = SKEWED;
+      for (int i=SKEWED; i<NUMRECS1; i++)
+         if (i/2 < NUMRECS2)
+            expected++;
+      if (count != expected)
+         throw new RuntimeException(count + " joined records instead of " + expected);
+      System.out.println(String.format("%d blocks in %d partitions: %d joined records, %.1f ms",
+            blocks, partitions, count, elapsed / 1e6));
+   }
+}
@@ -0,0 +1,231 @@
+package simpledb.materialize;
+
+import static java.sql.Types.INTEGER;
+import java.util.*;
+import simpledb.file.Page;
+import simpledb.query.*;
+import simpledb.record.*;
+
+/**
+ * The hash table that holds the LHS records of a hash join.
+ * The records are packed into pages outside the Java heap,
+ * laid out as in a table of the LHS schema, so that a record
+ * takes the size of its slot rather than a map of constants.
+ * Records are numbered in the order they are inserted.
+ * The table is indexed by open addressing on the hash code of
+ * the join value. Each index entry holds the last record inserted
+ * with its join value, and the flag of each record holds the
+ * previous record having the same join value.
+ * The table holds at most a given number of records; an insertion
+ * beyond it fails, so that the caller can spill the records.
+ */
+public class JoinHashTable {
+	private Layout layout;
+	private String keyfld;
+	private boolean intKey;
+	private int keyoffset, slotsize, recordsPerPage;
+	private List<Page> pages = new ArrayList<>();
+	private int size, keys, capacity;
+	private int[] heads, hashes;
+	private static final int PAGE_SIZE = 64 * 1024;
+	private static final int INITIAL_INDEX_SIZE = 1024;
+
+	/**
+	 * Create an empty hash table for records of the specified schema.
+	 * @param sch the schema of the records
+	 * @param keyfld the join field
+	 */
+	public JoinHashTable(Schema sch, String keyfld) {
+		this.layout = new Layout(sch);
+		this.keyfld = keyfld;
+		this.intKey = sch.type(keyfld) == INTEGER;
+		this.keyoffset = layout.offset(keyfld);
+		this.slotsize = layout.slotSize();
+		this.recordsPerPage = Math.max(1, PAGE_SIZE / slotsize);
+		clear(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Remove every record from the table, and set the number
+	 * of records that it may hold. The pages are kept for reuse.
+	 * @param capacity the maximum number of records
+	 */
+	public void clear(int capacity) {
+		this.capacity = capacity;
+		size = 0;
+		keys = 0;
+		if (heads == null || heads.length > INITIAL_INDEX_SIZE) {
+			heads = new int[INITIAL_INDEX_SIZE];
+			hashes = new int[INITIAL_INDEX_SIZE];
+		}
+		Arrays.fill(heads, -1);
+	}
+
+	/**
+	 * Copy the current record of the scan into the table.
+	 * @param src a scan having the fields of the table's schema
+	 * @return false if the table is full, in which case nothing is copied
+	 */
+	public boolean insert(Scan src) {
+		if (size >= capacity)
+			return false;
+		int row = size;
+		if (row / recordsPerPage == pages.size())
+			pages.add(new Page(recordsPerPage * slotsize));
+		Page p = page(row);
+		int pos = position(row);
+		for (String fldname : layout.schema().fields()) {
+			int offset = pos + layout.offset(fldname);
+			if (layout.schema().type(fldname) == INTEGER)
+				p.setInt(offset, src.getInt(fldname));
+			else
+				p.setString(offset, src.getString(fldname));
+		}
+		size++;
+
+		int hash = src.hashVal(keyfld);
+		int slot = find(hash, p, pos + keyoffset);
+		if (heads[slot] < 0) {
+			hashes[slot] = hash;
+			keys++;
+		}
+		p.setInt(pos, heads[slot]); // the previous record having the join value
+		heads[slot] = row;
+		if (2 * keys > heads.length)
+			grow();
+		return true;
+	}
+
+	/**
+	 * Return the last inserted record whose join value equals
+	 * the value of the specified field in the current record of the scan.
+	 * @param probe the scan
+	 * @param fldname the join field of the scan
+	 * @return the number of the record, or -1 if there is none
+	 */
+	public int find(Scan probe, String fldname) {
+		int hash = probe.hashVal(fldname);
+		int mask = heads.length - 1;
+		int ival = 0;
+		String sval = null;
+		boolean read = false;
+		for (int slot = spread(hash) & mask; heads[slot] >= 0; slot = (slot + 1) & mask) {
+			if (hashes[slot] != hash)
+				continue;
+			int row = heads[slot];
+			if (!read) {
+				if (intKey)
+					ival = probe.getInt(fldname);
+				else
+					sval = probe.getString(fldname);
+				read = true;
+			}
+			int offset = position(row) + keyoffset;
+			if (intKey ? page(row).getInt(offset) == ival : page(row).compareString(offset, sval) == 0)
+				return row;
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the record inserted before the specified one
+	 * having the same join value.
+	 * @param row the number of a record
+	 * @return the number of the previous record, or -1 if there is none
+	 */
+	public int nextMatch(int row) {
+		return page(row).getInt(position(row));
+	}
+
+	/**
+	 * Return the number of records in the table.
+	 * @return the number of records
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return the number of bytes that the table occupies,
+	 * both in its pages and in its index.
+	 * @return the size of the table in bytes
+	 */
+	public long bytes() {
+		return (long) pages.size() * recordsPerPage * slotsize + 2L * Integer.BYTES * heads.length;
+	}
+
+	public int getInt(int row, String fldname) {
+		return page(row).getInt(position(row) + layout.offset(fldname));
+	}
+
+	public String getString(int row, String fldname) {
+		return page(row).getString(position(row) + layout.offset(fldname));
+	}
+
+	public Constant getVal(int row, String fldname) {
+		if (layout.schema().type(fldname) == INTEGER)
+			return new Constant(getInt(row, fldname));
+		else
+			return new Constant(getString(row, fldname));
+	}
+
+	/**
+	 * Return the index slot that holds the join value stored at
+	 * the specified offset of the page, or the empty slot where
+	 * it belongs.
+	 */
+	private int find(int hash, Page p, int offset) {
+		int mask = heads.length - 1;
+		int slot = spread(hash) & mask;
+		while (heads[slot] >= 0) {
+			if (hashes[slot] == hash && sameKey(heads[slot], p, offset))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean sameKey(int row, Page p, int offset) {
+		int rowoffset = position(row) + keyoffset;
+		if (intKey)
+			return page(row).getInt(rowoffset) == p.getInt(offset);
+		else
+			return page(row).compareString(rowoffset, p.getString(offset)) == 0;
+	}
+
+	/**
+	 * Double the size of the index, and reinsert its entries.
+	 */
+	private void grow() {
+		int[] oldheads = heads;
+		int[] oldhashes = hashes;
+		heads = new int[2 * oldheads.length];
+		hashes = new int[heads.length];
+		Arrays.fill(heads, -1);
+		int mask = heads.length - 1;
+		for (int i = 0; i < oldheads.length; i++) {
+			if (oldheads[i] < 0)
+				continue;
+			int slot = spread(oldhashes[i]) & mask;
+			while (heads[slot] >= 0)
+				slot = (slot + 1) & mask;
+			heads[slot] = oldheads[i];
+			hashes[slot] = oldhashes[i];
+		}
+	}
+
+	// the hash codes of integers are the integers themselves,
+	// so their bits are mixed before they select a slot
+	private static int spread(int hash) {
+		int h = hash * 0x85EBCA6B;
+		return h ^ (h >>> 15);
+	}
+
+	private Page page(int row) {
+		return pages.get(row / recordsPerPage);
+	}
+
+	private int position(int row) {
+		return (row % recordsPerPage) * slotsize;
+	}
+}
@@ -0,0 +1,110 @@
+package simpledb.materialize;
+
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.query.*;
+import simpledb.record.*;
+
+/**
+ * Compares the join hash table with the structure that the hash join
+ * used before it: a map from each join value to a list of records,
+ * each record being a map from field name to value.
+ * It reports the bytes taken per record and the probes per second
+ * of each, and checks that both find the same matches.
+ */
+public class JoinHashTableTest {
+   private static final int NUMRECS = 200000;
+   private static final int PROBES = 1000000;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("joinhashtabletest", 400, 8);
+      Transaction tx = db.newTx();
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 9);
+      sch.addIntField("C");
+      Layout layout = new Layout(sch);
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int i=0; i<NUMRECS; i++) {
+         ts.insert();
+         ts.setInt("A", i / 2);
+         ts.setString("B", "rec" + i);
+         ts.setInt("C", i);
+      }
+
+      // the structure that the hash join used before
+      long before = usedHeap();
+      Map<Constant, List<Map<String, Constant>>> maps = new HashMap<>();
+      ts.beforeFirst();
+      while (ts.next()) {
+         Map<String, Constant> record = new HashMap<>();
+         for (String fldname : sch.fields())
+            record.put(fldname, ts.getVal(fldname));
+         maps.computeIfAbsent(ts.getVal("A"), k -> new ArrayList<>()).add(record);
+      }
+      long mapBytes = usedHeap() - before;
+
+      before = usedHeap();
+      JoinHashTable table = new JoinHashTable(sch, "A");
+      ts.beforeFirst();
+      while (ts.next())
+         table.insert(ts);
+      long tableBytes = table.bytes() + (usedHeap() - before);
+      System.out.println(String.format("bytes per record: %.1f for maps, %.1f for the join hash table",
+            (double) mapBytes / NUMRECS, (double) tableBytes / NUMRECS));
+
+      // probe both with the same keys, half of which match
+      ProbeScan probe = new ProbeScan();
+      Random rand = new Random(1);
+      int[] keys = new int[PROBES];
+      for (int i=0; i<PROBES; i++)
+         keys[i] = rand.nextInt(NUMRECS);
+      for (int round=0; round<3; round++) {
+         long start = System.nanoTime();
+         long sum1 = 0;
+         for (int key : keys) {
+            List<Map<String, Constant>> matches = maps.get(new Constant(key));
+            if (matches != null)
+               for (Map<String, Constant> record : matches)
+                  sum1 += record.get("C").asInt();
+         }
+         long mapTime = System.nanoTime() - start;
+         start = System.nanoTime();
+         long sum2 = 0;
+         for (int key : keys) {
+            probe.key = key;
+            for (int row = table.find(probe, "K"); row >= 0; row = table.nextMatch(row))
+               sum2 += table.getInt(row, "C");
+         }
+         long tableTime = System.nanoTime() - start;
+         if (sum1 != sum2)
+            throw new RuntimeException("the tables found different matches");
+         System.out.println(String.format("probes/sec: %,12.0f for maps, %,12.0f for the join hash table",
+               PROBES * 1e9 / mapTime, PROBES * 1e9 / tableTime));
+      }
+      ts.close();
+      tx.commit();
+   }
+
+   private static long usedHeap() throws InterruptedException {
+      Runtime rt = Runtime.getRuntime();
+      for (int i=0; i<3; i++) {
+         System.gc();
+         Thread.sleep(50);
+      }
+      return rt.totalMemory() - rt.freeMemory();
+   }
+
+   // a scan of a single record, whose field K holds the probe key
+   private static class ProbeScan implements Scan {
+      int key;
+      public void beforeFirst() {}
+      public boolean next() { return false; }
+      public int getInt(String fldname) { return key; }
+      public String getString(String fldname) { return null; }
+      public Constant getVal(String fldname) { return new Constant(key); }
+      public boolean hasField(String fldname) { return fldname.equals("K"); }
+      public void close() {}
+   }
+}
@@ -12,6 +12,8 @@ import simpledb.query.*;
 public class MaterializePlan implements Plan {
 	private Plan srcplan;
 	private Transaction tx;
+	private String filterfld;
+	private BloomFilter filter;
 
 	/**
 	 * Create a materialize plan for the specified query.
@@ -26,6 +28,7 @@ public class MaterializePlan implements Plan {
 	/**
 	 * This method loops through the underlying query,
 	 * copying its output records into a temporary table.
+	 * Records rejected by a registered filter are not copied.
 	 * It then returns a table scan for that table.
 	 * @see simpledb.plan.Plan#open()
 	 */
@@ -35,6 +38,8 @@ public class MaterializePlan implements Plan {
 		Scan src = srcplan.open();
 		UpdateScan dest = temp.open();
 		while (src.next()) {
+			if (filter != null && !filter.mightContain(src.hashVal(filterfld)))
+				continue;
 			dest.insert();
 			for (String fldname : sch.fields())
 				dest.setVal(fldname, src.getVal(fldname));
@@ -85,6 +90,22 @@ public class MaterializePlan implements Plan {
 		return srcplan.schema();
 	}
 
+	/**
+	 * Registers the filter with the underlying query if it
+	 * can apply it, and otherwise applies it while copying,
+	 * so that rejected records are never materialized.
+	 * @see simpledb.plan.Plan#setFilter(java.lang.String, simpledb.query.BloomFilter)
+	 */
+	public boolean setFilter(String fldname, BloomFilter filter) {
+		if (!srcplan.schema().hasField(fldname))
+			return false;
+		if (!srcplan.setFilter(fldname, filter)) {
+			filterfld = fldname;
+			this.filter = filter;
+		}
+		return true;
+	}
+
 	public String toString() {
 		return String.format("materialize(%s)", srcplan.toString());
 	}
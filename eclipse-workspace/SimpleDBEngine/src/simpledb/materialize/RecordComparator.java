@@ -1,6 +1,7 @@
 package simpledb.materialize;
 
 import java.util.*;
+import java.util.function.Function;
 
 import simpledb.query.*;
 
@@ -45,11 +46,23 @@ public class RecordComparator implements Comparator<Scan> {
 	 * @return the result of comparing each scan's current record according to the field list
 	 */
 	public int compare(Scan s1, Scan s2) {
+		return compare(s1::getVal, s2::getVal);
+	}
+
+	/**
+	 * Compare two records, as the scan comparison does,
+	 * given functions that return each record's field values.
+	 * This allows records held in memory to be compared.
+	 * @param vals1 the field values of the first record
+	 * @param vals2 the field values of the second record
+	 * @return the result of comparing the records according to the field list
+	 */
+	int compare(Function<String, Constant> vals1, Function<String, Constant> vals2) {
 		// Lab 6
 		if (fields != null) {
 			for (String fldname : fields) {
-				Constant val1 = s1.getVal(fldname);
-				Constant val2 = s2.getVal(fldname);
+				Constant val1 = vals1.apply(fldname);
+				Constant val2 = vals2.apply(fldname);
 				int result = val1.compareTo(val2);
 				if (result != 0)
 					return result;
@@ -59,8 +72,8 @@ public class RecordComparator implements Comparator<Scan> {
 		// Lab 3: Order By
 		for(Map.Entry<String, Integer> entry: sortFields.entrySet()) {
 			// Value 1 = Ascending, -1 = Descending
-			Constant val1 = s1.getVal(entry.getKey());
-			Constant val2 = s2.getVal(entry.getKey());
+			Constant val1 = vals1.apply(entry.getKey());
+			Constant val2 = vals2.apply(entry.getKey());
 			int result = val1.compareTo(val2);
 			if (result != 0)
 				return result * entry.getValue();
@@ -48,20 +48,32 @@ public class SortPlan implements Plan {
 
 	/**
 	 * This method is where most of the action is.
-	 * Up to 2 sorted temporary tables are created,
-	 * and are passed into SortScan for final merging.
+	 * Runs are created by replacement selection, and merged
+	 * as many at a time as there are buffers for, until few enough
+	 * remain to be passed into SortScan for final merging.
 	 * @see simpledb.plan.Plan#open()
 	 */
 	public Scan open() {
 		Scan src = p.open();
 		List<TempTable> runs = splitIntoRuns(src);
 		src.close();
-		// Lab 4: Change to 1 sorted run.
-		while (runs.size() > 1)
-			runs = doAMergeIteration(runs);
+		int fanin = fanIn(tx.availableBuffs());
+		while (runs.size() > fanin)
+			runs = doAMergeIteration(runs, fanin);
 		return new SortScan(runs, comp);
 	}
 
+	/**
+	 * Return the number of runs that are merged at a time.
+	 * Each run needs a buffer, which leaves a buffer for
+	 * the merged output and another spare.
+	 * @param available the number of available buffers
+	 * @return the number of runs merged at a time
+	 */
+	static int fanIn(int available) {
+		return Math.max(2, available - 2);
+	}
+
 	/**
 	 * Return the number of blocks in the sorted table,
 	 * which is the same as it would be in a
@@ -104,60 +116,92 @@ public class SortPlan implements Plan {
 		return sch;
 	}
 
+	/**
+	 * Split the records into sorted runs by replacement selection.
+	 * A heap holds as many records as fit in the available buffers.
+	 * The lowest record is moved to the current run, and replaced
+	 * by the next input record. A record lower than the one just
+	 * written must wait for the next run. Runs are thus about twice
+	 * the size of memory, and an input that is already sorted
+	 * forms a single run.
+	 */
 	private List<TempTable> splitIntoRuns(Scan src) {
 		List<TempTable> temps = new ArrayList<>();
+		Map<String, Integer> positions = new HashMap<>();
+		for (String fldname : sch.fields())
+			positions.put(fldname, positions.size());
+		int memory = Math.max(1, tx.availableBuffs() - 2); // 1 for input, 1 for output.
+		int capacity = memory * Math.max(1, tx.blockSize() / new Layout(sch).slotSize());
+		PriorityQueue<HeapRecord> heap = new PriorityQueue<>(capacity, (r1, r2) ->
+				(r1.run != r2.run) ? Integer.compare(r1.run, r2.run) : comp.compare(r1::getVal, r2::getVal));
+
 		src.beforeFirst();
-		if (!src.next())
-			return temps;
-		TempTable currenttemp = new TempTable(tx, sch);
-		temps.add(currenttemp);
-		UpdateScan currentscan = currenttemp.open();
-		while (copy(src, currentscan))
-			if (comp.compare(src, currentscan) < 0) {
+		boolean hasmore = src.next();
+		while (hasmore && heap.size() < capacity) {
+			heap.add(new HeapRecord(0, src, positions));
+			hasmore = src.next();
+		}
+		UpdateScan currentscan = null;
+		int currentrun = -1;
+		while (!heap.isEmpty()) {
+			HeapRecord rec = heap.poll();
+			if (rec.run != currentrun) {
 				// start a new run
-				currentscan.close();
-				currenttemp = new TempTable(tx, sch);
+				if (currentscan != null)
+					currentscan.close();
+				TempTable currenttemp = new TempTable(tx, sch);
 				temps.add(currenttemp);
-				currentscan = (UpdateScan) currenttemp.open();
+				currentscan = currenttemp.open();
+				currentrun = rec.run;
+			}
+			currentscan.insert();
+			for (String fldname : sch.fields())
+				currentscan.setVal(fldname, rec.getVal(fldname));
+			if (hasmore) {
+				int run = (comp.compare(src::getVal, rec::getVal) < 0) ? rec.run + 1 : rec.run;
+				heap.add(new HeapRecord(run, src, positions));
+				hasmore = src.next();
 			}
-		currentscan.close();
+		}
+		if (currentscan != null)
+			currentscan.close();
 		return temps;
 	}
 
-	private List<TempTable> doAMergeIteration(List<TempTable> runs) {
+	private List<TempTable> doAMergeIteration(List<TempTable> runs, int fanin) {
 		List<TempTable> result = new ArrayList<>();
-		while (runs.size() > 1) {
-			TempTable p1 = runs.remove(0);
-			TempTable p2 = runs.remove(0);
-			result.add(mergeTwoRuns(p1, p2));
+		for (int i = 0; i < runs.size(); i += fanin) {
+			List<TempTable> group = runs.subList(i, Math.min(i + fanin, runs.size()));
+			if (group.size() == 1)
+				result.add(group.get(0));
+			else
+				result.add(mergeRuns(group));
 		}
-		if (runs.size() == 1)
-			result.add(runs.get(0));
 		return result;
 	}
 
-	private TempTable mergeTwoRuns(TempTable p1, TempTable p2) {
-		Scan src1 = p1.open();
-		Scan src2 = p2.open();
+	/**
+	 * Merge the runs into one, by repeatedly copying the
+	 * record of whichever run scan is lowest in a heap.
+	 */
+	private TempTable mergeRuns(List<TempTable> runs) {
+		PriorityQueue<Scan> heap = new PriorityQueue<>(runs.size(), comp);
+		List<Scan> srcs = new ArrayList<>();
+		for (TempTable run : runs) {
+			Scan src = run.open();
+			srcs.add(src);
+			if (src.next())
+				heap.add(src);
+		}
 		TempTable result = new TempTable(tx, sch);
 		UpdateScan dest = result.open();
-
-		boolean hasmore1 = src1.next();
-		boolean hasmore2 = src2.next();
-		while (hasmore1 && hasmore2)
-			if (comp.compare(src1, src2) < 0)
-				hasmore1 = copy(src1, dest);
-			else
-				hasmore2 = copy(src2, dest);
-
-		if (hasmore1)
-			while (hasmore1)
-				hasmore1 = copy(src1, dest);
-		else
-			while (hasmore2)
-				hasmore2 = copy(src2, dest);
-		src1.close();
-		src2.close();
+		while (!heap.isEmpty()) {
+			Scan src = heap.poll();
+			if (copy(src, dest))
+				heap.add(src);
+		}
+		for (Scan src : srcs)
+			src.close();
 		dest.close();
 		return result;
 	}
@@ -169,6 +213,28 @@ public class SortPlan implements Plan {
 		return src.next();
 	}
 
+	/**
+	 * A record held in memory while the runs are created,
+	 * together with the number of the run that it belongs to.
+	 */
+	private static class HeapRecord {
+		int run;
+		Constant[] vals;
+		Map<String, Integer> positions;
+
+		HeapRecord(int run, Scan src, Map<String, Integer> positions) {
+			this.run = run;
+			this.positions = positions;
+			vals = new Constant[positions.size()];
+			for (Map.Entry<String, Integer> e : positions.entrySet())
+				vals[e.getValue()] = src.getVal(e.getKey());
+		}
+
+		Constant getVal(String fldname) {
+			return vals[positions.get(fldname)];
+		}
+	}
+
 	// Lab 6: Query Plan
 	public String toString() {
 		if(sortFields == null) {
@@ -14,26 +14,24 @@ import simpledb.record.*;
  *
  */
 public class SortScan implements Scan {
-   private UpdateScan s1, s2=null, currentscan=null;
-   private RecordComparator comp;
-   private boolean hasmore1, hasmore2=false;
+   private List<UpdateScan> scans = new ArrayList<>();
+   private UpdateScan currentscan=null;
+   private PriorityQueue<UpdateScan> heap;
    private List<RID> savedposition;
+   private UpdateScan savedscan;
    
    /**
-    * Create a sort scan, given a list of 1 or 2 runs.
-    * If there is only 1 run, then s2 will be null and
-    * hasmore2 will be false.
+    * Create a sort scan, given a list of runs.
+    * The scans of the runs that have records are kept in
+    * a heap, ordered by their current records.
     * @param runs the list of runs
     * @param comp the record comparator
     */
    public SortScan(List<TempTable> runs, RecordComparator comp) {
-      this.comp = comp;
-      s1 = (UpdateScan) runs.get(0).open();
-      hasmore1 = s1.next();
-      if (runs.size() > 1) {
-         s2 = (UpdateScan) runs.get(1).open();
-         hasmore2 = s2.next();
-      }
+      heap = new PriorityQueue<>(Math.max(1, runs.size()), comp);
+      for (TempTable run : runs)
+         scans.add(run.open());
+      beforeFirst();
    }
    
    /**
@@ -45,52 +43,36 @@ public class SortScan implements Scan {
     */
    public void beforeFirst() {
       currentscan = null;
-      s1.beforeFirst();
-      hasmore1 = s1.next();
-      if (s2 != null) {
-         s2.beforeFirst();
-         hasmore2 = s2.next();
+      heap.clear();
+      for (UpdateScan s : scans) {
+         s.beforeFirst();
+         if (s.next())
+            heap.add(s);
       }
    }
    
    /**
     * Move to the next record in sorted order.
-    * First, the current scan is moved to the next record.
-    * Then the lowest record of the two scans is found, and that
-    * scan is chosen to be the new current scan.
+    * First, the current scan is moved to the next record,
+    * and is returned to the heap if it has one.
+    * Then the scan with the lowest record is taken from the heap,
+    * and is chosen to be the new current scan.
     * @see simpledb.query.Scan#next()
     */
    public boolean next() {
-      if (currentscan != null) {
-         if (currentscan == s1)
-            hasmore1 = s1.next();
-         else if (currentscan == s2)
-            hasmore2 = s2.next();
-      }
-      
-      if (!hasmore1 && !hasmore2)
-         return false;
-      else if (hasmore1 && hasmore2) {
-         if (comp.compare(s1, s2) < 0)
-            currentscan = s1;
-         else
-            currentscan = s2;
-      }
-      else if (hasmore1)
-         currentscan = s1;
-      else if (hasmore2)
-         currentscan = s2;
-      return true;
+      if (currentscan != null && currentscan.next())
+         heap.add(currentscan);
+      currentscan = heap.poll();
+      return currentscan != null;
    }
    
    /**
-    * Close the two underlying scans.
+    * Close the underlying scans.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
-      s1.close();
-      if (s2 != null)
-         s2.close();
+      for (UpdateScan s : scans)
+         s.close();
    }
    
    /**
@@ -131,21 +113,30 @@ public class SortScan implements Scan {
    /**
     * Save the position of the current record,
     * so that it can be restored at a later time.
+    * The position of each scan that still has a record
+    * is saved; the others remain at their end.
     */
    public void savePosition() {
-      RID rid1 = s1.getRid();
-      RID rid2 = (s2 == null) ? null : s2.getRid();
-      savedposition = Arrays.asList(rid1,rid2);
+      savedposition = new ArrayList<>();
+      for (UpdateScan s : scans)
+         savedposition.add((s == currentscan || heap.contains(s)) ? s.getRid() : null);
+      savedscan = currentscan;
    }
    
    /**
     * Move the scan to its previously-saved position.
     */
    public void restorePosition() {
-      RID rid1 = savedposition.get(0);
-      RID rid2 = savedposition.get(1);
-      s1.moveToRid(rid1);
-      if (rid2 != null)
-         s2.moveToRid(rid2);
+      heap.clear();
+      for (int i=0; i<scans.size(); i++) {
+         UpdateScan s = scans.get(i);
+         RID rid = savedposition.get(i);
+         if (rid == null)
+            continue;
+         s.moveToRid(rid);
+         if (s != savedscan)
+            heap.add(s);
+      }
+      currentscan = savedscan;
    }
 }
@@ -0,0 +1,65 @@
+package simpledb.materialize;
+
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.metadata.MetadataMgr;
+import simpledb.plan.*;
+import simpledb.query.*;
+import simpledb.record.*;
+
+/**
+ * Measures the time to sort tables of several sizes
+ * with several numbers of buffers, and checks that
+ * each sort returns every record in order.
+ */
+public class SortTest {
+   private static final int[] SIZES = {5000, 20000, 80000};
+   private static final int[] BUFFERS = {8, 32, 128};
+
+   public static void main(String[] args) throws Exception {
+      for (int numbuffs : BUFFERS) {
+         SimpleDB db = new SimpleDB("sorttest" + numbuffs, 400, numbuffs);
+         Transaction tx = db.newTx();
+         MetadataMgr mdm = new MetadataMgr(true, tx);
+         for (int size : SIZES) {
+            String tblname = "t" + size;
+            Schema sch = new Schema();
+            sch.addIntField("A");
+            sch.addStringField("B", 9);
+            mdm.createTable(tblname, sch, tx);
+            TableScan ts = new TableScan(tx, tblname, mdm.getLayout(tblname, tx));
+            Random rand = new Random(size);
+            for (int i=0; i<size; i++) {
+               ts.insert();
+               ts.setInt("A", rand.nextInt(size));
+               ts.setString("B", "rec" + i);
+            }
+            ts.close();
+
+            Plan p = new SortPlan(tx, new TablePlan(tx, tblname, mdm), Arrays.asList("A", "B"));
+            long start = System.nanoTime();
+            Scan s = p.open();
+            int count = 0;
+            int preva = -1;
+            String prevb = "";
+            while (s.next()) {
+               int a = s.getInt("A");
+               String b = s.getString("B");
+               if (a < preva || (a == preva && b.compareTo(prevb) < 0))
+                  throw new RuntimeException("record " + count + " is out of order");
+               preva = a;
+               prevb = b;
+               count++;
+            }
+            long elapsed = System.nanoTime() - start;
+            s.close();
+            if (count != size)
+               throw new RuntimeException(count + " sorted records instead of " + size);
+            System.out.println(String.format("%3d buffers, %6d records: %8.1f ms",
+                  numbuffs, size, elapsed / 1e6));
+         }
+         tx.commit();
+      }
+   }
+}
@@ -0,0 +1,141 @@
+package simpledb.materialize;
+
+import java.util.*;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.plan.*;
+import simpledb.query.*;
+
+/**
+ * The Plan class for the <i>top-N</i> operator, which
+ * sorts its input but returns only the records within
+ * the limit and offset of the query.
+ * If those records fit in memory, a single pass over the input
+ * keeps them in a bounded heap, and nothing is written to disk.
+ * Otherwise the input is sorted by SortPlan, and the scan
+ * stops after the last record that is needed.
+ */
+public class TopNPlan implements Plan {
+	private Transaction tx;
+	private Plan p;
+	private LinkedHashMap<String, Integer> sortFields;
+	private RecordComparator comp;
+	private int limit, offset;
+
+	/**
+	 * Create a top-N plan for the specified query.
+	 * @param tx the calling transaction
+	 * @param p the plan for the underlying query
+	 * @param sortFields the fields to sort by, each with 1 for ascending or -1 for descending
+	 * @param limit the maximum number of records
+	 * @param offset the number of leading records to skip
+	 */
+	public TopNPlan(Transaction tx, Plan p, LinkedHashMap<String, Integer> sortFields, int limit, int offset) {
+		this.tx = tx;
+		this.p = p;
+		this.sortFields = sortFields;
+		this.limit = limit;
+		this.offset = offset;
+		comp = new RecordComparator(sortFields);
+	}
+
+	/**
+	 * Keep the lowest records of the input in a heap whose
+	 * top is the highest of them. An input record replaces the top
+	 * only if it is lower, so most records are compared once
+	 * and never copied. The kept records are then sorted, and
+	 * those after the offset are returned by a TopNScan.
+	 * @see simpledb.plan.Plan#open()
+	 */
+	public Scan open() {
+		int n = needed();
+		if (n > capacity(tx.availableBuffs()))
+			return new LimitScan(new SortPlan(tx, p, sortFields).open(), limit, offset);
+
+		Map<String, Integer> positions = new HashMap<>();
+		for (String fldname : p.schema().fields())
+			positions.put(fldname, positions.size());
+		Comparator<Constant[]> order = (r1, r2) ->
+				comp.compare(fld -> r1[positions.get(fld)], fld -> r2[positions.get(fld)]);
+		PriorityQueue<Constant[]> heap = new PriorityQueue<>(Math.max(1, n), order.reversed());
+		Scan src = p.open();
+		while (n > 0 && src.next()) {
+			if (heap.size() == n) {
+				Constant[] top = heap.peek();
+				if (comp.compare(src::getVal, fld -> top[positions.get(fld)]) >= 0)
+					continue;
+				heap.poll();
+			}
+			Constant[] rec = new Constant[positions.size()];
+			for (Map.Entry<String, Integer> e : positions.entrySet())
+				rec[e.getValue()] = src.getVal(e.getKey());
+			heap.add(rec);
+		}
+		src.close();
+		List<Constant[]> records = new ArrayList<>(heap);
+		records.sort(order);
+		return new TopNScan(records.subList(Math.min(offset, records.size()), records.size()), positions);
+	}
+
+	/**
+	 * Return the number of block accesses of the top-N.
+	 * If the needed records fit in memory, it is the cost of
+	 * reading the input once; otherwise it is that of the sort.
+	 * @see simpledb.plan.Plan#blocksAccessed()
+	 */
+	public int blocksAccessed() {
+		if (needed() > capacity(tx.availableBuffs()))
+			return new SortPlan(tx, p, sortFields).blocksAccessed();
+		return p.blocksAccessed();
+	}
+
+	/**
+	 * Return the number of records in the output, which is
+	 * the number of input records after the offset,
+	 * but not more than the limit.
+	 * @see simpledb.plan.Plan#recordsOutput()
+	 */
+	public int recordsOutput() {
+		return LimitPlan.outputSize(p.recordsOutput(), limit, offset);
+	}
+
+	/**
+	 * Return the number of distinct field values,
+	 * which is as in the underlying query but not more
+	 * than the number of output records.
+	 * @see simpledb.plan.Plan#distinctValues(java.lang.String)
+	 */
+	public int distinctValues(String fldname) {
+		return Math.min(p.distinctValues(fldname), Math.max(1, recordsOutput()));
+	}
+
+	/**
+	 * Return the schema of the output, which
+	 * is the same as in the underlying query.
+	 * @see simpledb.plan.Plan#schema()
+	 */
+	public Schema schema() {
+		return p.schema();
+	}
+
+	/**
+	 * Return the number of records that the heap must hold,
+	 * which are those up to the limit after the offset.
+	 */
+	private int needed() {
+		return (int) Math.min(Integer.MAX_VALUE, (long) limit + offset);
+	}
+
+	/**
+	 * Return the number of records that fit in memory,
+	 * which leaves a buffer for the input and another spare.
+	 */
+	private int capacity(int available) {
+		int memory = Math.max(1, available - 2);
+		return memory * Math.max(1, tx.blockSize() / new Layout(p.schema()).slotSize());
+	}
+
+	public String toString() {
+		return String.format("(%s) top %d offset %d by %s", p.toString(), limit, offset, sortFields.toString());
+	}
+}
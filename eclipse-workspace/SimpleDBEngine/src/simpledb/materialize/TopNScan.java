@@ -0,0 +1,89 @@
+package simpledb.materialize;
+
+import java.util.*;
+import simpledb.query.*;
+
+/**
+ * The Scan class for the <i>top-N</i> operator,
+ * which returns the records that TopNPlan kept in memory,
+ * in sorted order.
+ */
+public class TopNScan implements Scan {
+   private List<Constant[]> records;
+   private Map<String, Integer> positions;
+   private int current = -1;
+
+   /**
+    * Create a scan of the specified sorted records.
+    * @param records the records, each an array of field values
+    * @param positions the position of each field in the arrays
+    */
+   public TopNScan(List<Constant[]> records, Map<String, Integer> positions) {
+      this.records = records;
+      this.positions = positions;
+   }
+
+   /**
+    * Position the scan before the first of the records.
+    * @see simpledb.query.Scan#beforeFirst()
+    */
+   public void beforeFirst() {
+      current = -1;
+   }
+
+   /**
+    * Move to the next record in sorted order.
+    * Return false, and stay after the last record,
+    * once there are no more records.
+    * @see simpledb.query.Scan#next()
+    */
+   public boolean next() {
+      if (current < records.size())
+         current++;
+      return current < records.size();
+   }
+
+   /**
+    * Return the integer value of the specified field
+    * of the current record.
+    * @see simpledb.query.Scan#getInt(java.lang.String)
+    */
+   public int getInt(String fldname) {
+      return getVal(fldname).asInt();
+   }
+
+   /**
+    * Return the string value of the specified field
+    * of the current record.
+    * @see simpledb.query.Scan#getString(java.lang.String)
+    */
+   public String getString(String fldname) {
+      return getVal(fldname).asString();
+   }
+
+   /**
+    * Return the value of the specified field
+    * of the current record, which is found in the
+    * record's array by the position of the field.
+    * @see simpledb.query.Scan#getVal(java.lang.String)
+    */
+   public Constant getVal(String fldname) {
+      return records.get(current)[positions.get(fldname)];
+   }
+
+   /**
+    * Return true if the records have the specified field.
+    * @see simpledb.query.Scan#hasField(java.lang.String)
+    */
+   public boolean hasField(String fldname) {
+      return positions.containsKey(fldname);
+   }
+
+   /**
+    * Close the scan, which has nothing to release,
+    * since its records are held in memory.
+    * @see simpledb.query.Scan#close()
+    */
+   public void close() {
+   }
+}
@@ -0,0 +1,72 @@
+package simpledb.materialize;
+
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.metadata.MetadataMgr;
+import simpledb.plan.*;
+import simpledb.query.*;
+import simpledb.record.*;
+
+/**
+ * Compares the time of a top-N with that of a full sort
+ * followed by a limit, for several limits and offsets,
+ * and checks that both return the same records.
+ * The two largest limits do not fit in memory, so the top-N
+ * falls back to the sort.
+ */
+public class TopNTest {
+   private static final int SIZE = 50000;
+   private static final int[][] LIMITS = {{10, 0}, {100, 50}, {1000, 0}, {30000, 100}};
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("topntest", 400, 16);
+      Transaction tx = db.newTx();
+      MetadataMgr mdm = new MetadataMgr(true, tx);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 9);
+      mdm.createTable("t", sch, tx);
+      TableScan ts = new TableScan(tx, "t", mdm.getLayout("t", tx));
+      Random rand = new Random(SIZE);
+      for (int i=0; i<SIZE; i++) {
+         ts.insert();
+         ts.setInt("A", rand.nextInt(SIZE));
+         ts.setString("B", "rec" + i);
+      }
+      ts.close();
+
+      LinkedHashMap<String, Integer> sortFields = new LinkedHashMap<>();
+      sortFields.put("A", -1);
+      sortFields.put("B", 1);
+      for (int[] lim : LIMITS) {
+         Plan tp = new TablePlan(tx, "t", mdm);
+         Plan sorted = new LimitPlan(new SortPlan(tx, tp, sortFields), lim[0], lim[1]);
+         Plan topn = new TopNPlan(tx, tp, sortFields, lim[0], lim[1]);
+
+         long start = System.nanoTime();
+         List<String> expected = read(sorted);
+         long sortTime = System.nanoTime() - start;
+         start = System.nanoTime();
+         List<String> actual = read(topn);
+         long topnTime = System.nanoTime() - start;
+
+         if (expected.size() != topn.recordsOutput())
+            throw new RuntimeException(expected.size() + " records instead of " + topn.recordsOutput());
+         if (!expected.equals(actual))
+            throw new RuntimeException("top " + lim[0] + " offset " + lim[1] + " differs from the sort");
+         System.out.println(String.format("limit %5d offset %3d: sort %8.1f ms, top-N %8.1f ms",
+               lim[0], lim[1], sortTime / 1e6, topnTime / 1e6));
+      }
+      tx.commit();
+   }
+
+   private static List<String> read(Plan p) {
+      List<String> result = new ArrayList<>();
+      Scan s = p.open();
+      while (s.next())
+         result.add(s.getInt("A") + " " + s.getString("B"));
+      s.close();
+      return result;
+   }
+}
@@ -33,9 +33,13 @@ public class ChunkScan implements Scan {
       this.layout = layout;
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
+      // read the whole chunk at once; each record page
+      // then pins its block again, so the batch pins are released
+      tx.pinBlocks(filename, startbnum, endbnum);
       for (int i=startbnum; i<=endbnum; i++) {
          BlockId blk = new BlockId(filename, i);
          buffs.add(new RecordPage(tx, blk, layout));
+         tx.unpin(blk);
       }
       moveToBlock(startbnum);
    }
@@ -98,6 +98,19 @@ public class MultibufferProductPlan implements Plan {
       return schema;
    }
 
+   /**
+    * Registers the filter with whichever underlying query
+    * has the field, so that its rejected records are neither
+    * materialized nor combined.
+    * @see simpledb.plan.Plan#setFilter(java.lang.String, simpledb.query.BloomFilter)
+    */
+   public boolean setFilter(String fldname, BloomFilter filter) {
+      if (lhs.schema().hasField(fldname))
+         return lhs.setFilter(fldname, filter);
+      else
+         return rhs.setFilter(fldname, filter);
+   }
+
    private TempTable copyRecordsFrom(Plan p) {
       Scan   src = p.open(); 
       Schema sch = p.schema();
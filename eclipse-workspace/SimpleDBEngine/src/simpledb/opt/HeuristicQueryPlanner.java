@@ -69,10 +69,18 @@ public class HeuristicQueryPlanner implements QueryPlanner {
 		/* Lab 3: Sort Plan 
 		 * Execute Plan if only order by
 		 * keyword is detected in query.
+		 * With a limit, only the records up to
+		 * the limit are kept, by a top-N plan.
 		 * */
-		if(!data.sortFields().isEmpty()) {    	  
+		boolean topN = !data.sortFields().isEmpty() && data.limit() >= 0;
+		if (topN)
+			currentplan = new TopNPlan(tx, currentplan, data.sortFields(), data.limit(), data.offset());
+		else if(!data.sortFields().isEmpty()) {    	  
 			currentplan = new SortPlan(tx, currentplan, data.sortFields());
 		}
+		if (!topN && (data.limit() >= 0 || data.offset() > 0)) {
+			currentplan = new LimitPlan(currentplan, data.limit(), data.offset());
+		}
 		
 		System.out.println(currentplan.toString());
 
@@ -244,7 +244,7 @@ public class Lexer {
                 "insert", "into", "values", "delete", "update", "set",
                 "create", "table", "int", "varchar", "view", "as", "index", "on", 
                 "using", "btree", "hash", "group", "by", "order", "by", "asc", "desc", 
-                "distinct");
+                "distinct", "limit", "offset");
     }
 
     // Lab 5 Aggregation Functions.
@@ -116,7 +116,21 @@ public class Parser {
 			lex.eatKeyword("by");
 			sortFields = selectSortList();
 		}
-		return new QueryData(fields, tables, pred, sortFields, distinctQuery, aggs, groupfields);
+		int limit = -1;
+		if (lex.matchKeyword("limit")) {
+			lex.eatKeyword("limit");
+			limit = lex.eatIntConstant();
+			if (limit < 0)
+				throw new BadSyntaxException();
+		}
+		int offset = 0;
+		if (lex.matchKeyword("offset")) {
+			lex.eatKeyword("offset");
+			offset = lex.eatIntConstant();
+			if (offset < 0)
+				throw new BadSyntaxException();
+		}
+		return new QueryData(fields, tables, pred, sortFields, distinctQuery, aggs, groupfields, limit, offset);
 	}
 
 	// Lab 5: Aggregation Field.
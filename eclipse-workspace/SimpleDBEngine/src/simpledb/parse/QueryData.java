@@ -21,13 +21,14 @@ public class QueryData {
 	private List<String> groupfields;
 	// Lab 6: Distinct Query
 	private boolean distinctQuery;
+	private int limit, offset;
 
 	/**
 	 * Saves the field and table list and predicate.
 	 */
 	public QueryData(List<String> fields, Collection<String> tables, Predicate pred, 
 			LinkedHashMap<String,Integer> sortFields, boolean distinctQuery, 
-			List<AggregationFn> aggs, List<String> groupfields) {
+			List<AggregationFn> aggs, List<String> groupfields, int limit, int offset) {
 		this.fields = fields;
 		this.tables = tables;
 		this.pred = pred;
@@ -38,6 +39,8 @@ public class QueryData {
 		this.groupfields = groupfields;
 		// Lab 6: Distinct Query
 		this.distinctQuery = distinctQuery;
+		this.limit = limit;
+		this.offset = offset;
 	}
 
 	/**
@@ -88,6 +91,24 @@ public class QueryData {
 		return distinctQuery;
 	}
 
+	/**
+	 * Returns the maximum number of records in the output,
+	 * given by the limit clause.
+	 * @return the limit, or -1 if there is no limit clause
+	 */
+	public int limit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the number of leading records to skip,
+	 * given by the offset clause.
+	 * @return the offset, which is 0 if there is no offset clause
+	 */
+	public int offset() {
+		return offset;
+	}
+
 
 	/**
 	 * Returns the predicate that describes which
@@ -110,6 +131,10 @@ public class QueryData {
 		String predstring = pred.toString();
 		if (!predstring.equals(""))
 			result += " where " + predstring;
+		if (limit >= 0)
+			result += " limit " + limit;
+		if (offset > 0)
+			result += " offset " + offset;
 		return result;
 	}
 }
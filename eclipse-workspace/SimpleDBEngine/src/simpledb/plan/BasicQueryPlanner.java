@@ -59,7 +59,11 @@ public class BasicQueryPlanner implements QueryPlanner {
 		 * Execute Plan if only order by
 		 * keyword is detected in query.
 		 * */
-		if(!data.sortFields().isEmpty()) {    	  
+		boolean topN = !data.sortFields().isEmpty() && data.limit() >= 0
+				&& data.groupfields().isEmpty() && data.aggs().isEmpty();
+		if (topN)
+			p = new TopNPlan(tx, p, data.sortFields(), data.limit(), data.offset());
+		else if(!data.sortFields().isEmpty()) {    	  
 			p = new SortPlan(tx, p, data.sortFields());
 		}
 
@@ -71,6 +75,11 @@ public class BasicQueryPlanner implements QueryPlanner {
             p = new GroupByPlan(tx, p, data.groupfields(), data.aggs());
         }
 
+		// the limit and offset apply to the output of the group by
+		if (!topN && (data.limit() >= 0 || data.offset() > 0)) {
+			p = new LimitPlan(p, data.limit(), data.offset());
+		}
+
 		return p;
 	}
 }
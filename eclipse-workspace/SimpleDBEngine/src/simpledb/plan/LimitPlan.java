@@ -0,0 +1,94 @@
+package simpledb.plan;
+
+import simpledb.query.*;
+import simpledb.record.Schema;
+
+/** The Plan class corresponding to the <i>limit</i>
+ * operator, which applies the limit and offset of a query
+ * to the output of its subquery, such as a selection,
+ * a sort or a group by.
+ * A query with an order by clause and a limit is usually
+ * planned with TopNPlan instead, which applies a LimitScan
+ * to a sort itself when the records do not fit in memory.
+ */
+public class LimitPlan implements Plan {
+   private Plan p;
+   private int limit, offset;
+
+   /**
+    * Creates a new limit node in the query tree,
+    * having the specified subquery.
+    * @param p the subquery
+    * @param limit the maximum number of records, or -1 for no limit
+    * @param offset the number of leading records to skip
+    */
+   public LimitPlan(Plan p, int limit, int offset) {
+      this.p = p;
+      this.limit = limit;
+      this.offset = offset;
+   }
+
+   /**
+    * Creates a limit scan for this query.
+    * @see simpledb.plan.Plan#open()
+    */
+   public Scan open() {
+      return new LimitScan(p.open(), limit, offset);
+   }
+
+   /**
+    * Estimates the number of block accesses in the limit,
+    * which is the same as in the underlying query,
+    * although the scan may stop before reading all of it.
+    * @see simpledb.plan.Plan#blocksAccessed()
+    */
+   public int blocksAccessed() {
+      return p.blocksAccessed();
+   }
+
+   /**
+    * Estimates the number of output records, which is
+    * the number of underlying records after the offset,
+    * but not more than the limit.
+    * @see simpledb.plan.Plan#recordsOutput()
+    */
+   public int recordsOutput() {
+      return outputSize(p.recordsOutput(), limit, offset);
+   }
+
+   /**
+    * Estimates the number of distinct field values,
+    * which is as in the underlying query but not more
+    * than the number of output records.
+    * @see simpledb.plan.Plan#distinctValues(java.lang.String)
+    */
+   public int distinctValues(String fldname) {
+      return Math.min(p.distinctValues(fldname), Math.max(1, recordsOutput()));
+   }
+
+   /**
+    * Returns the schema of the limit,
+    * which is the same as in the underlying query.
+    * @see simpledb.plan.Plan#schema()
+    */
+   public Schema schema() {
+      return p.schema();
+   }
+
+   /**
+    * Returns the number of records that remain of the specified
+    * number once the offset is skipped and the limit applied.
+    * @param records the number of records
+    * @param limit the maximum number of records, or -1 for no limit
+    * @param offset the number of leading records to skip
+    * @return the number of remaining records
+    */
+   public static int outputSize(int records, int limit, int offset) {
+      int remaining = Math.max(0, records - offset);
+      return (limit >= 0) ? Math.min(limit, remaining) : remaining;
+   }
+
+   public String toString() {
+      return String.format("limit %d offset %d [%s]", limit, offset, p.toString());
+   }
+}
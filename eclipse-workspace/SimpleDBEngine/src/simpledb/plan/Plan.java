@@ -1,5 +1,6 @@
 package simpledb.plan;
 
+import simpledb.query.BloomFilter;
 import simpledb.query.Scan;
 import simpledb.record.*;
 
@@ -46,6 +47,21 @@ public interface Plan {
     */
    public Schema schema();
    
+   /**
+    * Registers a runtime filter with the plan, so that
+    * the scans it opens afterwards skip the records whose
+    * value of the specified field the filter rejects.
+    * The filter may be filled in after it is registered,
+    * as long as that is before the scan is opened.
+    * Plans that can filter their records override this method.
+    * @param fldname the name of the field
+    * @param filter the filter over the field's hash codes
+    * @return true if the plan applies the filter
+    */
+   default boolean setFilter(String fldname, BloomFilter filter) {
+      return false;
+   }
+   
    /**
     * Lab 6: Display query plan
     * @return the query plan string
@@ -69,6 +69,15 @@ public class ProjectPlan implements Plan {
    public Schema schema() {
       return schema;
    }
+
+   /**
+    * Registers the filter with the underlying query,
+    * if the projection has the field.
+    * @see simpledb.plan.Plan#setFilter(java.lang.String, simpledb.query.BloomFilter)
+    */
+   public boolean setFilter(String fldname, BloomFilter filter) {
+      return schema.hasField(fldname) && p.setFilter(fldname, filter);
+   }
    
    // Lab 6
    public String toString() {
@@ -1,5 +1,6 @@
 package simpledb.plan;
 
+import simpledb.query.BloomFilter;
 import simpledb.query.Predicate;
 import simpledb.query.Scan;
 import simpledb.query.SelectScan;
@@ -12,6 +13,8 @@ import simpledb.record.Schema;
 public class SelectPlan implements Plan {
 	private Plan p;
 	private Predicate pred;
+	private String filterfld;
+	private BloomFilter filter;
 
 	/**
 	 * Creates a new select node in the query tree,
@@ -30,7 +33,10 @@ public class SelectPlan implements Plan {
 	 */
 	public Scan open() {
 		Scan s = p.open();
-		return new SelectScan(s, pred);
+		SelectScan ss = new SelectScan(s, pred);
+		if (filter != null)
+			ss.setFilter(filterfld, filter);
+		return ss;
 	}
 
 	/**
@@ -84,6 +90,22 @@ public class SelectPlan implements Plan {
 		return p.schema();
 	}
 
+	/**
+	 * Registers the filter with the underlying query if it
+	 * can apply it, and otherwise with the select scans
+	 * opened by this plan.
+	 * @see simpledb.plan.Plan#setFilter(java.lang.String, simpledb.query.BloomFilter)
+	 */
+	public boolean setFilter(String fldname, BloomFilter filter) {
+		if (!p.schema().hasField(fldname))
+			return false;
+		if (!p.setFilter(fldname, filter)) {
+			filterfld = fldname;
+			this.filter = filter;
+		}
+		return true;
+	}
+
 	// Lab 6: Query Plan
 	public String toString(){ 
 		return String.format("select (%s) [%s]", pred.toString(), p.toString()); 
@@ -2,6 +2,7 @@ package simpledb.plan;
 
 import simpledb.tx.Transaction;
 import simpledb.metadata.*;
+import simpledb.query.BloomFilter;
 import simpledb.query.Scan;
 import simpledb.record.*;
 
@@ -13,6 +14,8 @@ public class TablePlan implements Plan {
 	private Transaction tx;
 	private Layout layout;
 	private StatInfo si;
+	private String filterfld;
+	private BloomFilter filter;
 
 	/**
 	 * Creates a leaf node in the query tree corresponding
@@ -32,7 +35,10 @@ public class TablePlan implements Plan {
 	 * @see simpledb.plan.Plan#open()
 	 */
 	public Scan open() {
-		return new TableScan(tx, tblname, layout);
+		TableScan ts = new TableScan(tx, tblname, layout);
+		if (filter != null)
+			ts.setFilter(filterfld, filter);
+		return ts;
 	}
 
 	/**
@@ -70,6 +76,19 @@ public class TablePlan implements Plan {
 	public Schema schema() {
 		return layout.schema();
 	}
+
+	/**
+	 * Registers the filter, which the table scans
+	 * opened by this plan check in place.
+	 * @see simpledb.plan.Plan#setFilter(java.lang.String, simpledb.query.BloomFilter)
+	 */
+	public boolean setFilter(String fldname, BloomFilter filter) {
+		if (!layout.schema().hasField(fldname))
+			return false;
+		filterfld = fldname;
+		this.filter = filter;
+		return true;
+	}
 	// Lab 6: Query Plan
 	public String toString() { 
 		return "Scan " + tblname;
@@ -0,0 +1,86 @@
+package simpledb.query;
+
+import java.util.Arrays;
+
+/**
+ * A Bloom filter over the hash codes of field values,
+ * as returned by {@link Scan#hashVal}.
+ * A hash join builds one on the join values of its LHS, and
+ * pushes it into the scan of its RHS as a runtime filter,
+ * so that a RHS record whose join value cannot match is
+ * discarded before it is hashed, copied or materialized.
+ * The filter may let through a record that does not match,
+ * but never discards one that does.
+ */
+public class BloomFilter {
+   private long[] bits;
+   private int numbits;
+   private static final int BITS_PER_VALUE = 10;
+   private static final int HASHES = 3;
+
+   /**
+    * Create an empty filter for the specified number of values.
+    * More values may be added, at the cost of more false positives.
+    * @param values the expected number of values
+    */
+   public BloomFilter(int values) {
+      long n = Math.max(64L, (long) values * BITS_PER_VALUE);
+      numbits = (int) Math.min(n, Integer.MAX_VALUE - 63);
+      bits = new long[(numbits + 63) / 64];
+   }
+
+   /**
+    * Return the fraction of values that are not in the
+    * filter but that it lets through, when it holds the
+    * number of values for which it was created.
+    * @return the false positive rate
+    */
+   public static double falsePositiveRate() {
+      return Math.pow(1 - Math.exp(-(double) HASHES / BITS_PER_VALUE), HASHES);
+   }
+
+   /**
+    * Add the value having the specified hash code.
+    * @param hash the hash code of a value
+    */
+   public void add(int hash) {
+      int h1 = mix(hash);
+      int h2 = (h1 >>> 16) | 1;
+      for (int i=0; i<HASHES; i++) {
+         int bit = Math.floorMod(h1 + i*h2, numbits);
+         bits[bit >>> 6] |= 1L << bit;
+      }
+   }
+
+   /**
+    * Return false if no value having the specified
+    * hash code has been added to the filter.
+    * @param hash the hash code of a value
+    * @return true if such a value may have been added
+    */
+   public boolean mightContain(int hash) {
+      int h1 = mix(hash);
+      int h2 = (h1 >>> 16) | 1;
+      for (int i=0; i<HASHES; i++) {
+         int bit = Math.floorMod(h1 + i*h2, numbits);
+         if ((bits[bit >>> 6] & (1L << bit)) == 0)
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Remove every value from the filter.
+    */
+   public void clear() {
+      Arrays.fill(bits, 0);
+   }
+
+   // the hash codes of integers are the integers themselves,
+   // so their bits are mixed before they select a bit
+   private static int mix(int hash) {
+      int h = hash * 0xCC9E2D51;
+      h = Integer.rotateLeft(h, 15) * 0x1B873593;
+      return h ^ (h >>> 16);
+   }
+}
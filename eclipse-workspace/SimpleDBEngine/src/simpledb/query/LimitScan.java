@@ -0,0 +1,121 @@
+package simpledb.query;
+
+/**
+ * The scan class for the <i>limit</i> operator, which
+ * skips a number of leading records of its underlying scan
+ * and returns at most a given number of the rest.
+ * All methods except beforeFirst and next delegate
+ * their work to the underlying scan.
+ */
+public class LimitScan implements Scan {
+   private Scan s;
+   private int limit, offset, returned;
+
+   /**
+    * Create a limit scan having the specified underlying scan.
+    * @param s the underlying scan
+    * @param limit the maximum number of records, or -1 for no limit
+    * @param offset the number of leading records to skip
+    */
+   public LimitScan(Scan s, int limit, int offset) {
+      this.s = s;
+      this.limit = limit;
+      this.offset = offset;
+      returned = -1;
+   }
+
+   /**
+    * Position the scan before its first record,
+    * which is done by positioning the underlying scan
+    * before its first record. The offset is skipped
+    * by the first call to next.
+    * @see simpledb.query.Scan#beforeFirst()
+    */
+   public void beforeFirst() {
+      s.beforeFirst();
+      returned = -1;
+   }
+
+   /**
+    * Move to the next record of the underlying scan,
+    * first skipping the offset if the scan is at its beginning.
+    * Return false once the limit has been returned, without
+    * reading the underlying scan beyond the last record returned.
+    * @see simpledb.query.Scan#next()
+    */
+   public boolean next() {
+      if (returned < 0) {
+         for (int i=0; i<offset; i++)
+            if (!s.next())
+               return false;
+         returned = 0;
+      }
+      if (limit >= 0 && returned >= limit)
+         return false;
+      if (!s.next())
+         return false;
+      returned++;
+      return true;
+   }
+
+   /**
+    * Return the integer value of the specified field
+    * of the underlying scan's current record.
+    * @see simpledb.query.Scan#getInt(java.lang.String)
+    */
+   public int getInt(String fldname) {
+      return s.getInt(fldname);
+   }
+
+   /**
+    * Return the string value of the specified field
+    * of the underlying scan's current record.
+    * @see simpledb.query.Scan#getString(java.lang.String)
+    */
+   public String getString(String fldname) {
+      return s.getString(fldname);
+   }
+
+   /**
+    * Return the value of the specified field
+    * of the underlying scan's current record.
+    * @see simpledb.query.Scan#getVal(java.lang.String)
+    */
+   public Constant getVal(String fldname) {
+      return s.getVal(fldname);
+   }
+
+   /**
+    * Compare the specified field of the underlying scan's
+    * current record with the constant, in place.
+    * @see simpledb.query.Scan#compareVal(java.lang.String, simpledb.query.Constant)
+    */
+   public int compareVal(String fldname, Constant val) {
+      return s.compareVal(fldname, val);
+   }
+
+   /**
+    * Return the hash code of the specified field
+    * of the underlying scan's current record.
+    * @see simpledb.query.Scan#hashVal(java.lang.String)
+    */
+   public int hashVal(String fldname) {
+      return s.hashVal(fldname);
+   }
+
+   /**
+    * Return true if the underlying scan has the specified field.
+    * @see simpledb.query.Scan#hasField(java.lang.String)
+    */
+   public boolean hasField(String fldname) {
+      return s.hasField(fldname);
+   }
+
+   /**
+    * Close the scan by closing the underlying scan.
+    * @see simpledb.query.Scan#close()
+    */
+   public void close() {
+      s.close();
+   }
+}
@@ -53,9 +53,27 @@ public class ProjectScan implements Scan {
          throw new RuntimeException("field " + fldname + " not found.");
    }
 
+   public int compareVal(String fldname, Constant val) {
+      if (hasField(fldname))
+         return s.compareVal(fldname, val);
+      else
+         throw new RuntimeException("field " + fldname + " not found.");
+   }
+   
+   public int hashVal(String fldname) {
+      if (hasField(fldname))
+         return s.hashVal(fldname);
+      else
+         throw new RuntimeException("field " + fldname + " not found.");
+   }
+
    public boolean hasField(String fldname) {
       return fieldlist.contains(fldname);
    }
+
+   public boolean setFilter(String fldname, BloomFilter filter) {
+      return hasField(fldname) && s.setFilter(fldname, filter);
+   }
    
    public void close() {
       s.close();
@@ -8,6 +8,13 @@ package simpledb.query;
  */
 public interface Scan {
    
+   /**
+    * The result of compareVal when the field's value and
+    * the constant have different types, and so are neither
+    * equal, lower nor higher.
+    */
+   public static final int INCOMPARABLE = Integer.MIN_VALUE;
+   
    /**
     * Position the scan before its first record. A
     * subsequent call to next() will return the first record.
@@ -44,6 +51,47 @@ public interface Scan {
     */
    public Constant getVal(String fldname);
    
+   /**
+    * Compare the value of the specified field in the current
+    * record with the specified constant, as Constant.compareTo would.
+    * Scans over stored records override this method to compare
+    * the value in place, without creating a Constant.
+    * @param fldname the name of the field
+    * @param val the constant to compare with
+    * @return a negative, zero or positive result, as for compareTo,
+    * or INCOMPARABLE if the value and the constant have different types
+    */
+   default int compareVal(String fldname, Constant val) {
+      Constant c = getVal(fldname);
+      return (c.isInt() == val.isInt()) ? c.compareTo(val) : INCOMPARABLE;
+   }
+   
+   /**
+    * Return the hash code of the value of the specified field
+    * in the current record, which is the hash code
+    * of the corresponding Constant.
+    * Scans over stored records override this method to hash
+    * the value in place, without creating a Constant.
+    * @param fldname the name of the field
+    * @return the hash code of the field's value
+    */
+   default int hashVal(String fldname) {
+      return getVal(fldname).hashCode();
+   }
+   
+   /**
+    * Push a runtime filter into the scan, so that it skips
+    * the records whose value of the specified field the
+    * filter rejects. Scans that can filter their records,
+    * or pass the filter to a scan that can, override this method.
+    * @param fldname the name of the field
+    * @param filter the filter over the field's hash codes
+    * @return true if the scan applies the filter
+    */
+   default boolean setFilter(String fldname, BloomFilter filter) {
+      return false;
+   }
+   
    /**
     * Return true if the scan has the specified field.
     * @param fldname the name of the field
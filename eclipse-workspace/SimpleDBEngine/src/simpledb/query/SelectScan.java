@@ -12,6 +12,8 @@ import simpledb.record.*;
 public class SelectScan implements UpdateScan {
 	private Scan s;
 	private Predicate pred;
+	private String filterfld;
+	private BloomFilter filter;
 
 	/**
 	 * Create a select scan having the specified underlying
@@ -32,6 +34,8 @@ public class SelectScan implements UpdateScan {
 
 	public boolean next() {
 		while (s.next()) {
+			if (filter != null && !filter.mightContain(s.hashVal(filterfld)))
+				continue;
 			if (pred.isSatisfied(s))
 				return true;
 		}
@@ -50,10 +54,30 @@ public class SelectScan implements UpdateScan {
       return s.getVal(fldname);
    }
 
+   public int compareVal(String fldname, Constant val) {
+      return s.compareVal(fldname, val);
+   }
+
+   public int hashVal(String fldname) {
+      return s.hashVal(fldname);
+   }
+
 	public boolean hasField(String fldname) {
 		return s.hasField(fldname);
 	}
 
+	// the filter is pushed into the underlying scan if it can apply it,
+	// and otherwise is checked before the predicate
+	public boolean setFilter(String fldname, BloomFilter filter) {
+		if (!s.hasField(fldname))
+			return false;
+		if (!s.setFilter(fldname, filter)) {
+			filterfld = fldname;
+			this.filter = filter;
+		}
+		return true;
+	}
+
    public void close() {
       s.close();
    }
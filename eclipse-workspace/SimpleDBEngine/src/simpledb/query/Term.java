@@ -37,6 +37,14 @@ public class Term {
 	 * @return true if both expressions have the same value in the scan
 	 */
 	public boolean isSatisfied(Scan s) {
+		// A field compared with a constant is compared in place,
+		// without reading the field's value into a Constant.
+		if (lhs.isFieldName() && !rhs.isFieldName())
+			return satisfies(s.compareVal(lhs.asFieldName(), rhs.asConstant()));
+		if (rhs.isFieldName() && !lhs.isFieldName()) {
+			int cmp = s.compareVal(rhs.asFieldName(), lhs.asConstant());
+			return satisfies((cmp == Scan.INCOMPARABLE) ? cmp : -cmp);
+		}
 
 		Constant lhsval = lhs.evaluate(s);
 		Constant rhsval = rhs.evaluate(s);
@@ -71,6 +79,36 @@ public class Term {
 		}
 	}
 
+	/**
+	 * Return true if the term's operator holds
+	 * for the specified comparison result of lhs and rhs.
+	 * Values of different types are only unequal, as with
+	 * Constant.equals, so the operator must hold both when
+	 * lhs is lower and when it is higher; only <> does.
+	 * @param cmp the result of comparing lhs with rhs
+	 * @return true if the operator holds
+	 */
+	private boolean satisfies(int cmp) {
+		if (cmp == Scan.INCOMPARABLE)
+			return satisfies(-1) && satisfies(1);
+		switch(this.operator) {
+		case "=":
+			return cmp == 0;
+		case ">=":
+			return cmp >= 0;
+		case ">":
+			return cmp > 0;
+		case "<=":
+			return cmp <= 0;
+		case "<":
+			return cmp < 0;
+		case "!=":
+		case "<>":
+		default:
+			return cmp != 0;
+		}
+	}
+
 	public String getOperator() {
 		return this.operator;
 	}
@@ -0,0 +1,117 @@
+package simpledb.record;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * Measures the number of log bytes written per inserted row.
+ * Rows are inserted through a table scan, which logs one record
+ * per row, and through the per-value logging that record pages
+ * used before, which logs the flag and each field separately.
+ * Each way is measured with and without log compression.
+ * A rolled-back insertion checks that compressed records are read back.
+ */
+public class LogVolumeTest {
+   private static final int ROWS = 5000;
+
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("logvolumetest", 4096, 16);
+      LogMgr lm = db.logMgr();
+      Schema sch = new Schema();
+      sch.addIntField("id");
+      sch.addStringField("name", 20);
+      sch.addIntField("dept");
+      sch.addStringField("city", 20);
+      Layout layout = new Layout(sch);
+
+      double perValue = measure(db, layout, "pervalue", false, false);
+      double perRow = measure(db, layout, "perrow", true, false);
+      lm.setCompression(true);
+      double perValueZ = measure(db, layout, "pervaluez", false, false);
+      double perRowZ = measure(db, layout, "perrowz", true, false);
+
+      System.out.printf("log bytes per row, one record per value: %.1f%n", perValue);
+      System.out.printf("log bytes per row, one record per row:   %.1f (%.1fx fewer)%n",
+                        perRow, perValue / perRow);
+      System.out.printf("compressed, one record per value:        %.1f%n", perValueZ);
+      System.out.printf("compressed, one record per row:          %.1f (%.1fx fewer)%n",
+                        perRowZ, perValue / perRowZ);
+      if (perRow >= perValue)
+         throw new RuntimeException("logging per row did not write fewer bytes");
+
+      measure(db, layout, "rolledback", true, true);
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "rolledback", layout);
+      int count = 0;
+      while (ts.next())
+         count++;
+      ts.close();
+      tx.commit();
+      System.out.println(count + " rows remain after the rollback");
+      if (count != 0)
+         throw new RuntimeException("the rollback left rows behind");
+   }
+
+   /**
+    * Inserts the rows into the table in a single transaction,
+    * and returns the number of log bytes written per row.
+    */
+   private static double measure(SimpleDB db, Layout layout, String tblname,
+                                 boolean perRow, boolean rollback) {
+      LogMgr lm = db.logMgr();
+      Transaction tx = db.newTx();
+      long start = lm.latestLSN();
+      if (perRow)
+         insertRows(tx, layout, tblname);
+      else
+         insertValues(tx, layout, tblname);
+      long end = lm.latestLSN();
+      if (rollback)
+         tx.rollback();
+      else
+         tx.commit();
+      return (double) (end - start) / ROWS;
+   }
+
+   private static void insertRows(Transaction tx, Layout layout, String tblname) {
+      TableScan ts = new TableScan(tx, tblname, layout);
+      for (int i=0; i<ROWS; i++) {
+         ts.insert();
+         ts.setInt("id", i);
+         ts.setString("name", "employee" + i);
+         ts.setInt("dept", i % 10);
+         ts.setString("city", "city" + (i % 50));
+      }
+      ts.close();
+   }
+
+   /**
+    * Inserts the rows the way record pages used to,
+    * logging the slot's flag and each field separately.
+    */
+   private static void insertValues(Transaction tx, Layout layout, String tblname) {
+      String filename = tblname + ".tbl";
+      int slotsPerBlock = tx.blockSize() / layout.slotSize();
+      BlockId blk = null;
+      int slot = slotsPerBlock;
+      for (int i=0; i<ROWS; i++) {
+         if (slot == slotsPerBlock) {
+            if (blk != null)
+               tx.unpin(blk);
+            blk = tx.append(filename);
+            new RecordPage(tx, blk, layout).format();
+            slot = 0;
+         }
+         int pos = slot * layout.slotSize();
+         tx.setInt(blk, pos, RecordPage.USED, true);
+         tx.setInt(blk, pos + layout.offset("id"), i, true);
+         tx.setString(blk, pos + layout.offset("name"), "employee" + i, true);
+         tx.setInt(blk, pos + layout.offset("dept"), i % 10, true);
+         tx.setString(blk, pos + layout.offset("city"), "city" + (i % 50), true);
+         slot++;
+      }
+      tx.unpin(blk);
+   }
+}
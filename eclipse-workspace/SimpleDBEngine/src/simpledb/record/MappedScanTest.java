@@ -0,0 +1,55 @@
+package simpledb.record;
+
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/**
+ * Scans the same table with copying reads and with
+ * memory-mapped reads, and checks that both scans see
+ * the same records.
+ * The scans also update some records, to exercise
+ * the copy made when a mapped buffer is first modified.
+ */
+public class MappedScanTest {
+   private static final int NUMRECS = 20000;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("mappedscantest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 9);
+      Layout layout = new Layout(sch);
+
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int i=0; i<NUMRECS; i++) {
+         ts.insert();
+         ts.setInt("A", i);
+         ts.setString("B", "rec"+i);
+      }
+      ts.close();
+      tx.commit();
+
+      for (boolean mapped : new boolean[] {false, true}) {
+         db.fileMgr().setMemoryMapped(mapped);
+         tx = db.newTx();
+         ts = new TableScan(tx, "T", layout);
+         long start = System.nanoTime();
+         long sum = 0;
+         int count = 0;
+         while (ts.next()) {
+            sum += ts.getInt("A");
+            if (!ts.getString("B").equals("rec" + ts.getInt("A")))
+               throw new RuntimeException("wrong record");
+            if (count % 1000 == 0)
+               ts.setString("B", "rec" + ts.getInt("A"));
+            count++;
+         }
+         long elapsed = System.nanoTime() - start;
+         ts.close();
+         tx.commit();
+         System.out.println((mapped ? "mapped: " : "copied: ") + count + " records, sum " + sum
+               + String.format(", %.1f ms", elapsed / 1e6));
+      }
+   }
+}
@@ -0,0 +1,105 @@
+package simpledb.record;
+
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/**
+ * Shows that transactions lock records rather than blocks:
+ * two transactions update and insert records in the same block
+ * without waiting for each other, while a transaction that reads
+ * a record being updated waits until the update commits.
+ * A scan also waits for a record whose deletion has not committed,
+ * and still returns it if the deletion is rolled back.
+ */
+public class RecordLockTest {
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("recordlocktest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 9);
+      Layout layout = new Layout(sch);
+
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int i=0; i<4; i++) {
+         ts.insert();
+         ts.setInt("A", i);
+         ts.setString("B", "rec" + i);
+      }
+      ts.close();
+      tx.commit();
+
+      Transaction tx1 = db.newTx();
+      Transaction tx2 = db.newTx();
+      TableScan ts1 = new TableScan(tx1, "T", layout);
+      TableScan ts2 = new TableScan(tx2, "T", layout);
+      ts1.moveToRid(new RID(0, 0));
+      ts1.setInt("A", 100);
+      ts2.moveToRid(new RID(0, 1));
+      ts2.setInt("A", 101);
+      ts1.insert();
+      ts1.setInt("A", 200);
+      ts2.insert();
+      ts2.setInt("A", 201);
+      System.out.println("tx1 inserted at " + ts1.getRid() + ", tx2 inserted at " + ts2.getRid());
+      if (ts1.getRid().equals(ts2.getRid()))
+         throw new RuntimeException("two inserts share a slot");
+      System.out.println("updates and inserts in the same block did not wait");
+
+      Transaction tx3 = db.newTx();
+      int[] seen = new int[1];
+      Thread reader = new Thread(() -> {
+         TableScan ts3 = new TableScan(tx3, "T", layout);
+         ts3.moveToRid(new RID(0, 0));
+         seen[0] = ts3.getInt("A");
+         ts3.close();
+         tx3.commit();
+      });
+      reader.start();
+      reader.join(500);
+      if (!reader.isAlive())
+         throw new RuntimeException("the reader did not wait for the update");
+      System.out.println("reader waits for tx1's update");
+      ts1.close();
+      tx1.commit();
+      reader.join();
+      System.out.println("after tx1 commits, the reader sees A=" + seen[0]);
+      ts2.close();
+      tx2.rollback();
+
+      Transaction tx4 = db.newTx();
+      TableScan ts4 = new TableScan(tx4, "T", layout);
+      int count = 0;
+      while (ts4.next()) {
+         System.out.println(ts4.getRid() + ": " + ts4.getInt("A"));
+         count++;
+      }
+      ts4.close();
+      tx4.commit();
+
+      Transaction tx5 = db.newTx();
+      TableScan ts5 = new TableScan(tx5, "T", layout);
+      ts5.moveToRid(new RID(0, 2));
+      ts5.delete();
+      Transaction tx6 = db.newTx();
+      int[] scanned = new int[1];
+      Thread scanner = new Thread(() -> {
+         TableScan ts6 = new TableScan(tx6, "T", layout);
+         while (ts6.next())
+            scanned[0]++;
+         ts6.close();
+         tx6.commit();
+      });
+      scanner.start();
+      scanner.join(500);
+      if (!scanner.isAlive())
+         throw new RuntimeException("the scan did not wait for the uncommitted delete");
+      System.out.println("scan waits for tx5's delete");
+      ts5.close();
+      tx5.rollback();
+      scanner.join();
+      if (scanned[0] != count)
+         throw new RuntimeException("the scan saw " + scanned[0] + " records instead of " + count);
+      System.out.println("after tx5 rolls back, the scan sees all " + count + " records");
+   }
+}
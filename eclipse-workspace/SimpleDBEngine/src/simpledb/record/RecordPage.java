@@ -2,10 +2,16 @@ package simpledb.record;
 
 import static java.sql.Types.INTEGER;
 import simpledb.file.*;
+import simpledb.query.Constant;
+import simpledb.query.Scan;
 import simpledb.tx.Transaction;
 
 /**
  * Store a record at a given location in a block. 
+ * Records are locked individually: a record is slocked
+ * before its fields are read, and xlocked before they are written.
+ * The insertion, deletion, or update of a record is logged
+ * as a single log record, rather than one per value.
  * @author Edward Sciore
  */
 public class RecordPage {
@@ -13,12 +19,14 @@ public class RecordPage {
    private Transaction tx;
    private BlockId blk;
    private Layout layout;
+   private int slockedslot = -1, xlockedslot = -1;
 
    public RecordPage(Transaction tx, BlockId blk, Layout layout) {
       this.tx = tx;
       this.blk = blk;
       this.layout = layout;
       tx.pin(blk);
+      tx.intentLock(blk);
    }
 
    /**
@@ -28,6 +36,7 @@ public class RecordPage {
     * @return the integer stored in that field
     */
    public int getInt(int slot, String fldname) {
+      sLock(slot);
       int fldpos = offset(slot) + layout.offset(fldname);
       return tx.getInt(blk, fldpos);
    }
@@ -39,10 +48,48 @@ public class RecordPage {
     * @return the string stored in that field
     */
    public String getString(int slot, String fldname) {
+      sLock(slot);
       int fldpos = offset(slot) + layout.offset(fldname);
       return tx.getString(blk, fldpos);
    }
 
+   /**
+    * Compare the value stored for the specified field
+    * of the specified slot with a constant,
+    * without reading the value into a Constant.
+    * @param fldname the name of the field.
+    * @param val the constant to compare with
+    * @return a negative, zero or positive result, as for compareTo,
+    * or Scan.INCOMPARABLE if the value and the constant have different types
+    */
+   public int compareVal(int slot, String fldname, Constant val) {
+      sLock(slot);
+      int fldpos = offset(slot) + layout.offset(fldname);
+      boolean isIntField = (layout.schema().type(fldname) == INTEGER);
+      if (isIntField != val.isInt())
+         return Scan.INCOMPARABLE;
+      if (isIntField)
+         return Integer.compare(tx.getInt(blk, fldpos), val.asInt());
+      else
+         return tx.compareString(blk, fldpos, val.asString());
+   }
+
+   /**
+    * Return the hash code of the value stored for the
+    * specified field of the specified slot, which is
+    * the hash code of the corresponding Constant.
+    * @param fldname the name of the field.
+    * @return the hash code of the stored value
+    */
+   public int hashVal(int slot, String fldname) {
+      sLock(slot);
+      int fldpos = offset(slot) + layout.offset(fldname);
+      if (layout.schema().type(fldname) == INTEGER)
+         return Integer.hashCode(tx.getInt(blk, fldpos));
+      else
+         return tx.hashString(blk, fldpos);
+   }
+
    /**
     * Store an integer at the specified field
     * of the specified slot.
@@ -50,8 +97,9 @@ public class RecordPage {
     * @param val the integer value stored in that field
     */
    public void setInt(int slot, String fldname, int val) {
+      xLock(slot);
       int fldpos = offset(slot) + layout.offset(fldname);
-      tx.setInt(blk, fldpos, val, true);
+      tx.setFieldInt(blk, offset(slot), fldpos, val);
    }
 
    /**
@@ -61,12 +109,14 @@ public class RecordPage {
     * @param val the string value stored in that field
     */
    public void setString(int slot, String fldname, String val) {
+      xLock(slot);
       int fldpos = offset(slot) + layout.offset(fldname);
-      tx.setString(blk, fldpos, val, true);
+      tx.setFieldString(blk, offset(slot), fldpos, val);
    }
    
    public void delete(int slot) {
-      setFlag(slot, EMPTY);
+      xLock(slot);
+      tx.deleteSlot(blk, offset(slot), EMPTY);
    }
    
    /** Use the layout to format a new block of records.
@@ -89,15 +139,47 @@ public class RecordPage {
       }
    }
 
+   /**
+    * Return the first used slot after the specified one,
+    * having slocked it, or -1 if there is none.
+    * An empty slot that another transaction has xlocked
+    * may be a record whose deletion has not committed,
+    * so the transaction waits for its lock and reads the flag
+    * again, in case the deletion is rolled back.
+    * A slot that is deleted while the transaction waits
+    * for its lock is skipped.
+    */
    public int nextAfter(int slot) {
-      return searchAfter(slot, USED);
+      slot++;
+      while (isValidSlot(slot)) {
+         if (mightBeUsed(slot)) {
+            sLock(slot);
+            if (tx.getInt(blk, offset(slot)) == USED)
+               return slot;
+         }
+         slot++;
+      }
+      return -1;
    }
  
+   /**
+    * Find an empty slot after the specified one, xlock it
+    * and mark it used. Slots that are locked by other
+    * transactions, such as ones whose deletion has not
+    * yet committed, are passed over.
+    * @return the new slot, or -1 if there is none
+    */
    public int insertAfter(int slot) {
-      int newslot = searchAfter(slot, EMPTY);
-      if (newslot >= 0)
-         setFlag(newslot, USED);
-      return newslot;
+      while (true) {
+         slot = searchAfter(slot, EMPTY);
+         if (slot < 0)
+            return -1;
+         if (tx.tryXLockRecord(blk, slot) && tx.getInt(blk, offset(slot)) == EMPTY) {
+            xlockedslot = slot;
+            tx.insertSlot(blk, offset(slot), USED);
+            return slot;
+         }
+      }
    }
   
    public BlockId block() {
@@ -105,12 +187,29 @@ public class RecordPage {
    }
    
    // Private auxiliary methods
+
+   private void sLock(int slot) {
+      if (slot != slockedslot && slot != xlockedslot) {
+         tx.sLockRecord(blk, slot);
+         slockedslot = slot;
+      }
+   }
+
+   private void xLock(int slot) {
+      if (slot != xlockedslot) {
+         tx.xLockRecord(blk, slot);
+         xlockedslot = slot;
+      }
+   }
    
-   /**
-    * Set the record's empty/inuse flag.
-    */
-   private void setFlag(int slot, int flag) {
-      tx.setInt(blk, offset(slot), flag, true); 
+   // The flag of an empty slot is read again after its lock
+   // is tested, because a rollback restores the flag
+   // before it releases the lock.
+   private boolean mightBeUsed(int slot) {
+      if (tx.getInt(blk, offset(slot)) == USED)
+         return true;
+      return tx.isXLockedRecord(blk, slot)
+            || tx.getInt(blk, offset(slot)) == USED;
    }
 
    private int searchAfter(int slot, int flag) {
@@ -16,6 +16,8 @@ public class TableScan implements UpdateScan {
    private RecordPage rp;
    private String filename;
    private int currentslot;
+   private String filterfld;
+   private BloomFilter filter;
 
    public TableScan(Transaction tx, String tblname, Layout layout) {
       this.tx = tx;
@@ -34,13 +36,15 @@ public class TableScan implements UpdateScan {
    }
 
    public boolean next() {
-      currentslot = rp.nextAfter(currentslot);
-      while (currentslot < 0) {
-         if (atLastBlock())
-            return false;
-         moveToBlock(rp.block().number()+1);
+      do {
          currentslot = rp.nextAfter(currentslot);
-      }
+         while (currentslot < 0) {
+            if (atLastBlock())
+               return false;
+            moveToBlock(rp.block().number()+1);
+            currentslot = rp.nextAfter(currentslot);
+         }
+      } while (filter != null && !filter.mightContain(hashVal(filterfld)));
       return true;
    }
 
@@ -59,10 +63,27 @@ public class TableScan implements UpdateScan {
          return new Constant(getString(fldname));
    }
 
+   public int compareVal(String fldname, Constant val) {
+      return rp.compareVal(currentslot, fldname, val);
+   }
+
+   public int hashVal(String fldname) {
+      return rp.hashVal(currentslot, fldname);
+   }
+
    public boolean hasField(String fldname) {
       return layout.schema().hasField(fldname);
    }
 
+   // the filter is checked in place, before any value is read
+   public boolean setFilter(String fldname, BloomFilter filter) {
+      if (!hasField(fldname))
+         return false;
+      filterfld = fldname;
+      this.filter = filter;
+      return true;
+   }
+
    public void close() {
       if (rp != null)
          tx.unpin(rp.block());
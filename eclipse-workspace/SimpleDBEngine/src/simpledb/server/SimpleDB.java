@@ -5,6 +5,8 @@ import simpledb.file.FileMgr;
 import simpledb.log.LogMgr;
 import simpledb.buffer.BufferMgr;
 import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.ConcurrencyMgr;
+import simpledb.tx.recovery.*;
 import simpledb.metadata.MetadataMgr;
 import simpledb.plan.*;
 import simpledb.index.planner.IndexUpdatePlanner;
@@ -19,12 +21,28 @@ public class SimpleDB {
    public static int BLOCK_SIZE = 400;
    public static int BUFFER_SIZE = 8;
    public static String LOG_FILE = "simpledb.log";
+   public static String BUFFER_POLICY = "clock";
+   public static int BUFFER_PARTITIONS = 1; // see BufferMgr#available
+   public static double BUFFER_DIRTY_RATIO = 0.25;
+   public static long BUFFER_WRITER_INTERVAL = 100; // in ms; 0 disables the writer
+   public static boolean GROUP_COMMIT = true;
+   public static long GROUP_COMMIT_WINDOW = 0; // in ms
+   public static int GROUP_COMMIT_MAX_BATCH = 64;
+   public static boolean MMAP_READS = false;
+   public static int PREFETCH_DEPTH = 8; // 0 disables read-ahead
+   public static String DEADLOCK_POLICY = "detect"; // or "wait-die", "wound-wait"
+   public static long CHECKPOINT_INTERVAL = 30000; // in ms; 0 disables checkpoints
+   public static boolean LOG_COMPRESSION = false;
+   public static int LOG_SEGMENT_SIZE = 1024; // in blocks
+   public static String LOG_ARCHIVE_DIR = null; // null deletes old log segments
+   public static int RECOVERY_THREADS = 4; // 1 recovers in a single thread
 
    private  FileMgr     fm;
    private  BufferMgr   bm;
    private  LogMgr      lm;
    private  MetadataMgr mdm;
    private  Planner planner;
+   private  Checkpointer checkpointer;
 
    /**
     * A constructor useful for debugging.
@@ -35,8 +53,13 @@ public class SimpleDB {
    public SimpleDB(String dirname, int blocksize, int buffsize) {
       File dbDirectory = new File(dirname);
       fm = new FileMgr(dbDirectory, blocksize);
-      lm = new LogMgr(fm, LOG_FILE);
-      bm = new BufferMgr(fm, lm, buffsize); 
+      fm.setMemoryMapped(MMAP_READS);
+      lm = new LogMgr(fm, LOG_FILE, LOG_SEGMENT_SIZE);
+      lm.setCompression(LOG_COMPRESSION);
+      lm.setArchiveDir(LOG_ARCHIVE_DIR);
+      bm = new BufferMgr(fm, lm, buffsize, BUFFER_POLICY, BUFFER_PARTITIONS);
+      ConcurrencyMgr.setDeadlockPolicy(DEADLOCK_POLICY);
+      RecoveryMgr.setRecoveryThreads(RECOVERY_THREADS);
    }
    
    /**
@@ -46,6 +69,12 @@ public class SimpleDB {
     */
    public SimpleDB(String dirname) {
       this(dirname, BLOCK_SIZE, BUFFER_SIZE); 
+      if (BUFFER_WRITER_INTERVAL > 0)
+         bm.startWriter(BUFFER_DIRTY_RATIO, BUFFER_WRITER_INTERVAL);
+      if (PREFETCH_DEPTH > 0)
+         bm.startPrefetcher(PREFETCH_DEPTH);
+      if (GROUP_COMMIT)
+         lm.enableGroupCommit(GROUP_COMMIT_WINDOW, GROUP_COMMIT_MAX_BATCH);
       Transaction tx = newTx();
       boolean isnew = fm.isNew();
       if (isnew)
@@ -61,6 +90,10 @@ public class SimpleDB {
       UpdatePlanner up = new IndexUpdatePlanner(mdm);
       planner = new Planner(qp, up);
       tx.commit();
+      if (CHECKPOINT_INTERVAL > 0) {
+         checkpointer = new Checkpointer(lm, bm, CHECKPOINT_INTERVAL);
+         checkpointer.start();
+      }
    }
    
    /**
@@ -71,6 +104,15 @@ public class SimpleDB {
       return new Transaction(fm, lm, bm);
    }
    
+   /**
+    * Creates a transaction that is read-only if specified.
+    * A read-only transaction reads a snapshot of the
+    * database without taking shared locks.
+    */
+   public Transaction newTx(boolean readOnly) {
+      return new Transaction(fm, lm, bm, readOnly);
+   }
+   
    public MetadataMgr mdMgr() {
       return mdm;
    }
@@ -37,6 +37,20 @@ class BufferList {
       buffers.put(blk, buff);
       pins.add(blk);
    }
+
+   /**
+    * Pin a range of consecutive blocks of a file
+    * and keep track of the buffers internally.
+    * @param filename the name of the file
+    * @param first the number of the first block
+    * @param last the number of the last block
+    */
+   void pinBlocks(String filename, int first, int last) {
+      for (Buffer buff : bm.pinBlocks(filename, first, last)) {
+         buffers.put(buff.block(), buff);
+         pins.add(buff.block());
+      }
+   }
    
    /**
     * Unpin the specified block.
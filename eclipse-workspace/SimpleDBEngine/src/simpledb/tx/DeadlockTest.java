@@ -0,0 +1,61 @@
+package simpledb.tx;
+
+import java.util.concurrent.CountDownLatch;
+import simpledb.file.BlockId;
+import simpledb.server.SimpleDB;
+import simpledb.tx.concurrency.*;
+
+/**
+ * Runs two transactions that lock two blocks in opposite orders,
+ * under each deadlock policy, and reports which transaction
+ * was aborted and how long it took to break the deadlock.
+ */
+public class DeadlockTest {
+   private static SimpleDB db;
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("deadlocktest", 400, 8);
+      Transaction tx = db.newTx();
+      for (int i=0; i<2; i++)
+         tx.append("testfile");
+      tx.commit();
+
+      String[] policies = {"detect", "wait-die", "wound-wait"};
+      for (String policy : policies) {
+         ConcurrencyMgr.setDeadlockPolicy(policy);
+         Transaction tx1 = db.newTx();
+         Transaction tx2 = db.newTx();
+         CountDownLatch bothLocked = new CountDownLatch(2);
+         long start = System.nanoTime();
+         Thread t1 = new Thread(() -> run("tx1", tx1, 0, 1, bothLocked));
+         Thread t2 = new Thread(() -> run("tx2", tx2, 1, 0, bothLocked));
+         t1.start(); t2.start();
+         t1.join(); t2.join();
+         long elapsed = (System.nanoTime() - start) / 1000000;
+         System.out.println(policy + ": deadlock resolved in " + elapsed + " ms\n");
+      }
+      ConcurrencyMgr.setDeadlockPolicy(SimpleDB.DEADLOCK_POLICY);
+   }
+
+   private static void run(String name, Transaction tx, int first, int second,
+                           CountDownLatch bothLocked) {
+      BlockId blk1 = new BlockId("testfile", first);
+      BlockId blk2 = new BlockId("testfile", second);
+      try {
+         tx.pin(blk1);
+         tx.pin(blk2);
+         tx.setInt(blk1, 0, first, false);
+         bothLocked.countDown();
+         bothLocked.await();
+         tx.setInt(blk2, 0, first, false);
+         tx.commit();
+      }
+      catch(LockAbortException e) {
+         System.out.println(name + " aborted");
+         tx.rollback();
+      }
+      catch(InterruptedException e) {
+         tx.rollback();
+      }
+   }
+}
@@ -0,0 +1,113 @@
+package simpledb.tx;
+
+import simpledb.server.SimpleDB;
+import simpledb.record.*;
+
+/**
+ * Checks that read-only transactions read a consistent snapshot
+ * without locking: they neither wait for writers nor make
+ * writers wait, and they do not see changes committed
+ * after they began. They may write temporary tables,
+ * but not the database.
+ */
+public class SnapshotTest {
+   private static Layout layout;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("snapshottest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 9);
+      layout = new Layout(sch);
+
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int i=0; i<20; i++) {
+         ts.insert();
+         ts.setInt("A", i);
+         ts.setString("B", "rec" + i);
+      }
+      ts.close();
+      tx.commit();
+
+      Transaction writer = db.newTx();
+      TableScan ws = new TableScan(writer, "T", layout);
+      while (ws.next()) {
+         ws.setInt("A", ws.getInt("A") + 100);
+         ws.setString("B", "new" + ws.getInt("A"));
+      }
+      ws.beforeFirst();
+      ws.next();
+      ws.delete();
+      ws.insert();
+      ws.setInt("A", 999);
+
+      Transaction reader1 = db.newTx(true);
+      check("reader1 before the commit", contents(reader1), "0..19");
+      ws.close();
+      writer.commit();
+      check("reader1 after the commit", contents(reader1), "0..19");
+
+      Transaction reader2 = db.newTx(true);
+      check("reader2", contents(reader2), "101..119,999");
+
+      Transaction writer2 = db.newTx();
+      TableScan ws2 = new TableScan(writer2, "T", layout);
+      while (ws2.next())
+         ws2.setInt("A", -1);
+      ws2.close();
+      check("reader2 during a second update", contents(reader2), "101..119,999");
+      writer2.rollback();
+
+      reader1.commit();
+      reader2.commit();
+      check("a new reader", contents(db.newTx(true)), "101..119,999");
+
+      Transaction reader3 = db.newTx(true);
+      TableScan temp = new TableScan(reader3, "tempsnapshot", layout);
+      temp.insert();
+      temp.setInt("A", 1);
+      temp.close();
+      TableScan rs = new TableScan(reader3, "T", layout);
+      rs.next();
+      try {
+         rs.setInt("A", 0);
+         throw new RuntimeException("a read-only transaction wrote the database");
+      }
+      catch(IllegalStateException e) {
+         System.out.println("a read-only transaction cannot write: " + e.getMessage());
+      }
+      rs.close();
+      reader3.rollback();
+      check("a reader after the refused write", contents(db.newTx(true)), "101..119,999");
+   }
+
+   private static String contents(Transaction tx) {
+      TableScan ts = new TableScan(tx, "T", layout);
+      StringBuilder result = new StringBuilder();
+      Integer first = null;
+      int prev = 0;
+      while (ts.next()) {
+         int a = ts.getInt("A");
+         String b = ts.getString("B");
+         if (!b.equals("rec" + a) && !b.equals("new" + a) && a != 999)
+            throw new RuntimeException("inconsistent record " + a + " " + b);
+         if (first == null)
+            first = a;
+         else if (a != prev + 1) {
+            result.append(first == prev ? first + "," : first + ".." + prev + ",");
+            first = a;
+         }
+         prev = a;
+      }
+      result.append(first == prev ? "" + first : first + ".." + prev);
+      ts.close();
+      return result.toString();
+   }
+
+   private static void check(String msg, String actual, String expected) {
+      System.out.println(msg + " sees " + actual);
+      if (!actual.equals(expected))
+         throw new RuntimeException("expected " + expected);
+   }
+}
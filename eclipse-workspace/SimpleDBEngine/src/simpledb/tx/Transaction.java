@@ -1,5 +1,6 @@
 package simpledb.tx;
 
+import java.util.concurrent.locks.Lock;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.buffer.*;
@@ -14,7 +15,6 @@ import simpledb.tx.concurrency.ConcurrencyMgr;
  */
 public class Transaction {
    private static int nextTxNum = 0;
-   private static final int END_OF_FILE = -1;
    private RecoveryMgr    recoveryMgr;
    private ConcurrencyMgr concurMgr;
    private BufferMgr bm;
@@ -35,46 +35,58 @@ public class Transaction {
     * is called first.
     */
    public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm) {
+      this(fm, lm, bm, false);
+   }
+
+   /**
+    * Create a new transaction, which is read-only if specified.
+    * A read-only transaction takes no shared locks; it reads
+    * the database as it was committed when the transaction began.
+    * It may still write temporary tables.
+    * @param readOnly true if the transaction is read-only
+    */
+   public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm, boolean readOnly) {
       this.fm = fm;
       this.bm = bm;
       txnum       = nextTxNumber();
       recoveryMgr = new RecoveryMgr(this, txnum, lm, bm);
-      concurMgr   = new ConcurrencyMgr();
+      concurMgr   = new ConcurrencyMgr(txnum, readOnly);
       mybuffers = new BufferList(bm);
    }
    
    /**
     * Commit the current transaction.
-    * Flush all modified buffers (and their log records),
-    * write and flush a commit record to the log,
+    * Write and flush a commit record to the log,
     * release all locks, and unpin any pinned buffers.
+    * The modified buffers are not flushed, because
+    * their changes can be redone from the log.
     */
    public void commit() {
       recoveryMgr.commit();
       System.out.println("transaction " + txnum + " committed");
-      concurMgr.release();
+      concurMgr.commit();
       mybuffers.unpinAll();
    }
    
    /**
     * Rollback the current transaction.
     * Undo any modified values,
-    * flush those buffers,
-    * write and flush a rollback record to the log,
+    * write a rollback record to the log,
     * release all locks, and unpin any pinned buffers.
     */
    public void rollback() {
       recoveryMgr.rollback();
       System.out.println("transaction " + txnum + " rolled back");
-      concurMgr.release();
+      concurMgr.rollback();
       mybuffers.unpinAll();
    }
    
    /**
     * Flush all modified buffers.
-    * Then go through the log, rolling back all
+    * Then go through the log, redoing the changes
+    * missing from disk and rolling back all
     * uncommitted transactions.  Finally, 
-    * write a quiescent checkpoint record to the log.
+    * write a checkpoint record to the log.
     * This method is called during system startup,
     * before user transactions begin.
     */
@@ -92,21 +104,94 @@ public class Transaction {
       mybuffers.pin(blk);
    }
    
+   /**
+    * Pin the consecutive blocks of a file in the specified range.
+    * The blocks that are not already in the buffer pool
+    * are read with as few vectored reads as possible.
+    * Each block must later be unpinned individually.
+    * @param filename the name of the file
+    * @param first the number of the first block
+    * @param last the number of the last block
+    */
+   public void pinBlocks(String filename, int first, int last) {
+      mybuffers.pinBlocks(filename, first, last);
+   }
+
    /**
     * Unpin the specified block.
-    * The transaction looks up the buffer pinned to this block,
-    * and unpins it.
+    * The transaction logs its pending change to a slot
+    * of the block, if any, then looks up the buffer
+    * pinned to this block, and unpins it.
     * @param blk a reference to the disk block
     */
    public void unpin(BlockId blk) {
+      recoveryMgr.logPending(blk);
       mybuffers.unpin(blk);
    }
    
+   /**
+    * Declare that the transaction will lock the records
+    * of the specified block individually.
+    * The block and its file get intention locks, and
+    * the block itself is read and written without being locked.
+    * @param blk a reference to the disk block
+    */
+   public void intentLock(BlockId blk) {
+      concurMgr.isLock(blk);
+   }
+
+   /**
+    * Obtain an SLock on the record in the specified slot
+    * of the block. The transaction then reads the fields of
+    * the record without locking the block as a whole.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    */
+   public void sLockRecord(BlockId blk, int slot) {
+      concurMgr.sLockRecord(blk, slot);
+   }
+
+   /**
+    * Obtain an XLock on the record in the specified slot
+    * of the block. The transaction then writes the fields of
+    * the record without locking the block as a whole.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    */
+   public void xLockRecord(BlockId blk, int slot) {
+      concurMgr.xLockRecord(blk, slot);
+   }
+
+   /**
+    * Obtain an XLock on the record in the specified slot
+    * of the block, provided that it can be obtained without waiting.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    * @return true if the record was locked
+    */
+   public boolean tryXLockRecord(BlockId blk, int slot) {
+      return concurMgr.tryXLockRecord(blk, slot);
+   }
+
+   /**
+    * Return true if another transaction holds an XLock on the
+    * record in the specified slot of the block.
+    * Nothing is locked, and the method does not wait.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    * @return true if the record is xlocked by another transaction
+    */
+   public boolean isXLockedRecord(BlockId blk, int slot) {
+      return concurMgr.isXLockedRecord(blk, slot);
+   }
+
    /**
     * Return the integer value stored at the
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
-    * then it calls the buffer to retrieve the value.
+    * then it retrieves the value from the buffer
+    * while holding the buffer's shared latch.
+    * A read-only transaction gets the value in its snapshot instead.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the integer stored at that offset
@@ -114,14 +199,27 @@ public class Transaction {
    public int getInt(BlockId blk, int offset) {
       concurMgr.sLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      return buff.contents().getInt(offset);
+      int val;
+      Lock latch = buff.readLatch();
+      latch.lock();
+      try {
+         val = buff.contents().getInt(offset);
+      }
+      finally {
+         latch.unlock();
+      }
+      if (concurMgr.needsSnapshot(blk))
+         val = (Integer) concurMgr.snapshotValue(blk, offset, val);
+      return val;
    }
    
    /**
     * Return the string value stored at the
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
-    * then it calls the buffer to retrieve the value.
+    * then it retrieves the value from the buffer
+    * while holding the buffer's shared latch.
+    * A read-only transaction gets the value in its snapshot instead.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the string stored at that offset
@@ -129,93 +227,363 @@ public class Transaction {
    public String getString(BlockId blk, int offset) {
       concurMgr.sLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      return buff.contents().getString(offset);
+      String val;
+      Lock latch = buff.readLatch();
+      latch.lock();
+      try {
+         val = buff.contents().getString(offset);
+      }
+      finally {
+         latch.unlock();
+      }
+      if (concurMgr.needsSnapshot(blk))
+         val = (String) concurMgr.snapshotValue(blk, offset, val);
+      return val;
+   }
+   
+   /**
+    * Compare the string stored at the specified offset
+    * of the specified block with the specified string,
+    * without creating a String for the stored value.
+    * The method first obtains an SLock on the block.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param val the string to compare with
+    * @return a negative, zero or positive result, as for String.compareTo
+    */
+   public int compareString(BlockId blk, int offset, String val) {
+      concurMgr.sLock(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      int result;
+      Lock latch = buff.readLatch();
+      latch.lock();
+      try {
+         result = buff.contents().compareString(offset, val);
+      }
+      finally {
+         latch.unlock();
+      }
+      if (concurMgr.needsSnapshot(blk))
+         result = getString(blk, offset).compareTo(val);
+      return result;
+   }
+   
+   /**
+    * Return the hash code of the string stored at the
+    * specified offset of the specified block,
+    * without creating a String for the stored value.
+    * The method first obtains an SLock on the block.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @return the hash code of the stored string
+    */
+   public int hashString(BlockId blk, int offset) {
+      concurMgr.sLock(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      int result;
+      Lock latch = buff.readLatch();
+      latch.lock();
+      try {
+         result = buff.contents().hashString(offset);
+      }
+      finally {
+         latch.unlock();
+      }
+      if (concurMgr.needsSnapshot(blk))
+         result = getString(blk, offset).hashCode();
+      return result;
    }
    
    /**
     * Store an integer at the specified offset 
     * of the specified block.
-    * The method first obtains an XLock on the block.
+    * The method first obtains an XLock on the block,
+    * and logs the transaction's pending change to a slot, if any.
     * It then reads the current value at that offset,
     * puts it into an update log record, and 
     * writes that record to the log.
+    * The current value is also saved for the snapshots
+    * of read-only transactions.
     * Finally, it calls the buffer to store the value,
     * passing in the LSN of the log record and the transaction's id. 
+    * The buffer's exclusive latch is held from the
+    * logging of the value to its storing.
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
     */
    public void setInt(BlockId blk, int offset, int val, boolean okToLog) {
       concurMgr.xLock(blk);
-      Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
       if (okToLog)
-         lsn = recoveryMgr.setInt(buff, offset, val);
-      Page p = buff.contents();
-      p.setInt(offset, val);
-      buff.setModified(txnum, lsn);
+         recoveryMgr.logPending();
+      Buffer buff = mybuffers.getBuffer(blk);
+      Lock latch = buff.writeLatch();
+      latch.lock();
+      try {
+         buff.makeWritable();
+         Page p = buff.contents();
+         long lsn = -1;
+         if (okToLog) {
+            lsn = recoveryMgr.setInt(buff, offset, val);
+            concurMgr.saveValue(blk, offset, p.getInt(offset));
+         }
+         p.setInt(offset, val);
+         buff.setModified(txnum, lsn);
+      }
+      finally {
+         latch.unlock();
+      }
    }
    
    /**
     * Store a string at the specified offset 
     * of the specified block.
-    * The method first obtains an XLock on the block.
+    * The method first obtains an XLock on the block,
+    * and logs the transaction's pending change to a slot, if any.
     * It then reads the current value at that offset,
     * puts it into an update log record, and 
     * writes that record to the log.
+    * The current value is also saved for the snapshots
+    * of read-only transactions.
     * Finally, it calls the buffer to store the value,
     * passing in the LSN of the log record and the transaction's id. 
+    * The buffer's exclusive latch is held from the
+    * logging of the value to its storing.
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
     */
    public void setString(BlockId blk, int offset, String val, boolean okToLog) {
       concurMgr.xLock(blk);
-      Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
       if (okToLog)
-         lsn = recoveryMgr.setString(buff, offset, val);
-      Page p = buff.contents();
-      p.setString(offset, val);
-      buff.setModified(txnum, lsn);
+         recoveryMgr.logPending();
+      Buffer buff = mybuffers.getBuffer(blk);
+      Lock latch = buff.writeLatch();
+      latch.lock();
+      try {
+         buff.makeWritable();
+         Page p = buff.contents();
+         long lsn = -1;
+         if (okToLog) {
+            lsn = recoveryMgr.setString(buff, offset, val);
+            concurMgr.saveValue(blk, offset, p.getString(offset));
+         }
+         p.setString(offset, val);
+         buff.setModified(txnum, lsn);
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Mark the record in the specified slot as inserted,
+    * by storing the specified flag at the slot's offset.
+    * The method first obtains an XLock on the block.
+    * The insertion is logged as a single record, together with
+    * the values then given to the record's fields by
+    * {@link #setFieldInt} and {@link #setFieldString};
+    * the record is written when the transaction changes
+    * another slot, unpins the block, or completes.
+    * @param blk a reference to the disk block
+    * @param slotpos the byte offset of the slot within that block
+    * @param flag the slot's new flag
+    */
+   public void insertSlot(BlockId blk, int slotpos, int flag) {
+      concurMgr.xLock(blk);
+      recoveryMgr.logPending();
+      Buffer buff = mybuffers.getBuffer(blk);
+      Lock latch = buff.writeLatch();
+      latch.lock();
+      try {
+         buff.makeWritable();
+         Page p = buff.contents();
+         recoveryMgr.insertSlot(buff, slotpos, flag);
+         concurMgr.saveValue(blk, slotpos, p.getInt(slotpos));
+         p.setInt(slotpos, flag);
+         buff.setModified(txnum, -1);
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Mark the record in the specified slot as deleted,
+    * by storing the specified flag at the slot's offset.
+    * The method first obtains an XLock on the block.
+    * The deletion is logged as a single record.
+    * @param blk a reference to the disk block
+    * @param slotpos the byte offset of the slot within that block
+    * @param flag the slot's new flag
+    */
+   public void deleteSlot(BlockId blk, int slotpos, int flag) {
+      concurMgr.xLock(blk);
+      recoveryMgr.logPending();
+      Buffer buff = mybuffers.getBuffer(blk);
+      Lock latch = buff.writeLatch();
+      latch.lock();
+      try {
+         buff.makeWritable();
+         Page p = buff.contents();
+         long lsn = recoveryMgr.deleteSlot(buff, slotpos, flag);
+         concurMgr.saveValue(blk, slotpos, p.getInt(slotpos));
+         p.setInt(slotpos, flag);
+         buff.setModified(txnum, lsn);
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Store an integer in a field of the record
+    * in the specified slot.
+    * The method first obtains an XLock on the block.
+    * The change is added to the log record of the slot's
+    * insertion or update, which is written when the
+    * transaction changes another slot, unpins the block,
+    * or completes.
+    * @param blk a reference to the disk block
+    * @param slotpos the byte offset of the slot within that block
+    * @param offset the byte offset of the field within that block
+    * @param val the value to be stored
+    */
+   public void setFieldInt(BlockId blk, int slotpos, int offset, int val) {
+      setField(blk, slotpos, offset, val);
+   }
+
+   /**
+    * Store a string in a field of the record
+    * in the specified slot.
+    * The change is logged as for {@link #setFieldInt}.
+    * @param blk a reference to the disk block
+    * @param slotpos the byte offset of the slot within that block
+    * @param offset the byte offset of the field within that block
+    * @param val the value to be stored
+    */
+   public void setFieldString(BlockId blk, int slotpos, int offset, String val) {
+      setField(blk, slotpos, offset, val);
+   }
+
+   /**
+    * Restore values that were overwritten by a change
+    * that is being undone.
+    * The restore is logged as a compensation record of the
+    * transaction that made the change, so that it is redone,
+    * but not undone, after a crash.
+    * The values are not saved for the snapshots of read-only
+    * transactions, which never see the undone change.
+    * @param undoTx the transaction whose change is undone
+    * @param blk a reference to the disk block
+    * @param offsets the byte offsets of the values within that block
+    * @param vals the values to be restored, each an Integer or a String
+    */
+   public void undoValues(int undoTx, BlockId blk, int[] offsets, Object[] vals) {
+      concurMgr.xLock(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      Lock latch = buff.writeLatch();
+      latch.lock();
+      try {
+         buff.makeWritable();
+         long lsn = recoveryMgr.compensate(undoTx, blk, offsets, vals);
+         Page p = buff.contents();
+         for (int i=0; i<offsets.length; i++) {
+            if (vals[i] instanceof Integer)
+               p.setInt(offsets[i], (Integer) vals[i]);
+            else
+               p.setString(offsets[i], (String) vals[i]);
+         }
+         buff.setModified(txnum, lsn);
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Tell the buffer manager that the specified blocks
+    * will be pinned soon, so that it can read them ahead.
+    * No locks are obtained; the blocks must still be
+    * pinned and locked before they are used.
+    * @param filename the name of the file
+    * @param first the number of the first block
+    * @param last the number of the last block
+    */
+   public void prefetch(String filename, int first, int last) {
+      bm.prefetch(filename, first, last);
    }
 
    /**
     * Return the number of blocks in the specified file.
-    * This method first obtains an SLock on the 
-    * "end of the file", before asking the file manager
-    * to return the file size.
+    * No lock is obtained, so a concurrent transaction
+    * may append blocks to the file; those blocks are
+    * xlocked by the appending transaction.
+    * Phantoms are therefore not prevented.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
    public int size(String filename) {
-      BlockId dummyblk = new BlockId(filename, END_OF_FILE);
-      concurMgr.sLock(dummyblk);
       return fm.length(filename);
    }
    
    /**
-    * Append a new block to the end of the specified file
-    * and returns a reference to it.
-    * This method first obtains an XLock on the
-    * "end of the file", before performing the append.
+    * Append a new block to the end of the specified file,
+    * xlock it, and return a reference to it.
+    * Appends to the file are serialized by the file manager
+    * only for the duration of the append,
+    * so concurrent inserts into a table do not wait for
+    * each other's transactions to finish.
     * @param filename the name of the file
     * @return a reference to the newly-created disk block
     */
    public BlockId append(String filename) {
-      BlockId dummyblk = new BlockId(filename, END_OF_FILE);
-      concurMgr.xLock(dummyblk);
-      return fm.append(filename);
+      BlockId blk = fm.append(filename);
+      concurMgr.xLock(blk);
+      return blk;
    }
    
+   /**
+    * Return the number of bytes of a block that are available
+    * for data. The last bytes of each block hold its page LSN.
+    * @return the usable size of a block
+    */
    public int blockSize() {
-      return fm.blockSize();
+      return fm.blockSize() - Long.BYTES;
    }
    
    public int availableBuffs() {
       return bm.available();
    }
    
+   private void setField(BlockId blk, int slotpos, int offset, Object val) {
+      concurMgr.xLock(blk);
+      if (!recoveryMgr.hasPending(blk, slotpos))
+         recoveryMgr.logPending();
+      Buffer buff = mybuffers.getBuffer(blk);
+      Lock latch = buff.writeLatch();
+      latch.lock();
+      try {
+         buff.makeWritable();
+         Page p = buff.contents();
+         Object oldval;
+         if (val instanceof Integer) {
+            oldval = p.getInt(offset);
+            p.setInt(offset, (Integer) val);
+         }
+         else {
+            oldval = p.getString(offset);
+            p.setString(offset, (String) val);
+         }
+         recoveryMgr.setField(buff, slotpos, offset, oldval, val);
+         concurMgr.saveValue(blk, offset, oldval);
+         buff.setModified(txnum, -1);
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
    private static synchronized int nextTxNumber() {
       nextTxNum++;
       return nextTxNum;
@@ -9,6 +9,19 @@ import simpledb.file.BlockId;
  * The concurrency manager keeps track of which locks the 
  * transaction currently has, and interacts with the
  * global lock table as needed. 
+ * <P>
+ * Locks are hierarchical: a file contains blocks, and a block
+ * contains records. Before a block or record is locked,
+ * the items containing it are given the corresponding
+ * intention lock (IS for reading, IX for writing).
+ * A transaction either locks a block as a whole, or locks
+ * its records individually; in the latter case it holds
+ * an intention lock on the block.
+ * <P>
+ * A read-only transaction takes no shared locks. Instead, it reads
+ * the snapshot of the database that was committed when it began,
+ * as reconstructed from the before-images in the global version store.
+ * It may write temporary tables, but not the database.
  * @author Edward Sciore
  */
 public class ConcurrencyMgr {
@@ -18,48 +31,281 @@ public class ConcurrencyMgr {
     * all transactions share the same table.
     */
    private static LockTable locktbl = new LockTable();
-   private Map<BlockId,String> locks  = new HashMap<BlockId,String>();
+   private static VersionStore versions = new VersionStore();
+   private Map<Object,Integer> locks = new HashMap<Object,Integer>();
+   private int txnum;
+   private boolean readOnly;
+   private long snapshot;
+
+   /**
+    * A record, identified by its block and slot.
+    */
+   private static class RecordId {
+      private BlockId blk;
+      private int slot;
+
+      RecordId(BlockId blk, int slot) {
+         this.blk = blk;
+         this.slot = slot;
+      }
+
+      public boolean equals(Object obj) {
+         if (!(obj instanceof RecordId))
+            return false;
+         RecordId r = (RecordId) obj;
+         return slot == r.slot && blk.equals(r.blk);
+      }
+
+      public int hashCode() {
+         return 31 * blk.hashCode() + slot;
+      }
+   }
+
+   /**
+    * Create a concurrency manager for the specified transaction.
+    * The transaction number is its age for the deadlock policies.
+    * @param txnum the number of the transaction
+    */
+   public ConcurrencyMgr(int txnum) {
+      this(txnum, false);
+   }
+
+   /**
+    * Create a concurrency manager for the specified transaction,
+    * which reads a snapshot of the database if it is read-only.
+    * @param txnum the number of the transaction
+    * @param readOnly true if the transaction is read-only
+    */
+   public ConcurrencyMgr(int txnum, boolean readOnly) {
+      this.txnum = txnum;
+      this.readOnly = readOnly;
+      if (readOnly)
+         snapshot = versions.begin();
+   }
+
+   /**
+    * Set the policy that the lock table uses to handle deadlocks:
+    * "detect", "wait-die" or "wound-wait".
+    * @param policy the name of the policy
+    */
+   public static void setDeadlockPolicy(String policy) {
+      locktbl.setPolicy(policy);
+   }
 
    /**
     * Obtain an SLock on the block, if necessary.
-    * The method will ask the lock table for an SLock
-    * if the transaction currently has no locks on that block.
+    * The file is first given an IS lock.
+    * If the transaction locks the records of the block
+    * individually, the block is not locked; the caller
+    * is responsible for locking the records it reads.
     * @param blk a reference to the disk block
     */
    public void sLock(BlockId blk) {
-      if (locks.get(blk) == null) {
-         locktbl.sLock(blk);
-         locks.put(blk, "S");
+      if (!readOnly && locks.get(blk) == null) {
+         lock(blk.fileName(), LockTable.IS);
+         lock(blk, LockTable.S);
       }
    }
 
    /**
     * Obtain an XLock on the block, if necessary.
-    * If the transaction does not have an XLock on that block,
-    * then the method first gets an SLock on that block
-    * (if necessary), and then upgrades it to an XLock.
+    * The file is first given an IX lock.
+    * If the transaction locks the records of the block
+    * individually, the block is not locked; the caller
+    * is responsible for locking the records it writes.
+    * A read-only transaction may only lock temporary blocks.
     * @param blk a reference to the disk block
+    * @throws IllegalStateException if the transaction is read-only
     */
    public void xLock(BlockId blk) {
-      if (!hasXLock(blk)) {
-         sLock(blk);
-         locktbl.xLock(blk);
-         locks.put(blk, "X");
+      checkWritable(blk);
+      Integer mode = locks.get(blk);
+      if (mode == null || mode == LockTable.S) {
+         lock(blk.fileName(), LockTable.IX);
+         lock(blk, LockTable.X);
+      }
+   }
+
+   /**
+    * Obtain IS locks on the block and its file, if necessary.
+    * The transaction then locks the records of the block
+    * individually, and may read the block without locking it.
+    * @param blk a reference to the disk block
+    */
+   public void isLock(BlockId blk) {
+      if (readOnly)
+         return;
+      lock(blk.fileName(), LockTable.IS);
+      lock(blk, LockTable.IS);
+   }
+
+   /**
+    * Obtain an SLock on the record in the specified slot
+    * of the block, together with IS locks on the block
+    * and its file.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    */
+   public void sLockRecord(BlockId blk, int slot) {
+      if (readOnly)
+         return;
+      RecordId rec = new RecordId(blk, slot);
+      if (locks.get(rec) == null) {
+         lock(blk.fileName(), LockTable.IS);
+         lock(blk, LockTable.IS);
+         lock(rec, LockTable.S);
+      }
+   }
+
+   /**
+    * Obtain an XLock on the record in the specified slot
+    * of the block, together with IX locks on the block
+    * and its file.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    */
+   public void xLockRecord(BlockId blk, int slot) {
+      checkWritable(blk);
+      RecordId rec = new RecordId(blk, slot);
+      if (!hasXLock(rec)) {
+         lock(blk.fileName(), LockTable.IX);
+         lock(blk, LockTable.IX);
+         lock(rec, LockTable.X);
       }
    }
 
+   /**
+    * Obtain an XLock on the record in the specified slot
+    * of the block if no other transaction holds or waits
+    * for a lock on it. The intention locks on the block
+    * and its file are obtained as for {@link #xLockRecord}.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    * @return true if the record was locked
+    */
+   public boolean tryXLockRecord(BlockId blk, int slot) {
+      checkWritable(blk);
+      RecordId rec = new RecordId(blk, slot);
+      if (hasXLock(rec))
+         return true;
+      lock(blk.fileName(), LockTable.IX);
+      lock(blk, LockTable.IX);
+      if (!locktbl.tryLock(rec, txnum, LockTable.X))
+         return false;
+      locks.put(rec, LockTable.X);
+      return true;
+   }
+
+   /**
+    * Return true if another transaction holds an XLock on the
+    * record in the specified slot of the block, such as one
+    * whose deletion of the record has not committed.
+    * A read-only transaction never waits for such a record,
+    * because it reads the record's flag in its snapshot.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    * @return true if the record is xlocked by another transaction
+    */
+   public boolean isXLockedRecord(BlockId blk, int slot) {
+      if (readOnly)
+         return false;
+      return locktbl.heldByOther(new RecordId(blk, slot), txnum, LockTable.S);
+   }
+
+   /**
+    * Save the value at the specified offset of the block,
+    * which the transaction is about to overwrite,
+    * so that snapshots can still read it.
+    * @param blk a reference to the disk block
+    * @param offset the offset of the value
+    * @param oldval the value, an Integer or a String
+    */
+   public void saveValue(BlockId blk, int offset, Object oldval) {
+      versions.save(txnum, blk, offset, oldval);
+   }
+
+   /**
+    * Return true if values read from the block have to be
+    * passed through {@link #snapshotValue}, that is, if the
+    * transaction is read-only and the block has been changed
+    * since some active snapshot began.
+    * @param blk a reference to the disk block
+    * @return true if the block's values may differ in the snapshot
+    */
+   public boolean needsSnapshot(BlockId blk) {
+      return readOnly && versions.hasVersions(blk);
+   }
+
+   /**
+    * Return the value at the specified offset of the block
+    * as the transaction's snapshot sees it.
+    * @param blk a reference to the disk block
+    * @param offset the offset of the value
+    * @param current the value currently stored there
+    * @return the value in the snapshot
+    */
+   public Object snapshotValue(BlockId blk, int offset, Object current) {
+      return versions.asOf(blk, offset, current, snapshot, txnum);
+   }
+
+   /**
+    * Record that the transaction has committed,
+    * so that later snapshots see its changes,
+    * and release its locks.
+    */
+   public void commit() {
+      versions.commit(txnum);
+      release();
+   }
+
+   /**
+    * Discard the before-images of the transaction,
+    * whose changes have been undone, and release its locks.
+    */
+   public void rollback() {
+      versions.rollback(txnum);
+      release();
+   }
+
    /**
     * Release all locks by asking the lock table to
-    * unlock each one.
+    * unlock each one, and end the transaction's snapshot.
     */
    public void release() {
-      for (BlockId blk : locks.keySet()) 
-         locktbl.unlock(blk);
+      for (Object item : locks.keySet()) 
+         locktbl.unlock(item, txnum);
       locks.clear();
+      locktbl.release(txnum);
+      if (readOnly) {
+         versions.end(snapshot);
+         readOnly = false;
+      }
+   }
+
+   /**
+    * Obtains a lock of the specified mode on the item,
+    * unless the transaction already holds a lock that covers it.
+    */
+   private void lock(Object item, int mode) {
+      Integer held = locks.get(item);
+      if (held != null && LockTable.covers(held, mode))
+         return;
+      locktbl.lock(item, txnum, mode);
+      locks.put(item, (held == null) ? mode : LockTable.combine(held, mode));
+   }
+
+   /**
+    * Refuses a write of a read-only transaction to the database,
+    * because the values it read come from an earlier snapshot.
+    */
+   private void checkWritable(BlockId blk) {
+      if (readOnly && !blk.fileName().startsWith("temp"))
+         throw new IllegalStateException("read-only transaction " + txnum
+               + " cannot write " + blk);
    }
 
-   private boolean hasXLock(BlockId blk) {
-      String locktype = locks.get(blk);
-      return locktype != null && locktype.equals("X");
+   private boolean hasXLock(Object item) {
+      Integer mode = locks.get(item);
+      return mode != null && mode == LockTable.X;
    }
 }
@@ -1,103 +1,512 @@
 package simpledb.tx.concurrency;
 
 import java.util.*;
-import simpledb.file.BlockId;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.*;
 
 /**
- * The lock table, which provides methods to lock and unlock blocks.
- * If a transaction requests a lock that causes a conflict with an
- * existing lock, then that transaction is placed on a wait list.
- * There is only one wait list for all blocks.
- * When the last lock on a block is unlocked, then all transactions
- * are removed from the wait list and rescheduled.
- * If one of those transactions discovers that the lock it is waiting for
- * is still locked, it will place itself back on the wait list.
+ * The lock table, which provides methods to lock and unlock
+ * the items of the database: tables, blocks and records.
+ * An item is locked in one of five modes: shared (S), exclusive (X),
+ * intention-shared (IS), intention-exclusive (IX), and shared with
+ * intention-exclusive (SIX), with the usual compatibilities.
+ * The table is divided into stripes, each having its own lock,
+ * and the locks of an item are kept in the stripe its id hashes to,
+ * so that requests for items in different stripes do not contend.
+ * <P>
+ * Each locked item has a set of holders and a FIFO queue of
+ * waiting requests. A request is granted when it is compatible
+ * with the holders and with every request ahead of it in the queue.
+ * When a lock is released, the requests that have become
+ * grantable are granted, and only those waiters are woken.
+ * A request for a stronger mode of a lock that the transaction
+ * already holds is an upgrade, and is queued ahead of the new requests.
+ * <P>
+ * Deadlocks are handled according to the table's policy:
+ * <UL>
+ * <LI>"detect" keeps a waits-for graph of the waiting transactions,
+ *     and refuses a request that would close a cycle in it.
+ * <LI>"wait-die" lets a transaction wait only for younger transactions;
+ *     a request that would wait for an older one is refused.
+ * <LI>"wound-wait" lets a transaction wait only for older transactions;
+ *     the younger transactions it would wait for are wounded, which means
+ *     that they are aborted when they wait for, or next request, a lock.
+ * </UL>
+ * A transaction's age is given by its number.
+ * A refused request throws a {@link LockAbortException},
+ * and the transaction is then expected to roll back.
  * @author Edward Sciore
  */
 class LockTable {
-   private static final long MAX_TIME = 10000; // 10 seconds
-   
-   private Map<BlockId,Integer> locks = new HashMap<BlockId,Integer>();
-   
-   /**
-    * Grant an SLock on the specified block.
-    * If an XLock exists when the method is called,
-    * then the calling thread will be placed on a wait list
-    * until the lock is released.
-    * If the thread remains on the wait list for a certain 
-    * amount of time (currently 10 seconds),
-    * then an exception is thrown.
-    * @param blk a reference to the disk block
-    */
-   public synchronized void sLock(BlockId blk) {
+   static final String DETECT = "detect", WAIT_DIE = "wait-die",
+                       WOUND_WAIT = "wound-wait";
+   static final int IS = 0, IX = 1, S = 2, SIX = 3, X = 4;
+   private static final boolean[][] COMPATIBLE = {
+      // IS     IX     S      SIX    X
+      {  true,  true,  true,  true,  false },  // IS
+      {  true,  true,  false, false, false },  // IX
+      {  true,  false, true,  false, false },  // S
+      {  true,  false, false, false, false },  // SIX
+      {  false, false, false, false, false }   // X
+   };
+   private static final int NUM_STRIPES = 64;
+
+   private Stripe[] stripes = new Stripe[NUM_STRIPES];
+   private volatile String policy = DETECT;
+   private Map<Integer,Set<Integer>> waitsFor = new HashMap<>();
+   private Map<Integer,Request> waiting = new ConcurrentHashMap<>();
+   private Set<Integer> wounded = ConcurrentHashMap.newKeySet();
+
+   private static class Stripe {
+      ReentrantLock lock = new ReentrantLock();
+      Map<Object,LockEntry> entries = new HashMap<>();
+   }
+
+   /**
+    * The holders of the locks on an item and the queue
+    * of requests waiting for them.
+    */
+   private static class LockEntry {
+      Map<Integer,Integer> holders = new HashMap<>();
+      LinkedList<Request> queue = new LinkedList<>();
+   }
+
+   /**
+    * A waiting request. The blockers are the transactions
+    * that the request currently waits for. A request is queued
+    * if it is compatible with the holders, so that it waits only
+    * because of its place in the queue; such a request may be
+    * asked to jump ahead of the queue to break a deadlock.
+    */
+   private static class Request {
+      int txnum;
+      int mode;
+      boolean upgrade;
+      ReentrantLock lock;
+      Condition cond;
+      boolean granted = false;
+      boolean recheck = false;
+      volatile boolean queued = false;
+      volatile boolean jump = false;
+      Set<Integer> blockers = Collections.emptySet();
+
+      Request(int txnum, int mode, boolean upgrade, ReentrantLock lock) {
+         this.txnum = txnum;
+         this.mode = mode;
+         this.upgrade = upgrade;
+         this.lock = lock;
+         cond = lock.newCondition();
+      }
+   }
+
+   LockTable() {
+      for (int i=0; i<NUM_STRIPES; i++)
+         stripes[i] = new Stripe();
+   }
+
+   /**
+    * Sets the policy used to handle deadlocks.
+    * @param policy "detect", "wait-die" or "wound-wait"
+    */
+   void setPolicy(String policy) {
+      if (!policy.equals(DETECT) && !policy.equals(WAIT_DIE)
+            && !policy.equals(WOUND_WAIT))
+         throw new IllegalArgumentException("unknown deadlock policy " + policy);
+      this.policy = policy;
+   }
+
+   /**
+    * Grant a lock of the specified mode on the item to the transaction.
+    * If the transaction already holds a lock on the item, the lock
+    * is upgraded to the weakest mode that covers both.
+    * If the lock conflicts with a lock held or requested by
+    * another transaction, the calling thread waits until it
+    * can be granted, unless the deadlock policy refuses it.
+    * @param item the table, block or record to lock
+    * @param txnum the number of the requesting transaction
+    * @param mode the lock mode
+    */
+   void lock(Object item, int txnum, int mode) {
+      Stripe st = stripeFor(item);
+      st.lock.lock();
       try {
-         long timestamp = System.currentTimeMillis();
-         while (hasXlock(blk) && !waitingTooLong(timestamp))
-            wait(MAX_TIME);
-         if (hasXlock(blk))
+         if (wounded.contains(txnum))
+            throw new LockAbortException();
+         LockEntry e = st.entries.computeIfAbsent(item, k -> new LockEntry());
+         Integer held = e.holders.get(txnum);
+         if (held != null && covers(held, mode))
+            return;
+         int target = (held == null) ? mode : combine(held, mode);
+         Request req = new Request(txnum, target, held != null, st.lock);
+         enqueue(e, req);
+         update(e);
+         if (!req.granted)
+            waiting.put(txnum, req);
+         try {
+            while (!req.granted) {
+               if (wounded.contains(txnum))
+                  throw new LockAbortException();
+               if (req.jump) {
+                  req.jump = false;
+                  if (blockers(e, req, false).isEmpty()) {
+                     e.queue.remove(req);
+                     grant(e, req);
+                     update(e);
+                     break;
+                  }
+                  req.recheck = true;
+               }
+               if (req.recheck) {
+                  req.recheck = false;
+                  List<Integer> victims = resolve(e, req);
+                  if (!victims.isEmpty()) {
+                     st.lock.unlock();
+                     try {
+                        wake(victims);
+                     }
+                     finally {
+                        st.lock.lock();
+                     }
+                  }
+                  continue;
+               }
+               req.cond.await();
+            }
+         }
+         catch(InterruptedException | LockAbortException ex) {
+            if (!req.granted) {
+               e.queue.remove(req);
+               forget(req);
+               update(e);
+               if (e.holders.isEmpty() && e.queue.isEmpty())
+                  st.entries.remove(item);
+            }
             throw new LockAbortException();
-         int val = getLockVal(blk);  // will not be negative
-         locks.put(blk, val+1);
+         }
       }
-      catch(InterruptedException e) {
-         throw new LockAbortException();
+      finally {
+         st.lock.unlock();
       }
    }
-   
+
    /**
-    * Grant an XLock on the specified block.
-    * If a lock of any type exists when the method is called,
-    * then the calling thread will be placed on a wait list
-    * until the locks are released.
-    * If the thread remains on the wait list for a certain 
-    * amount of time (currently 10 seconds),
-    * then an exception is thrown.
-    * @param blk a reference to the disk block
+    * Grant a lock of the specified mode on the item to the
+    * transaction if it can be granted at once, without waiting.
+    * @param item the table, block or record to lock
+    * @param txnum the number of the requesting transaction
+    * @param mode the lock mode
+    * @return true if the lock was granted
     */
-   synchronized void xLock(BlockId blk) {
+   boolean tryLock(Object item, int txnum, int mode) {
+      Stripe st = stripeFor(item);
+      st.lock.lock();
       try {
-         long timestamp = System.currentTimeMillis();
-         while (hasOtherSLocks(blk) && !waitingTooLong(timestamp))
-            wait(MAX_TIME);
-         if (hasOtherSLocks(blk))
+         if (wounded.contains(txnum))
             throw new LockAbortException();
-         locks.put(blk, -1);
+         LockEntry e = st.entries.computeIfAbsent(item, k -> new LockEntry());
+         Integer held = e.holders.get(txnum);
+         if (held != null && covers(held, mode))
+            return true;
+         int target = (held == null) ? mode : combine(held, mode);
+         Request req = new Request(txnum, target, held != null, st.lock);
+         boolean ok = blockers(e, req, false).isEmpty();
+         for (Request r : e.queue)
+            if (r.txnum != txnum && !COMPATIBLE[r.mode][target])
+               ok = false;
+         if (ok)
+            e.holders.put(txnum, target);
+         else if (e.holders.isEmpty() && e.queue.isEmpty())
+            st.entries.remove(item);
+         return ok;
       }
-      catch(InterruptedException e) {
-         throw new LockAbortException();
+      finally {
+         st.lock.unlock();
+      }
+   }
+
+   /**
+    * Return true if another transaction holds a lock on the
+    * item that conflicts with the specified mode.
+    * Nothing is locked, and the caller does not wait.
+    * @param item the table, block or record
+    * @param txnum the number of the asking transaction
+    * @param mode the lock mode
+    * @return true if a conflicting lock is held
+    */
+   boolean heldByOther(Object item, int txnum, int mode) {
+      Stripe st = stripeFor(item);
+      st.lock.lock();
+      try {
+         LockEntry e = st.entries.get(item);
+         if (e == null)
+            return false;
+         for (Map.Entry<Integer,Integer> h : e.holders.entrySet())
+            if (h.getKey() != txnum && !compatible(h.getValue(), mode))
+               return true;
+         return false;
+      }
+      finally {
+         st.lock.unlock();
       }
    }
-   
+
    /**
-    * Release a lock on the specified block.
-    * If this lock is the last lock on that block,
-    * then the waiting transactions are notified.
-    * @param blk a reference to the disk block
+    * Release the transaction's lock on the specified item,
+    * and grant the waiting requests that have become compatible.
+    * @param item the locked table, block or record
+    * @param txnum the number of the transaction
     */
-   synchronized void unlock(BlockId blk) {
-      int val = getLockVal(blk);
-      if (val > 1)
-         locks.put(blk, val-1);
+   void unlock(Object item, int txnum) {
+      Stripe st = stripeFor(item);
+      st.lock.lock();
+      try {
+         LockEntry e = st.entries.get(item);
+         if (e == null)
+            return;
+         e.holders.remove(txnum);
+         update(e);
+         if (e.holders.isEmpty() && e.queue.isEmpty())
+            st.entries.remove(item);
+      }
+      finally {
+         st.lock.unlock();
+      }
+   }
+
+   /**
+    * Forgets the transaction, which has released all its locks.
+    * @param txnum the number of the transaction
+    */
+   void release(int txnum) {
+      wounded.remove(txnum);
+   }
+
+   /**
+    * Adds the request to the queue. Upgrades go after the
+    * upgrades already waiting, but ahead of new requests.
+    */
+   private void enqueue(LockEntry e, Request req) {
+      if (!req.upgrade) {
+         e.queue.addLast(req);
+         return;
+      }
+      int pos = 0;
+      for (Request r : e.queue) {
+         if (!r.upgrade)
+            break;
+         pos++;
+      }
+      e.queue.add(pos, req);
+   }
+
+   /**
+    * Grants the waiting requests that are compatible with the
+    * holders and with the requests ahead of them, then recomputes
+    * the transactions that each remaining request waits for.
+    * A waiter is woken only if it was granted,
+    * or if it has come to wait for a new transaction.
+    */
+   private void update(LockEntry e) {
+      Iterator<Request> iter = e.queue.iterator();
+      while (iter.hasNext()) {
+         Request r = iter.next();
+         if (!blockers(e, r, true).isEmpty())
+            continue;
+         iter.remove();
+         grant(e, r);
+      }
+      for (Request r : e.queue) {
+         r.queued = blockers(e, r, false).isEmpty();
+         Set<Integer> blockers = blockers(e, r, true);
+         if (blockers.equals(r.blockers))
+            continue;
+         boolean added = !r.blockers.containsAll(blockers);
+         r.blockers = blockers;
+         if (policy.equals(DETECT)) {
+            synchronized (waitsFor) {
+               if (waitsFor.containsKey(r.txnum))
+                  waitsFor.put(r.txnum, blockers);
+            }
+         }
+         if (added) {
+            r.recheck = true;
+            r.cond.signal();
+         }
+      }
+   }
+
+   private void grant(LockEntry e, Request r) {
+      e.holders.merge(r.txnum, r.mode, LockTable::combine);
+      r.granted = true;
+      forget(r);
+      r.cond.signal();
+   }
+
+   /**
+    * Returns the transactions that prevent the request from being
+    * granted: the holders of incompatible locks, and the
+    * transactions whose requests are ahead of it in the queue.
+    * If all is false, the queued requests are ignored.
+    */
+   private Set<Integer> blockers(LockEntry e, Request req, boolean all) {
+      Set<Integer> result = new HashSet<>();
+      for (Map.Entry<Integer,Integer> h : e.holders.entrySet())
+         if (h.getKey() != req.txnum && !compatible(h.getValue(), req.mode))
+            result.add(h.getKey());
+      if (all) {
+         for (Request r : e.queue) {
+            if (r == req)
+               break;
+            if (r.txnum != req.txnum && !compatible(r.mode, req.mode))
+               result.add(r.txnum);
+         }
+      }
+      return result;
+   }
+
+   private boolean compatible(int mode1, int mode2) {
+      return COMPATIBLE[mode1][mode2];
+   }
+
+   /**
+    * Returns the weakest mode that is at least as strong as both modes.
+    */
+   static int combine(int mode1, int mode2) {
+      if ((mode1 == IX && mode2 == S) || (mode1 == S && mode2 == IX))
+         return SIX;
+      return Math.max(mode1, mode2);
+   }
+
+   /**
+    * Returns true if a lock of the first mode
+    * grants everything that the second mode does.
+    */
+   static boolean covers(int held, int mode) {
+      return combine(held, mode) == held;
+   }
+
+   /**
+    * Applies the deadlock policy to a request that has come
+    * to wait for new transactions.
+    * If the policy objects to the wait, but the request is compatible
+    * with the holders and waits only because of its place in the queue,
+    * it is granted ahead of the queue instead.
+    * Similarly, a deadlock cycle that passes through such a request
+    * is broken by asking that request to jump ahead of its queue.
+    * Otherwise an objection throws an exception.
+    * @return the transactions to wake: the ones that the request
+    * wounds, or the one asked to jump ahead of its queue
+    */
+   private List<Integer> resolve(LockEntry e, Request req) {
+      String pol = policy;
+      List<Integer> victims = new ArrayList<>();
+      boolean objects = false;
+      if (pol.equals(DETECT)) {
+         List<Integer> cycle;
+         synchronized (waitsFor) {
+            waitsFor.put(req.txnum, req.blockers);
+            cycle = cycle(req.blockers, req.txnum);
+         }
+         objects = (cycle != null);
+         if (objects && !blockers(e, req, false).isEmpty()) {
+            for (int t : cycle) {
+               Request r = waiting.get(t);
+               if (r != null && r.queued) {
+                  r.jump = true;
+                  victims.add(t);
+                  return victims;
+               }
+            }
+         }
+      }
       else {
-         locks.remove(blk);
-         notifyAll();
+         for (int other : req.blockers) {
+            if (other < req.txnum && pol.equals(WAIT_DIE))
+               objects = true;
+            if (other > req.txnum && pol.equals(WOUND_WAIT)) {
+               objects = true;
+               victims.add(other);
+            }
+         }
       }
+      if (!objects)
+         return victims;
+      if (blockers(e, req, false).isEmpty()) {
+         e.queue.remove(req);
+         grant(e, req);
+         update(e);
+         return Collections.emptyList();
+      }
+      if (!pol.equals(WOUND_WAIT))
+         throw new LockAbortException();
+      victims.removeIf(v -> !wounded.add(v));
+      return victims;
    }
-   
-   private boolean hasXlock(BlockId blk) {
-      return getLockVal(blk) < 0;
+
+   /**
+    * Returns the transactions on a path in the waits-for graph
+    * from one of the starting transactions to the target,
+    * or null if the target cannot be reached.
+    */
+   private List<Integer> cycle(Set<Integer> start, int target) {
+      Map<Integer,Integer> parent = new HashMap<>();
+      Deque<Integer> queue = new ArrayDeque<>();
+      for (int t : start) {
+         parent.put(t, null);
+         queue.add(t);
+      }
+      while (!queue.isEmpty()) {
+         Integer t = queue.poll();
+         if (t == target) {
+            List<Integer> path = new ArrayList<>();
+            for (t = parent.get(t); t != null; t = parent.get(t))
+               path.add(t);
+            return path;
+         }
+         for (int next : waitsFor.getOrDefault(t, Collections.emptySet())) {
+            if (!parent.containsKey(next)) {
+               parent.put(next, t);
+               queue.add(next);
+            }
+         }
+      }
+      return null;
    }
-   
-   private boolean hasOtherSLocks(BlockId blk) {
-      return getLockVal(blk) > 1;
+
+   /**
+    * Wakes the specified transactions if they are waiting for a lock,
+    * so that they abort or jump ahead of their queue.
+    * Must be called without holding a stripe lock.
+    */
+   private void wake(List<Integer> victims) {
+      for (int v : victims) {
+         Request r = waiting.get(v);
+         if (r == null)
+            continue;
+         r.lock.lock();
+         try {
+            r.cond.signal();
+         }
+         finally {
+            r.lock.unlock();
+         }
+      }
    }
-   
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+
+   /**
+    * Removes a request that is no longer waiting
+    * from the waits-for graph.
+    */
+   private void forget(Request req) {
+      waiting.remove(req.txnum, req);
+      synchronized (waitsFor) {
+         waitsFor.remove(req.txnum);
+      }
    }
-   
-   private int getLockVal(BlockId blk) {
-      Integer ival = locks.get(blk);
-      return (ival == null) ? 0 : ival.intValue();
+
+   private Stripe stripeFor(Object item) {
+      int h = item.hashCode();
+      h ^= (h >>> 16);
+      return stripes[h & (NUM_STRIPES - 1)];
    }
 }
@@ -0,0 +1,182 @@
+package simpledb.tx.concurrency;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import simpledb.file.BlockId;
+
+/**
+ * The before-images of the values written by recent transactions,
+ * which let read-only transactions read a consistent snapshot
+ * of the database without locking.
+ * <P>
+ * A writer saves the old value of a field before it changes it.
+ * Each committing writer is given the next commit number, and
+ * a snapshot consists of the writers whose commit number is at most
+ * the last one given out when the snapshot began.
+ * To read a field as of a snapshot, the current value is replaced by
+ * the before-image of the oldest change to the field that the snapshot
+ * does not see. Because writers lock what they write until they commit,
+ * the changes that a snapshot does not see are the latest ones.
+ * <P>
+ * The before-images of a rolled back transaction are discarded once
+ * its changes have been undone. The before-images of a committed
+ * transaction are discarded once every active snapshot sees it.
+ * Temporary files are private to their transaction, and are not versioned.
+ */
+class VersionStore {
+   private long lastCommit = 0;
+   private TreeMap<Long,Integer> snapshots = new TreeMap<>();
+   private TreeMap<Long,Integer> commitOrder = new TreeMap<>();
+   private Map<Integer,Long> commits = new ConcurrentHashMap<>();
+   private Map<Integer,Set<BlockId>> written = new ConcurrentHashMap<>();
+   private Map<BlockId,List<Version>> versions = new ConcurrentHashMap<>();
+
+   private static class Version {
+      int txnum;
+      int offset;
+      Object oldval;
+
+      Version(int txnum, int offset, Object oldval) {
+         this.txnum = txnum;
+         this.offset = offset;
+         this.oldval = oldval;
+      }
+   }
+
+   /**
+    * Begins a snapshot of the committed transactions.
+    * @return the snapshot's commit number
+    */
+   synchronized long begin() {
+      snapshots.merge(lastCommit, 1, Integer::sum);
+      return lastCommit;
+   }
+
+   /**
+    * Ends the specified snapshot, and discards the
+    * before-images that are no longer needed.
+    * @param snapshot the snapshot's commit number
+    */
+   synchronized void end(long snapshot) {
+      snapshots.computeIfPresent(snapshot, (k, n) -> (n > 1) ? n-1 : null);
+      discardVisible();
+   }
+
+   /**
+    * Saves the value that a transaction is about to overwrite.
+    * @param txnum the writing transaction
+    * @param blk the block being written
+    * @param offset the offset of the value in the block
+    * @param oldval the value, an Integer or a String
+    */
+   void save(int txnum, BlockId blk, int offset, Object oldval) {
+      if (blk.fileName().startsWith("temp"))
+         return;
+      written.computeIfAbsent(txnum, t -> ConcurrentHashMap.newKeySet()).add(blk);
+      while (true) {
+         List<Version> list = versions.computeIfAbsent(blk, b -> new ArrayList<>());
+         synchronized (list) {
+            // the list may have been emptied and dropped meanwhile
+            if (versions.get(blk) == list) {
+               list.add(new Version(txnum, offset, oldval));
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * Records the commit of the transaction,
+    * giving it the next commit number.
+    * @param txnum the committing transaction
+    */
+   synchronized void commit(int txnum) {
+      if (!written.containsKey(txnum))
+         return;
+      lastCommit++;
+      commits.put(txnum, lastCommit);
+      commitOrder.put(lastCommit, txnum);
+      discardVisible();
+   }
+
+   /**
+    * Discards the before-images of a transaction
+    * whose changes have been undone.
+    * @param txnum the rolled back transaction
+    */
+   void rollback(int txnum) {
+      discard(txnum);
+   }
+
+   /**
+    * Returns true if some block of the file may have values
+    * that differ from the ones seen by a snapshot.
+    * @param blk the block
+    * @return true if the block has before-images
+    */
+   boolean hasVersions(BlockId blk) {
+      return versions.containsKey(blk);
+   }
+
+   /**
+    * Returns the value at the specified offset of the
+    * block as seen by the specified snapshot.
+    * @param blk the block
+    * @param offset the offset of the value in the block
+    * @param current the value currently in the block
+    * @param snapshot the snapshot's commit number
+    * @param self the reading transaction, whose own changes it sees
+    * @return the value seen by the snapshot
+    */
+   Object asOf(BlockId blk, int offset, Object current, long snapshot, int self) {
+      List<Version> list = versions.get(blk);
+      if (list == null)
+         return current;
+      Object result = current;
+      synchronized (list) {
+         for (int i=list.size()-1; i>=0; i--) {
+            Version v = list.get(i);
+            if (v.offset == offset && v.oldval.getClass() == current.getClass()
+                  && !sees(v.txnum, snapshot, self))
+               result = v.oldval;
+         }
+      }
+      return result;
+   }
+
+   private boolean sees(int txnum, long snapshot, int self) {
+      if (txnum == self)
+         return true;
+      Long c = commits.get(txnum);
+      return c != null && c <= snapshot;
+   }
+
+   /**
+    * Discards the before-images of the committed transactions
+    * that every active snapshot sees.
+    */
+   private void discardVisible() {
+      long oldest = snapshots.isEmpty() ? lastCommit : snapshots.firstKey();
+      while (!commitOrder.isEmpty() && commitOrder.firstKey() <= oldest) {
+         int txnum = commitOrder.pollFirstEntry().getValue();
+         discard(txnum);
+         commits.remove(txnum);
+      }
+   }
+
+   private void discard(int txnum) {
+      Set<BlockId> blks = written.remove(txnum);
+      if (blks == null)
+         return;
+      for (BlockId blk : blks) {
+         List<Version> list = versions.get(blk);
+         if (list == null)
+            continue;
+         synchronized (list) {
+            list.removeIf(v -> v.txnum == txnum);
+            if (list.isEmpty())
+               versions.remove(blk, list);
+         }
+      }
+   }
+}
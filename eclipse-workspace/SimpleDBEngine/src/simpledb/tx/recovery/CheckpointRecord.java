@@ -1,15 +1,54 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import java.util.*;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
 /**
  * The CHECKPOINT log record.
+ * A checkpoint is taken without stopping the system. It records
+ * the active transactions, each with the LSN of its latest log record,
+ * and the dirty pages, each with the LSN of its first change since it
+ * was last written. The tables are as they were at some moment after
+ * the checkpoint's begin LSN, so recovery starts from the tables
+ * and then reads the log records that follow that LSN.
+ * A checkpoint whose tables do not fit in one log record is written
+ * as several parts, all having the same begin LSN.
  * @author Edward Sciore
  */
 public class CheckpointRecord implements LogRecord {
-   public CheckpointRecord() {
+   private static final int HEADER = 5 * Integer.BYTES + Long.BYTES;
+   // each table entry is a transaction or block number and an LSN
+   private static final int ENTRY = Integer.BYTES + Long.BYTES;
+   private long begin;
+   private int part, parts;
+   private Map<Integer,Long> txs = new HashMap<>();
+   private Map<BlockId,Long> dirty = new HashMap<>();
+
+   public CheckpointRecord(Page p) {
+      int pos = Integer.BYTES;
+      begin = p.getLong(pos);
+      pos += Long.BYTES;
+      part = p.getInt(pos);
+      pos += Integer.BYTES;
+      parts = p.getInt(pos);
+      pos += Integer.BYTES;
+      int ntxs = p.getInt(pos);
+      pos += Integer.BYTES;
+      for (int i=0; i<ntxs; i++) {
+         txs.put(p.getInt(pos), p.getLong(pos + Integer.BYTES));
+         pos += ENTRY;
+      }
+      int ndirty = p.getInt(pos);
+      pos += Integer.BYTES;
+      for (int i=0; i<ndirty; i++) {
+         String filename = p.getString(pos);
+         pos += Page.maxLength(filename.length());
+         BlockId blk = new BlockId(filename, p.getInt(pos));
+         dirty.put(blk, p.getLong(pos + Integer.BYTES));
+         pos += ENTRY;
+      }
    }
 
    public int op() {
@@ -24,26 +63,147 @@ public class CheckpointRecord implements LogRecord {
       return -1; // dummy value
    }
 
+   /**
+    * Returns 0, because a checkpoint record
+    * belongs to no transaction.
+    */
+   public long prevLSN() {
+      return 0;
+   }
+
    /**
     * Does nothing, because a checkpoint record
     * contains no undo information.
     */
    public void undo(Transaction tx) {}
 
+   /**
+    * Returns the LSN of the latest log record written
+    * before the checkpoint's tables were taken.
+    * @return the begin LSN
+    */
+   public long beginLSN() {
+      return begin;
+   }
+
+   /**
+    * Returns the number of this part of the checkpoint, starting from 0.
+    * @return the part number
+    */
+   public int part() {
+      return part;
+   }
+
+   /**
+    * Returns the number of parts of the checkpoint.
+    * @return the number of parts
+    */
+   public int parts() {
+      return parts;
+   }
+
+   /**
+    * Returns the active transactions recorded in this part,
+    * each mapped to the LSN of its latest log record.
+    * @return the active transaction table
+    */
+   public Map<Integer,Long> activeTxs() {
+      return txs;
+   }
+
+   /**
+    * Returns the dirty pages recorded in this part,
+    * each mapped to its recovery LSN.
+    * @return the dirty page table
+    */
+   public Map<BlockId,Long> dirtyPages() {
+      return dirty;
+   }
+
    public String toString() {
-      return "<CHECKPOINT>";
+      return "<CHECKPOINT " + begin + " " + (part+1) + "/" + parts + " " + txs + " " + dirty + ">";
    }
 
-   /** 
-    * A static method to write a checkpoint record to the log.
-    * This log record contains the CHECKPOINT operator,
-    * and nothing else.
-    * @return the LSN of the last log value
+   /**
+    * A static method to write a checkpoint to the log.
+    * Each log record contains the CHECKPOINT operator,
+    * the begin LSN, the part number and the number of parts,
+    * followed by as many entries of the two tables as fit.
+    * @param begin the LSN of the latest record before the tables were taken
+    * @param txs the active transaction table
+    * @param dirty the dirty page table
+    * @return the LSN of the last part
     */
-   public static int writeToLog(LogMgr lm) {
-      byte[] rec = new byte[Integer.BYTES];
+   public static long writeToLog(LogMgr lm, long begin, Map<Integer,Long> txs,
+                                 Map<BlockId,Long> dirty) {
+      int maxsize = lm.maxRecordSize();
+      List<Map<Integer,Long>> txparts = new ArrayList<>();
+      List<Map<BlockId,Long>> dirtyparts = new ArrayList<>();
+      Map<Integer,Long> t = new HashMap<>();
+      Map<BlockId,Long> d = new HashMap<>();
+      int size = HEADER;
+      for (Map.Entry<Integer,Long> e : txs.entrySet()) {
+         if (size + ENTRY > maxsize) {
+            txparts.add(t);
+            dirtyparts.add(d);
+            t = new HashMap<>();
+            size = HEADER;
+         }
+         t.put(e.getKey(), e.getValue());
+         size += ENTRY;
+      }
+      for (Map.Entry<BlockId,Long> e : dirty.entrySet()) {
+         int entrysize = Page.maxLength(e.getKey().fileName().length()) + ENTRY;
+         if (size + entrysize > maxsize) {
+            txparts.add(t);
+            dirtyparts.add(d);
+            t = new HashMap<>();
+            d = new HashMap<>();
+            size = HEADER;
+         }
+         d.put(e.getKey(), e.getValue());
+         size += entrysize;
+      }
+      txparts.add(t);
+      dirtyparts.add(d);
+      long lsn = -1;
+      for (int i=0; i<txparts.size(); i++)
+         lsn = writePart(lm, begin, i, txparts.size(), txparts.get(i), dirtyparts.get(i));
+      return lsn;
+   }
+
+   private static long writePart(LogMgr lm, long begin, int part, int parts,
+                                 Map<Integer,Long> txs, Map<BlockId,Long> dirty) {
+      int size = HEADER + ENTRY * txs.size();
+      for (BlockId blk : dirty.keySet())
+         size += Page.maxLength(blk.fileName().length()) + ENTRY;
+      byte[] rec = new byte[size];
       Page p = new Page(rec);
       p.setInt(0, CHECKPOINT);
+      int pos = Integer.BYTES;
+      p.setLong(pos, begin);
+      pos += Long.BYTES;
+      p.setInt(pos, part);
+      pos += Integer.BYTES;
+      p.setInt(pos, parts);
+      pos += Integer.BYTES;
+      p.setInt(pos, txs.size());
+      pos += Integer.BYTES;
+      for (Map.Entry<Integer,Long> e : txs.entrySet()) {
+         p.setInt(pos, e.getKey());
+         p.setLong(pos + Integer.BYTES, e.getValue());
+         pos += ENTRY;
+      }
+      p.setInt(pos, dirty.size());
+      pos += Integer.BYTES;
+      for (Map.Entry<BlockId,Long> e : dirty.entrySet()) {
+         BlockId blk = e.getKey();
+         p.setString(pos, blk.fileName());
+         pos += Page.maxLength(blk.fileName().length());
+         p.setInt(pos, blk.number());
+         p.setLong(pos + Integer.BYTES, e.getValue());
+         pos += ENTRY;
+      }
       return lm.append(rec);
    }
 }
@@ -0,0 +1,75 @@
+package simpledb.tx.recovery;
+
+import simpledb.log.LogMgr;
+import simpledb.buffer.BufferMgr;
+
+/**
+ * A background thread that writes a checkpoint to the log
+ * at regular intervals, which bounds the amount of log
+ * that recovery has to analyze after a crash.
+ */
+public class Checkpointer implements Runnable {
+   private LogMgr lm;
+   private BufferMgr bm;
+   private long interval;
+   private Thread thread = null;
+   private boolean stopped = false;
+
+   /**
+    * @param lm the log manager
+    * @param bm the buffer manager
+    * @param interval the number of milliseconds between checkpoints
+    */
+   public Checkpointer(LogMgr lm, BufferMgr bm, long interval) {
+      this.lm = lm;
+      this.bm = bm;
+      this.interval = interval;
+   }
+
+   /**
+    * Starts the checkpoint thread.
+    */
+   public synchronized void start() {
+      if (thread != null)
+         return;
+      thread = new Thread(this, "checkpointer");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * Stops the checkpoint thread after its current checkpoint.
+    * The thread is not interrupted, because an interrupt
+    * during I/O would close the channel of the file being written.
+    */
+   public void stop() {
+      Thread t;
+      synchronized (this) {
+         t = thread;
+         stopped = true;
+         notifyAll();
+      }
+      if (t != null) {
+         try {
+            t.join();
+         }
+         catch(InterruptedException e) {}
+      }
+   }
+
+   public void run() {
+      try {
+         while (waitForInterval())
+            RecoveryMgr.checkpoint(lm, bm);
+      }
+      catch(InterruptedException e) {
+         // the checkpointer was stopped
+      }
+   }
+
+   private synchronized boolean waitForInterval() throws InterruptedException {
+      if (!stopped)
+         wait(interval);
+      return !stopped;
+   }
+}
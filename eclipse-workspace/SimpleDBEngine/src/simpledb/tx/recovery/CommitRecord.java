@@ -10,10 +10,13 @@ import simpledb.tx.Transaction;
  */
 public class CommitRecord implements LogRecord {
    private int txnum;
+   private long prevLsn;
 
    public CommitRecord(Page p) {
       int tpos = Integer.BYTES;
       txnum = p.getInt(tpos);
+      int ppos = tpos + Integer.BYTES;
+      prevLsn = p.getLong(ppos);
    }
 
    public int op() {
@@ -24,6 +27,10 @@ public class CommitRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLsn;
+   }
+
    /**
     * Does nothing, because a commit record
     * contains no undo information.
@@ -37,14 +44,16 @@ public class CommitRecord implements LogRecord {
    /** 
     * A static method to write a commit record to the log.
     * This log record contains the COMMIT operator,
-    * followed by the transaction id.
+    * followed by the transaction id and the LSN of
+    * the transaction's previous log record.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2*Integer.BYTES];
+   public static long writeToLog(LogMgr lm, int txnum, long prevLsn) {
+      byte[] rec = new byte[2*Integer.BYTES + Long.BYTES];
       Page p = new Page(rec);
       p.setInt(0, COMMIT);
       p.setInt(Integer.BYTES, txnum);
+      p.setLong(2*Integer.BYTES, prevLsn);
       return lm.append(rec);
    }
 }
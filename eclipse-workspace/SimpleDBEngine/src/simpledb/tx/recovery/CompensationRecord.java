@@ -0,0 +1,139 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * The COMPENSATION log record, which is written when a change
+ * is undone. It holds the values that the undo restored.
+ * Recovery redoes a compensation record like any other change,
+ * but never undoes it, so a change that has been undone
+ * is not undone again after a crash.
+ * The record also holds the LSN of the next record of the
+ * transaction that remains to be undone, so that a rollback
+ * that is resumed after a crash skips the records already undone.
+ */
+public class CompensationRecord implements LogRecord {
+   private int txnum;
+   private long prevLsn, undoNext;
+   private BlockId blk;
+   private int[] offsets;
+   private Object[] vals;
+
+   /**
+    * Create a new compensation log record.
+    * @param p the page containing the log values
+    */
+   public CompensationRecord(Page p) {
+      int tpos = Integer.BYTES;
+      txnum = p.getInt(tpos);
+      int ppos = tpos + Integer.BYTES;
+      prevLsn = p.getLong(ppos);
+      int upos = ppos + Long.BYTES;
+      undoNext = p.getLong(upos);
+      int fpos = upos + Long.BYTES;
+      String filename = p.getString(fpos);
+      int bpos = fpos + Page.maxLength(filename.length());
+      int blknum = p.getInt(bpos);
+      blk = new BlockId(filename, blknum);
+      int npos = bpos + Integer.BYTES;
+      int n = p.getInt(npos);
+      offsets = new int[n];
+      vals = new Object[n];
+      int pos = npos + Integer.BYTES;
+      for (int i=0; i<n; i++) {
+         int stored = p.getInt(pos);
+         pos += Integer.BYTES;
+         offsets[i] = LogValues.offset(stored);
+         vals[i] = LogValues.readValue(p, pos, stored);
+         pos += LogValues.valueSize(vals[i]);
+      }
+   }
+
+   public int op() {
+      return COMPENSATION;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public long prevLSN() {
+      return prevLsn;
+   }
+
+   /**
+    * Returns the LSN of the next log record of the
+    * transaction that remains to be undone.
+    * @return the undo-next LSN
+    */
+   public long undoNextLSN() {
+      return undoNext;
+   }
+
+   public BlockId block() {
+      return blk;
+   }
+
+   public String toString() {
+      StringBuilder sb = new StringBuilder("<COMPENSATION " + txnum + " " + undoNext + " " + blk);
+      for (int i=0; i<offsets.length; i++)
+         sb.append(" " + offsets[i] + " " + vals[i]);
+      return sb + ">";
+   }
+
+   /**
+    * Does nothing, because a compensation record
+    * is never undone.
+    */
+   public void undo(Transaction tx) {}
+
+   /**
+    * Write the restored values saved in the log record to the page.
+    */
+   public void redo(Page p) {
+      for (int i=0; i<offsets.length; i++)
+         LogValues.apply(p, offsets[i], vals[i]);
+   }
+
+   /**
+    * A static method to write a compensation record to the log.
+    * This log record contains the COMPENSATION operator,
+    * followed by the id of the transaction whose change was undone,
+    * the LSN of that transaction's previous log record,
+    * the LSN of its next record to undo, the filename and
+    * number of the modified block, and the number of restored
+    * values, followed by the offset and value of each.
+    * @param offsets the offsets of the restored values
+    * @param vals the restored values, each an Integer or a String
+    * @return the LSN of the last log value
+    */
+   public static long writeToLog(LogMgr lm, int txnum, long prevLsn, long undoNext,
+                                BlockId blk, int[] offsets, Object[] vals) {
+      int tpos = Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      int upos = ppos + Long.BYTES;
+      int fpos = upos + Long.BYTES;
+      int bpos = fpos + Page.maxLength(blk.fileName().length());
+      int npos = bpos + Integer.BYTES;
+      int reclen = npos + Integer.BYTES;
+      for (Object val : vals)
+         reclen += Integer.BYTES + LogValues.valueSize(val);
+      byte[] rec = new byte[reclen];
+      Page p = new Page(rec);
+      p.setInt(0, COMPENSATION);
+      p.setInt(tpos, txnum);
+      p.setLong(ppos, prevLsn);
+      p.setLong(upos, undoNext);
+      p.setString(fpos, blk.fileName());
+      p.setInt(bpos, blk.number());
+      p.setInt(npos, vals.length);
+      int pos = npos + Integer.BYTES;
+      for (int i=0; i<vals.length; i++) {
+         pos = LogValues.writeOffset(p, pos, offsets[i], vals[i]);
+         pos = LogValues.writeValue(p, pos, vals[i]);
+      }
+      return lm.append(rec);
+   }
+}
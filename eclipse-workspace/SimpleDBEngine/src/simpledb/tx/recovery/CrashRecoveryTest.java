@@ -0,0 +1,130 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+
+/**
+ * Checks that recovery redoes committed changes whose pages
+ * were never written, and undoes uncommitted changes whose pages were.
+ * The changes are made by a child process that halts without
+ * shutting down, after which this process recovers the database.
+ */
+public class CrashRecoveryTest {
+   private static final String DIR = "crashrecoverytest";
+   private static Layout layout;
+
+   public static void main(String[] args) throws Exception {
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 9);
+      layout = new Layout(sch);
+      if (args.length > 0 && args[0].equals("crash")) {
+         crash();
+         return;
+      }
+
+      Process child = new ProcessBuilder("java", "-cp", System.getProperty("java.class.path"),
+                                         CrashRecoveryTest.class.getName(), "crash")
+                      .inheritIO().start();
+      if (child.waitFor() != 0)
+         throw new RuntimeException("the child process failed");
+
+      for (int i=1; i<=2; i++) {
+         SimpleDB db = new SimpleDB(DIR, 400, 8);
+         Transaction tx = db.newTx();
+         tx.recover();
+         check("after recovery " + i, contents(tx), "0..49,60..209,1050..1059");
+         tx.commit();
+      }
+   }
+
+   private static void crash() {
+      SimpleDB db = new SimpleDB(DIR, 400, 8);
+      List<RID> rids = new ArrayList<>();
+      Transaction tx1 = db.newTx();
+      TableScan ts = new TableScan(tx1, "T", layout);
+      for (int i=0; i<200; i++) {
+         ts.insert();
+         ts.setInt("A", i);
+         ts.setString("B", "rec" + i);
+         rids.add(ts.getRid());
+      }
+      ts.close();
+      tx1.commit();
+
+      // an uncommitted change whose pages are written before the crash
+      Transaction tx2 = db.newTx();
+      update(tx2, rids, 0, 50, 1000);
+      db.bufferMgr().flushAll(2);
+
+      RecoveryMgr.checkpoint(db.logMgr(), db.bufferMgr());
+
+      Transaction tx3 = db.newTx();
+      ts = new TableScan(tx3, "T", layout);
+      for (int i=200; i<210; i++) {
+         ts.insert();
+         ts.setInt("A", i);
+         ts.setString("B", "rec" + i);
+      }
+      ts.close();
+      tx3.commit();
+
+      Transaction tx4 = db.newTx();
+      update(tx4, rids, 100, 120, 1000);
+      tx4.rollback();
+
+      Transaction tx5 = db.newTx();
+      update(tx5, rids, 50, 60, 1000);
+      tx5.commit();
+
+      // an uncommitted change that is still in the buffers
+      Transaction tx6 = db.newTx();
+      update(tx6, rids, 150, 160, 5000);
+      System.out.println("halting without shutting down");
+      Runtime.getRuntime().halt(0);
+   }
+
+   private static void update(Transaction tx, List<RID> rids, int from, int to, int delta) {
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int i=from; i<to; i++) {
+         ts.moveToRid(rids.get(i));
+         ts.setInt("A", i + delta);
+      }
+      ts.close();
+   }
+
+   private static String contents(Transaction tx) {
+      TableScan ts = new TableScan(tx, "T", layout);
+      List<Integer> vals = new ArrayList<>();
+      while (ts.next()) {
+         int a = ts.getInt("A");
+         String b = ts.getString("B");
+         if (!b.equals("rec" + (a % 1000)))
+            throw new RuntimeException("inconsistent record " + a + " " + b);
+         vals.add(a);
+      }
+      ts.close();
+      Collections.sort(vals);
+      StringBuilder result = new StringBuilder();
+      int first = vals.get(0);
+      int prev = first;
+      for (int a : vals.subList(1, vals.size())) {
+         if (a != prev + 1) {
+            result.append(first == prev ? first + "," : first + ".." + prev + ",");
+            first = a;
+         }
+         prev = a;
+      }
+      result.append(first == prev ? "" + first : first + ".." + prev);
+      return result.toString();
+   }
+
+   private static void check(String msg, String actual, String expected) {
+      System.out.println(msg + " sees " + actual);
+      if (!actual.equals(expected))
+         throw new RuntimeException("expected " + expected);
+   }
+}
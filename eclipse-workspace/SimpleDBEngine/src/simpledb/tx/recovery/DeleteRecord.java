@@ -0,0 +1,120 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * The DELETE log record, which describes the deletion of
+ * the record in a slot. Deleting a record only changes
+ * the slot's flag; its fields keep their values.
+ */
+public class DeleteRecord implements LogRecord {
+   private int txnum, slotpos, oldflag, newflag;
+   private long prevLsn;
+   private BlockId blk;
+
+   /**
+    * Create a new delete log record.
+    * @param p the page containing the log values
+    */
+   public DeleteRecord(Page p) {
+      int tpos = Integer.BYTES;
+      txnum = p.getInt(tpos);
+      int ppos = tpos + Integer.BYTES;
+      prevLsn = p.getLong(ppos);
+      int fpos = ppos + Long.BYTES;
+      String filename = p.getString(fpos);
+      int bpos = fpos + Page.maxLength(filename.length());
+      int blknum = p.getInt(bpos);
+      blk = new BlockId(filename, blknum);
+      int spos = bpos + Integer.BYTES;
+      slotpos = p.getInt(spos);
+      int opos = spos + Integer.BYTES;
+      oldflag = p.getInt(opos);
+      int npos = opos + Integer.BYTES;
+      newflag = p.getInt(npos);
+   }
+
+   public int op() {
+      return DELETE;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public long prevLSN() {
+      return prevLsn;
+   }
+
+   public BlockId block() {
+      return blk;
+   }
+
+   public String toString() {
+      return "<DELETE " + txnum + " " + blk + " " + slotpos + ">";
+   }
+
+   /**
+    * Restore the slot's previous flag.
+    * The restore is logged as a compensation record.
+    */
+   public void undo(Transaction tx) {
+      tx.pin(blk);
+      tx.undoValues(txnum, blk, undoOffsets(), undoValues());
+      tx.unpin(blk);
+   }
+
+   /**
+    * Returns the offset of the slot's flag.
+    */
+   public int[] undoOffsets() {
+      return new int[] {slotpos};
+   }
+
+   /**
+    * Returns the slot's previous flag, which undoing the record restores.
+    */
+   public Object[] undoValues() {
+      return new Object[] {oldflag};
+   }
+
+   /**
+    * Write the new flag saved in the log record to the page.
+    */
+   public void redo(Page p) {
+      p.setInt(slotpos, newflag);
+   }
+
+   /**
+    * A static method to write a delete record to the log.
+    * This log record contains the DELETE operator,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename and
+    * number of the modified block, the offset of the slot,
+    * and the slot's previous and new flags.
+    * @return the LSN of the last log value
+    */
+   public static long writeToLog(LogMgr lm, int txnum, long prevLsn, BlockId blk,
+                                int slotpos, int oldflag, int newflag) {
+      int tpos = Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      int fpos = ppos + Long.BYTES;
+      int bpos = fpos + Page.maxLength(blk.fileName().length());
+      int spos = bpos + Integer.BYTES;
+      int opos = spos + Integer.BYTES;
+      int npos = opos + Integer.BYTES;
+      byte[] rec = new byte[npos + Integer.BYTES];
+      Page p = new Page(rec);
+      p.setInt(0, DELETE);
+      p.setInt(tpos, txnum);
+      p.setLong(ppos, prevLsn);
+      p.setString(fpos, blk.fileName());
+      p.setInt(bpos, blk.number());
+      p.setInt(spos, slotpos);
+      p.setInt(opos, oldflag);
+      p.setInt(npos, newflag);
+      return lm.append(rec);
+   }
+}
@@ -0,0 +1,150 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * The INSERT log record, which describes the insertion of a record
+ * into a slot: the change of the slot's flag, and the values
+ * then given to the record's fields.
+ * The fields of an empty slot hold no data, so their
+ * previous values are not logged; only the previous flag is.
+ */
+public class InsertRecord implements LogRecord {
+   private int txnum, slotpos, oldflag;
+   private long prevLsn;
+   private BlockId blk;
+   private int[] offsets;
+   private Object[] vals;
+
+   /**
+    * Create a new insert log record.
+    * @param p the page containing the log values
+    */
+   public InsertRecord(Page p) {
+      int tpos = Integer.BYTES;
+      txnum = p.getInt(tpos);
+      int ppos = tpos + Integer.BYTES;
+      prevLsn = p.getLong(ppos);
+      int fpos = ppos + Long.BYTES;
+      String filename = p.getString(fpos);
+      int bpos = fpos + Page.maxLength(filename.length());
+      int blknum = p.getInt(bpos);
+      blk = new BlockId(filename, blknum);
+      int spos = bpos + Integer.BYTES;
+      slotpos = p.getInt(spos);
+      int opos = spos + Integer.BYTES;
+      oldflag = p.getInt(opos);
+      int npos = opos + Integer.BYTES;
+      int n = p.getInt(npos);
+      offsets = new int[n];
+      vals = new Object[n];
+      int pos = npos + Integer.BYTES;
+      for (int i=0; i<n; i++) {
+         int stored = p.getInt(pos);
+         pos += Integer.BYTES;
+         offsets[i] = LogValues.offset(stored);
+         vals[i] = LogValues.readValue(p, pos, stored);
+         pos += LogValues.valueSize(vals[i]);
+      }
+   }
+
+   public int op() {
+      return INSERT;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public long prevLSN() {
+      return prevLsn;
+   }
+
+   public BlockId block() {
+      return blk;
+   }
+
+   public String toString() {
+      StringBuilder sb = new StringBuilder("<INSERT " + txnum + " " + blk + " " + slotpos);
+      for (int i=0; i<offsets.length; i++)
+         sb.append(" " + offsets[i] + " " + vals[i]);
+      return sb + ">";
+   }
+
+   /**
+    * Restore the slot's previous flag, which empties the slot again.
+    * The restore is logged as a compensation record.
+    */
+   public void undo(Transaction tx) {
+      tx.pin(blk);
+      tx.undoValues(txnum, blk, undoOffsets(), undoValues());
+      tx.unpin(blk);
+   }
+
+   /**
+    * Returns the offset of the slot's flag.
+    */
+   public int[] undoOffsets() {
+      return new int[] {slotpos};
+   }
+
+   /**
+    * Returns the slot's previous flag, which undoing the record restores.
+    */
+   public Object[] undoValues() {
+      return new Object[] {oldflag};
+   }
+
+   /**
+    * Write the new flag and field values saved in the log record to the page.
+    */
+   public void redo(Page p) {
+      for (int i=0; i<offsets.length; i++)
+         LogValues.apply(p, offsets[i], vals[i]);
+   }
+
+   /**
+    * A static method to write an insert record to the log.
+    * This log record contains the INSERT operator,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename and
+    * number of the modified block, the offset of the slot,
+    * the slot's previous flag, and the number of new values,
+    * followed by the offset and value of each.
+    * The first new value is the slot's flag.
+    * @param offsets the offsets of the new values
+    * @param vals the new values, each an Integer or a String
+    * @return the LSN of the last log value
+    */
+   public static long writeToLog(LogMgr lm, int txnum, long prevLsn, BlockId blk,
+                                int slotpos, int oldflag, int[] offsets, Object[] vals) {
+      int tpos = Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      int fpos = ppos + Long.BYTES;
+      int bpos = fpos + Page.maxLength(blk.fileName().length());
+      int spos = bpos + Integer.BYTES;
+      int opos = spos + Integer.BYTES;
+      int npos = opos + Integer.BYTES;
+      int reclen = npos + Integer.BYTES;
+      for (Object val : vals)
+         reclen += Integer.BYTES + LogValues.valueSize(val);
+      byte[] rec = new byte[reclen];
+      Page p = new Page(rec);
+      p.setInt(0, INSERT);
+      p.setInt(tpos, txnum);
+      p.setLong(ppos, prevLsn);
+      p.setString(fpos, blk.fileName());
+      p.setInt(bpos, blk.number());
+      p.setInt(spos, slotpos);
+      p.setInt(opos, oldflag);
+      p.setInt(npos, vals.length);
+      int pos = npos + Integer.BYTES;
+      for (int i=0; i<vals.length; i++) {
+         pos = LogValues.writeOffset(p, pos, offsets[i], vals[i]);
+         pos = LogValues.writeValue(p, pos, vals[i]);
+      }
+      return lm.append(rec);
+   }
+}
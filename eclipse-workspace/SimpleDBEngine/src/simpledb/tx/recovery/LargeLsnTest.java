@@ -0,0 +1,113 @@
+package simpledb.tx.recovery;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks that LSNs past 2^31 bytes of log work.
+ * The log starts with a segment whose first block lies beyond
+ * that point, as in a database that has written that much log.
+ * Page LSNs, rollback, a checkpoint and recovery then all
+ * use LSNs that do not fit in an int.
+ * The changes are made by a child process that halts without
+ * shutting down, after which this process recovers the database.
+ */
+public class LargeLsnTest {
+   private static final String DIR = "largelsntest";
+   private static final int BLOCKSIZE = 400;
+   private static final int FIRSTBLOCK = Integer.MAX_VALUE / BLOCKSIZE + 1000;
+   private static final BlockId BLK0 = new BlockId("testfile", 0);
+   private static final BlockId BLK1 = new BlockId("testfile", 1);
+
+   public static void main(String[] args) throws Exception {
+      if (args.length > 0 && args[0].equals("crash")) {
+         crash();
+         return;
+      }
+      File dir = new File(DIR);
+      if (!dir.exists()) {
+         dir.mkdirs();
+         // an empty log block, whose boundary is at its end
+         ByteBuffer bb = ByteBuffer.allocate(BLOCKSIZE);
+         bb.putInt(0, BLOCKSIZE);
+         try (FileOutputStream out = new FileOutputStream(new File(dir, SimpleDB.LOG_FILE + "." + FIRSTBLOCK))) {
+            out.write(bb.array());
+         }
+      }
+
+      Process child = new ProcessBuilder("java", "-cp", System.getProperty("java.class.path"),
+                                         LargeLsnTest.class.getName(), "crash")
+                      .inheritIO().start();
+      if (child.waitFor() != 0)
+         throw new RuntimeException("the child process failed");
+
+      SimpleDB db = new SimpleDB(DIR, BLOCKSIZE, 8);
+      Transaction recovery = db.newTx();
+      recovery.recover();
+      recovery.commit();
+      check(db.newTx(), 5, "one", 10, "after recovery");
+   }
+
+   private static void crash() {
+      SimpleDB db = new SimpleDB(DIR, BLOCKSIZE, 8);
+      LogMgr lm = db.logMgr();
+      System.out.println("the log starts at LSN " + lm.latestLSN());
+      if (lm.latestLSN() <= Integer.MAX_VALUE)
+         throw new RuntimeException("the log does not start past 2^31");
+
+      Transaction tx1 = db.newTx();
+      while (tx1.size("testfile") < 2)
+         tx1.append("testfile");
+      tx1.pin(BLK0);
+      tx1.pin(BLK1);
+      tx1.setInt(BLK0, 0, 1, true);
+      tx1.setString(BLK0, 4, "one", true);
+      tx1.setInt(BLK1, 0, 10, true);
+      tx1.commit();
+      db.bufferMgr().flushAll(1);
+      Page p = new Page(BLOCKSIZE);
+      db.fileMgr().read(BLK0, p);
+      System.out.println("the page LSN on disk is " + p.lsn());
+      if (p.lsn() <= Integer.MAX_VALUE)
+         throw new RuntimeException("the page LSN was not written as a long");
+
+      Transaction tx2 = db.newTx();
+      tx2.pin(BLK0);
+      tx2.setInt(BLK0, 0, 2, true);
+      tx2.setString(BLK0, 4, "two", true);
+      tx2.rollback();
+      check(db.newTx(), 1, "one", 10, "after the rollback");
+
+      RecoveryMgr.checkpoint(lm, db.bufferMgr());
+
+      // an uncommitted change whose page is written before the crash
+      Transaction tx4 = db.newTx();
+      tx4.pin(BLK1);
+      tx4.setInt(BLK1, 0, 30, true);
+      db.bufferMgr().flushAll(4);
+
+      // a committed change whose page is not
+      Transaction tx5 = db.newTx();
+      tx5.pin(BLK0);
+      tx5.setInt(BLK0, 0, 5, true);
+      tx5.commit();
+      System.out.println("halting without shutting down");
+      Runtime.getRuntime().halt(0);
+   }
+
+   private static void check(Transaction tx, int int0, String str0, int int1, String msg) {
+      tx.pin(BLK0);
+      tx.pin(BLK1);
+      int a = tx.getInt(BLK0, 0);
+      String b = tx.getString(BLK0, 4);
+      int c = tx.getInt(BLK1, 0);
+      tx.commit();
+      System.out.println(msg + ": " + a + " " + b + " " + c);
+      if (a != int0 || !b.equals(str0) || c != int1)
+         throw new RuntimeException("expected " + int0 + " " + str0 + " " + int1);
+   }
+}
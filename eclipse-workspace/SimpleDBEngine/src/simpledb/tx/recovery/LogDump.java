@@ -0,0 +1,45 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import simpledb.server.SimpleDB;
+import simpledb.file.FileMgr;
+import simpledb.log.*;
+
+/**
+ * Prints the records of a database's log, each with its LSN.
+ * Given only the database directory, the tool lists the log's
+ * segment files and prints the records of all of them.
+ * Given segment files as well, it prints the records of those
+ * segments only; a segment that has been archived is named by
+ * its path within the database directory, as in archive/simpledb.log.0.
+ * <P>
+ * Usage: LogDump [dbdir [segment ...]]
+ */
+public class LogDump {
+   public static void main(String[] args) {
+      String dirname = (args.length > 0) ? args[0] : "studentdb";
+      if (!new File(dirname).exists()) {
+         System.out.println("there is no database in " + dirname);
+         return;
+      }
+      FileMgr fm = new FileMgr(new File(dirname), SimpleDB.BLOCK_SIZE);
+      if (args.length > 1) {
+         for (int i=1; i<args.length; i++) {
+            System.out.println("segment " + args[i]);
+            print(LogMgr.segmentIterator(fm, args[i]));
+         }
+      }
+      else {
+         LogMgr lm = new LogMgr(fm, SimpleDB.LOG_FILE, SimpleDB.LOG_SEGMENT_SIZE);
+         System.out.println("segments " + lm.segments());
+         print(lm.iterator(0));
+      }
+   }
+
+   private static void print(ForwardLogIterator iter) {
+      while (iter.hasNext()) {
+         LogRecord rec = LogRecord.createLogRecord(iter.next());
+         System.out.println(iter.lsn() + " " + rec);
+      }
+   }
+}
@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.tx.Transaction;
 
 /**
@@ -10,7 +10,8 @@ import simpledb.tx.Transaction;
 public interface LogRecord {
    static final int CHECKPOINT = 0, START = 1,
          COMMIT = 2, ROLLBACK  = 3,
-         SETINT = 4, SETSTRING = 5;
+         SETINT = 4, SETSTRING = 5, COMPENSATION = 6,
+         INSERT = 7, DELETE = 8, UPDATE = 9;
 
    /**
     * Returns the log record's type. 
@@ -25,14 +26,61 @@ public interface LogRecord {
     */
    int txNumber();
 
+   /**
+    * Returns the LSN of the previous log record written by the
+    * same transaction, or 0 if there is none.
+    * The records of a transaction are thereby chained from
+    * the latest to the first, so that the transaction can be
+    * rolled back without reading the records of others.
+    * @return the LSN of the transaction's previous record
+    */
+   long prevLSN();
+
    /**
     * Undoes the operation encoded by this log record.
     * The only log record types for which this method
-    * does anything interesting are SETINT and SETSTRING.
+    * does anything interesting are SETINT, SETSTRING,
+    * INSERT, DELETE and UPDATE.
     * @param txnum the id of the transaction that is performing the undo.
     */
    void undo(Transaction tx);
 
+   /**
+    * Returns the offsets of the values that undoing this
+    * log record restores, or null if the record is not undone.
+    * @return the offsets within the record's block
+    */
+   default int[] undoOffsets() {
+      return null;
+   }
+
+   /**
+    * Returns the values that undoing this log record restores,
+    * in the order of {@link #undoOffsets}.
+    * @return the values, each an Integer or a String
+    */
+   default Object[] undoValues() {
+      return null;
+   }
+
+   /**
+    * Returns the block changed by this log record,
+    * or null if the record does not change a block.
+    * @return the changed block
+    */
+   default BlockId block() {
+      return null;
+   }
+
+   /**
+    * Redoes the change encoded by this log record
+    * on the page of its block.
+    * The only log record types for which this method
+    * does anything are the ones that change a block.
+    * @param p the contents of the record's block
+    */
+   default void redo(Page p) {}
+
    /**
     * Interpret the bytes returned by the log iterator.
     * @param bytes
@@ -42,7 +90,7 @@ public interface LogRecord {
       Page p = new Page(bytes);
       switch (p.getInt(0)) {
       case CHECKPOINT: 
-         return new CheckpointRecord();
+         return new CheckpointRecord(p);
       case START: 
          return new StartRecord(p);
       case COMMIT: 
@@ -53,6 +101,14 @@ public interface LogRecord {
          return new SetIntRecord(p);
       case SETSTRING: 
          return new SetStringRecord(p);
+      case COMPENSATION: 
+         return new CompensationRecord(p);
+      case INSERT: 
+         return new InsertRecord(p);
+      case DELETE: 
+         return new DeleteRecord(p);
+      case UPDATE: 
+         return new UpdateRecord(p);
       default:
          return null;
       }
@@ -0,0 +1,86 @@
+package simpledb.tx.recovery;
+
+import java.util.List;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.log.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks that a checkpoint removes the log segments that
+ * recovery no longer needs, moving them to the archive directory.
+ * A transaction that was active at the checkpoint can still be
+ * rolled back, the database can still be recovered from the
+ * segments that remain, and an archived segment can still be read.
+ */
+public class LogSegmentTest {
+   private static final int BLOCKS = 20, UPDATES = 300;
+
+   public static void main(String[] args) {
+      SimpleDB.LOG_SEGMENT_SIZE = 4;
+      SimpleDB.LOG_ARCHIVE_DIR = "archive";
+      SimpleDB db = new SimpleDB("logsegmenttest", 400, 8);
+      LogMgr lm = db.logMgr();
+
+      Transaction tx = db.newTx();
+      for (int b=0; b<BLOCKS; b++)
+         tx.append("testfile");
+      tx.commit();
+      update(db, 0, UPDATES/2);
+      Transaction active = db.newTx();
+      BlockId other = active.append("otherfile");
+      active.pin(other);
+      active.setInt(other, 0, -1, true);
+      update(db, UPDATES/2, UPDATES);
+
+      List<String> before = lm.segments();
+      RecoveryMgr.checkpoint(lm, db.bufferMgr());
+      List<String> after = lm.segments();
+      System.out.println(before.size() + " log segments before the checkpoint, "
+                         + after.size() + " after it; the first is " + after.get(0));
+      if (after.size() >= before.size())
+         throw new RuntimeException("no log segment was removed");
+      active.rollback();
+
+      ForwardLogIterator iter = LogMgr.segmentIterator(db.fileMgr(), "archive/" + before.get(0));
+      int count = 0;
+      while (iter.hasNext()) {
+         iter.next();
+         count++;
+      }
+      System.out.println("the archived segment " + before.get(0) + " holds " + count + " records");
+      if (count == 0)
+         throw new RuntimeException("the archived segment is empty");
+
+      // recover without writing the modified buffers, as after a crash
+      SimpleDB db2 = new SimpleDB("logsegmenttest", 400, 8);
+      Transaction recovery = db2.newTx();
+      recovery.recover();
+      recovery.commit();
+      Transaction check = db2.newTx();
+      for (int b=0; b<BLOCKS; b++) {
+         BlockId blk = new BlockId("testfile", b);
+         check.pin(blk);
+         int expected = UPDATES - BLOCKS + b;
+         if (check.getInt(blk, 0) != expected)
+            throw new RuntimeException("block " + b + " holds " + check.getInt(blk, 0)
+                                       + " instead of " + expected);
+         check.unpin(blk);
+      }
+      check.pin(other);
+      if (check.getInt(other, 0) != 0)
+         throw new RuntimeException("the rolled-back change was not undone");
+      check.commit();
+      System.out.println("recovery from the remaining segments restored every block");
+   }
+
+   private static void update(SimpleDB db, int from, int to) {
+      for (int i=from; i<to; i++) {
+         Transaction tx = db.newTx();
+         BlockId blk = new BlockId("testfile", i % BLOCKS);
+         tx.pin(blk);
+         tx.setInt(blk, 0, i, true);
+         tx.commit();
+      }
+   }
+}
@@ -0,0 +1,70 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.Page;
+
+/**
+ * Static methods that read and write the field values held by
+ * the compound log records. An entry consists of the offset of the
+ * value in its block followed by the value; the offset of a string
+ * is stored as -(offset+1), so that no separate type is needed.
+ */
+class LogValues {
+   private LogValues() {}
+
+   /**
+    * Returns the number of bytes needed to store the value.
+    */
+   static int valueSize(Object val) {
+      if (val instanceof Integer)
+         return Integer.BYTES;
+      return Page.maxLength(((String) val).length());
+   }
+
+   /**
+    * Writes the offset of the value at the specified position.
+    * @return the position following the offset
+    */
+   static int writeOffset(Page p, int pos, int offset, Object val) {
+      p.setInt(pos, (val instanceof Integer) ? offset : -(offset+1));
+      return pos + Integer.BYTES;
+   }
+
+   /**
+    * Writes the value at the specified position.
+    * @return the position following the value
+    */
+   static int writeValue(Page p, int pos, Object val) {
+      if (val instanceof Integer)
+         p.setInt(pos, (Integer) val);
+      else
+         p.setString(pos, (String) val);
+      return pos + valueSize(val);
+   }
+
+   /**
+    * Returns the offset stored at the specified position.
+    */
+   static int offset(int stored) {
+      return (stored >= 0) ? stored : -stored-1;
+   }
+
+   /**
+    * Reads the value at the specified position, which is a
+    * string if the stored offset of its entry is negative.
+    */
+   static Object readValue(Page p, int pos, int stored) {
+      if (stored >= 0)
+         return p.getInt(pos);
+      return p.getString(pos);
+   }
+
+   /**
+    * Writes the value into a data page at the specified offset.
+    */
+   static void apply(Page p, int offset, Object val) {
+      if (val instanceof Integer)
+         p.setInt(offset, (Integer) val);
+      else
+         p.setString(offset, (String) val);
+   }
+}
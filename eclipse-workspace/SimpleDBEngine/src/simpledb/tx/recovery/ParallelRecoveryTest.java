@@ -0,0 +1,107 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import java.util.Random;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * Measures the time to recover from a synthetic log of
+ * update records, with one and with several recovery threads,
+ * and checks that each recovery restores the same database.
+ * Committed transactions change the first half of each block
+ * and uncommitted ones the second half, so that after recovery
+ * the first half holds the last values written and the second
+ * half is zero again.
+ * The number of update records may be given as an argument.
+ */
+public class ParallelRecoveryTest {
+   private static final String DIR = "parallelrecoverytest";
+   private static final int BLOCKSIZE = 4096, BUFFERS = 64, BLOCKS = 2000;
+   private static final int SLOTS = 100, UPDATES_PER_TX = 10, FIRST_TXNUM = 1000000;
+   private static int[] threadCounts = {1, 2, 4, 8};
+
+   public static void main(String[] args) {
+      int records = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+      long serial = 0;
+      for (int n : threadCounts) {
+         int[][] expected = generate(records);
+         SimpleDB.RECOVERY_THREADS = n;
+         SimpleDB db = new SimpleDB(DIR, BLOCKSIZE, BUFFERS);
+         Transaction tx = db.newTx();
+         long start = System.nanoTime();
+         tx.recover();
+         long elapsed = (System.nanoTime() - start) / 1000000;
+         tx.commit();
+         check(db, expected);
+         if (n == 1)
+            serial = elapsed;
+         System.out.println(n + " recovery threads: " + elapsed + " ms"
+                            + ((n == 1) ? "" : String.format(" (%.2fx)", (double) serial / elapsed)));
+      }
+   }
+
+   /**
+    * Creates a new database and writes the log of a crashed run
+    * directly, without changing any data page.
+    * Returns the values that recovery should leave in each block.
+    */
+   private static int[][] generate(int records) {
+      delete(new File(DIR));
+      SimpleDB db = new SimpleDB(DIR, BLOCKSIZE, BUFFERS);
+      FileMgr fm = db.fileMgr();
+      LogMgr lm = db.logMgr();
+      for (int b=0; b<BLOCKS; b++)
+         fm.append("data");
+
+      Random rnd = new Random(records);
+      int[][] current = new int[BLOCKS][2*SLOTS];
+      int[][] expected = new int[BLOCKS][2*SLOTS];
+      int txnum = FIRST_TXNUM;
+      for (int written=0; written<records; written+=UPDATES_PER_TX) {
+         boolean commits = rnd.nextInt(50) != 0;
+         long prevLsn = StartRecord.writeToLog(lm, txnum);
+         for (int i=0; i<UPDATES_PER_TX; i++) {
+            int b = rnd.nextInt(BLOCKS);
+            int slot = rnd.nextInt(SLOTS) + (commits ? 0 : SLOTS);
+            int newval = rnd.nextInt(Integer.MAX_VALUE) + 1;
+            prevLsn = SetIntRecord.writeToLog(lm, txnum, prevLsn, new BlockId("data", b),
+                                              slot * Integer.BYTES, current[b][slot], newval);
+            current[b][slot] = newval;
+            if (commits)
+               expected[b][slot] = newval;
+         }
+         if (commits)
+            CommitRecord.writeToLog(lm, txnum, prevLsn);
+         txnum++;
+      }
+      lm.flush(lm.latestLSN());
+      return expected;
+   }
+
+   private static void check(SimpleDB db, int[][] expected) {
+      Transaction tx = db.newTx();
+      for (int b=0; b<BLOCKS; b++) {
+         BlockId blk = new BlockId("data", b);
+         tx.pin(blk);
+         for (int slot=0; slot<2*SLOTS; slot++) {
+            int val = tx.getInt(blk, slot * Integer.BYTES);
+            if (val != expected[b][slot])
+               throw new RuntimeException("block " + b + " slot " + slot + " holds "
+                                          + val + " instead of " + expected[b][slot]);
+         }
+         tx.unpin(blk);
+      }
+      tx.commit();
+   }
+
+   private static void delete(File f) {
+      File[] children = f.listFiles();
+      if (children != null)
+         for (File child : children)
+            delete(child);
+      f.delete();
+   }
+}
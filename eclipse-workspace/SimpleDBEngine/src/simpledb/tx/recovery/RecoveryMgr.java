@@ -1,6 +1,9 @@
 package simpledb.tx.recovery;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 import simpledb.file.*;
 import simpledb.log.*;
 import simpledb.buffer.*;
@@ -9,13 +12,81 @@ import static simpledb.tx.recovery.LogRecord.*;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * <P>
+ * Update records hold both the old and the new value, and each page
+ * holds the LSN of the latest change it contains, so a change can be
+ * redone as well as undone. Committing therefore only forces the log;
+ * the modified pages are written later, when their buffers are
+ * replaced or by the background writer.
+ * Undoing a change writes a compensation record, so that
+ * the undo is itself redone after a crash.
+ * Each log record of a transaction holds the LSN of the transaction's
+ * previous record, and records are read by LSN, so a rollback reads
+ * only the records of its own transaction.
+ * <P>
+ * Changes to the records of a table are logged as one record per
+ * inserted, deleted or updated slot, rather than one per value.
+ * The changes to a slot are made to the page at once, but their
+ * record is written only when the transaction turns to another
+ * slot, unpins the block, or completes. Until then the block
+ * is pinned, so the page cannot be written ahead of its log record;
+ * a caller that flushes the pinned buffers of other transactions
+ * must not do so while they are running.
+ * <P>
+ * Recovery makes three passes over the log. The analysis pass starts
+ * from the latest checkpoint and finds the transactions that were
+ * active at the crash and the pages that may not have been written.
+ * The redo pass repeats every change to those pages that is later than
+ * the page's LSN, and the undo pass rolls back the active transactions.
+ * The redo and undo passes read the log in a single thread, but the
+ * changes to the pages can be applied by several threads, each of
+ * which changes its own set of pages in log order.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
+   private static Map<Integer,RecoveryMgr> active = new ConcurrentHashMap<>();
+   private static int recoveryThreads = 1;
    private LogMgr lm;
    private BufferMgr bm;
    private Transaction tx;
    private int txnum;
+   private long firstLsn = 0;
+   private long lastLsn = 0;
+   private boolean finished = false;
+   private long undoNext = 0;
+   private Map<Integer,Long> chains = Collections.emptyMap();
+   private Pending pending = null;
+
+   /**
+    * The changes made to the record in one slot
+    * that have not yet been logged.
+    */
+   private static class Pending {
+      Buffer buff;
+      int slotpos, oldflag, size;
+      boolean insert;
+      List<Integer> offsets = new ArrayList<>();
+      List<Object> oldvals = new ArrayList<>(), newvals = new ArrayList<>();
+
+      Pending(Buffer buff, int slotpos, boolean insert) {
+         this.buff = buff;
+         this.slotpos = slotpos;
+         this.insert = insert;
+         size = 7 * Integer.BYTES + Page.maxLength(buff.block().fileName().length());
+      }
+
+      void add(int offset, Object oldval, Object newval, int entrysize) {
+         int i = offsets.indexOf(offset);
+         if (i >= 0)
+            newvals.set(i, newval);  // the first old value is kept
+         else {
+            offsets.add(offset);
+            oldvals.add(oldval);
+            newvals.add(newval);
+         }
+         size += entrysize;
+      }
+   }
 
    /**
     * Create a recovery manager for the specified transaction.
@@ -26,37 +97,99 @@ public class RecoveryMgr {
       this.txnum = txnum;
       this.lm = lm;
       this.bm = bm;
-      StartRecord.writeToLog(lm, txnum);
+      synchronized (this) {
+         active.put(txnum, this);
+         lastLsn = StartRecord.writeToLog(lm, txnum);
+         firstLsn = lastLsn;
+      }
+   }
+
+   /**
+    * Sets the number of threads that apply the changes
+    * to the pages during recovery.
+    * With one thread, recovery applies them itself.
+    * @param n the number of threads
+    */
+   public static void setRecoveryThreads(int n) {
+      recoveryThreads = n;
    }
 
    /**
     * Write a commit record to the log, and flushes it to disk.
+    * The transaction's modified pages are not written.
     */
    public void commit() {
-      bm.flushAll(txnum);
-      int lsn = CommitRecord.writeToLog(lm, txnum);
-      lm.flush(lsn);
+      logPending();
+      long lsn;
+      synchronized (this) {
+         lsn = CommitRecord.writeToLog(lm, txnum, lastLsn);
+         finish();
+      }
+      lm.flushCommit(lsn);
    }
 
    /**
-    * Write a rollback record to the log and flush it to disk.
+    * Undo the transaction's changes and write a rollback record to the log.
+    * The log is not flushed, because if the rollback record is lost,
+    * recovery rolls the transaction back again.
     */
    public void rollback() {
+      logPending();
       doRollback();
-      bm.flushAll(txnum);
-      int lsn = RollbackRecord.writeToLog(lm, txnum);
-      lm.flush(lsn);
+      synchronized (this) {
+         RollbackRecord.writeToLog(lm, txnum, lastLsn);
+         finish();
+      }
    }
 
    /**
-    * Recover uncompleted transactions from the log
-    * and then write a quiescent checkpoint record to the log and flush it.
+    * Recover uncompleted transactions from the log,
+    * write the recovered pages to disk,
+    * and then write a checkpoint record to the log and flush it.
     */
    public void recover() {
       doRecover();
       bm.flushAll(txnum);
-      int lsn = CheckpointRecord.writeToLog(lm);
+      checkpoint(lm, bm);
+   }
+
+   /**
+    * Write a checkpoint to the log and flush it.
+    * The checkpoint records the active transactions and the dirty pages,
+    * and is taken without stopping the system.
+    * The tables are taken after the latest LSN is read.
+    * A transaction appends its log records and changes its state
+    * while holding its recovery manager's lock, and changes a page
+    * while holding the page's latch; so every change logged up to
+    * that LSN is reflected in the tables.
+    * <P>
+    * Recovery from this checkpoint reads no record that precedes
+    * its begin LSN, the recovery LSNs of its dirty pages, and the
+    * START records of its active transactions, so the log segments
+    * that precede all of them are then removed.
+    * @param lm the log manager
+    * @param bm the buffer manager
+    */
+   public static void checkpoint(LogMgr lm, BufferMgr bm) {
+      long begin = lm.latestLSN();
+      long keep = begin;
+      Map<Integer,Long> txs = new HashMap<>();
+      for (RecoveryMgr rm : active.values()) {
+         if (rm.lm != lm)
+            continue;
+         synchronized (rm) {
+            if (!rm.finished) {
+               txs.put(rm.txnum, rm.lastLsn);
+               keep = Math.min(keep, rm.firstLsn);
+            }
+         }
+      }
+      Map<BlockId,Long> dirty = bm.dirtyPages();
+      for (long recLsn : dirty.values())
+         keep = Math.min(keep, recLsn);
+      long lsn = CheckpointRecord.writeToLog(lm, begin, txs, dirty);
       lm.flush(lsn);
+      lm.truncate(keep);
    }
 
    /**
@@ -65,10 +198,11 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public synchronized long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.contents().getInt(offset);
       BlockId blk = buff.block();
-      return SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      lastLsn = SetIntRecord.writeToLog(lm, txnum, lastLsn, blk, offset, oldval, newval);
+      return lastLsn;
    }
 
    /**
@@ -77,52 +211,315 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
+   public synchronized long setString(Buffer buff, int offset, String newval) {
       String oldval = buff.contents().getString(offset);
       BlockId blk = buff.block();
-      return SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      lastLsn = SetStringRecord.writeToLog(lm, txnum, lastLsn, blk, offset, oldval, newval);
+      return lastLsn;
    }
 
    /**
-    * Rollback the transaction, by iterating
-    * through the log records until it finds 
+    * Start an insert record for the specified slot,
+    * whose flag is changed to the specified value.
+    * The record collects the values then given to the slot's fields,
+    * and is logged when the transaction changes another slot,
+    * unpins the block, or completes.
+    * Any other pending change must have been logged first.
+    * @param buff the buffer containing the page
+    * @param slotpos the offset of the slot in the page
+    * @param flag the new flag
+    */
+   public synchronized void insertSlot(Buffer buff, int slotpos, int flag) {
+      pending = new Pending(buff, slotpos, true);
+      pending.oldflag = buff.contents().getInt(slotpos);
+      pending.add(slotpos, null, flag, Integer.BYTES + LogValues.valueSize(flag));
+   }
+
+   /**
+    * Write a delete record to the log and return its lsn.
+    * Any pending change must have been logged first.
+    * @param buff the buffer containing the page
+    * @param slotpos the offset of the slot in the page
+    * @param flag the new flag
+    */
+   public synchronized long deleteSlot(Buffer buff, int slotpos, int flag) {
+      int oldflag = buff.contents().getInt(slotpos);
+      lastLsn = DeleteRecord.writeToLog(lm, txnum, lastLsn, buff.block(), slotpos, oldflag, flag);
+      return lastLsn;
+   }
+
+   /**
+    * Add the change of a field to the pending record of its slot,
+    * starting an update record if there is none.
+    * If the record would not fit in a log block, it is
+    * logged first, and an update record is started.
+    * Any pending change to another slot must have been logged first,
+    * and the caller must hold the buffer's exclusive latch.
+    * @param buff the buffer containing the page
+    * @param slotpos the offset of the field's slot in the page
+    * @param offset the offset of the field in the page
+    * @param oldval the field's current value
+    * @param newval the value to be written
+    */
+   public synchronized void setField(Buffer buff, int slotpos, int offset, Object oldval, Object newval) {
+      int entrysize = Integer.BYTES + LogValues.valueSize(oldval) + LogValues.valueSize(newval);
+      if (pending != null && pending.size + entrysize > lm.maxRecordSize())
+         writePending();
+      if (pending == null)
+         pending = new Pending(buff, slotpos, false);
+      pending.add(offset, oldval, newval, entrysize);
+   }
+
+   /**
+    * Return true if the pending change is to the specified slot.
+    * @param blk the block containing the slot
+    * @param slotpos the offset of the slot in the block
+    */
+   public boolean hasPending(BlockId blk, int slotpos) {
+      return pending != null && pending.slotpos == slotpos
+            && pending.buff.block().equals(blk);
+   }
+
+   /**
+    * Log the pending change, if any, and stamp its page
+    * with the record's LSN.
+    */
+   public void logPending() {
+      if (pending == null)
+         return;
+      Lock latch = pending.buff.writeLatch();
+      latch.lock();
+      try {
+         synchronized (this) {
+            writePending();
+         }
+      }
+      finally {
+         latch.unlock();
+      }
+   }
+
+   /**
+    * Log the pending change if it is to the specified block.
+    * @param blk a reference to the disk block
+    */
+   public void logPending(BlockId blk) {
+      if (pending != null && pending.buff.block().equals(blk))
+         logPending();
+   }
+
+   /**
+    * Write a compensation record to the log and return its lsn.
+    * The record is chained to the other records of the transaction
+    * whose change is undone, which during recovery is not this one.
+    * Its undo-next LSN is that of the record before the one being undone.
+    * @param undoTx the transaction whose change is undone
+    * @param blk the block containing the value
+    * @param offsets the offsets of the values in the block
+    * @param vals the restored values, each an Integer or a String
+    */
+   public synchronized long compensate(int undoTx, BlockId blk, int[] offsets, Object[] vals) {
+      if (undoTx == txnum) {
+         lastLsn = CompensationRecord.writeToLog(lm, txnum, lastLsn, undoNext, blk, offsets, vals);
+         return lastLsn;
+      }
+      long lsn = CompensationRecord.writeToLog(lm, undoTx, chains.get(undoTx), undoNext, blk, offsets, vals);
+      chains.put(undoTx, lsn);
+      return lsn;
+   }
+
+   /**
+    * Write the pending change as an insert or update record.
+    * The caller holds the buffer's exclusive latch.
+    */
+   private void writePending() {
+      Pending p = pending;
+      pending = null;
+      int n = p.offsets.size();
+      int[] offsets = new int[n];
+      for (int i=0; i<n; i++)
+         offsets[i] = p.offsets.get(i);
+      Object[] newvals = p.newvals.toArray();
+      BlockId blk = p.buff.block();
+      if (p.insert)
+         lastLsn = InsertRecord.writeToLog(lm, txnum, lastLsn, blk, p.slotpos, p.oldflag, offsets, newvals);
+      else
+         lastLsn = UpdateRecord.writeToLog(lm, txnum, lastLsn, blk, p.slotpos, offsets, p.oldvals.toArray(), newvals);
+      p.buff.setModified(txnum, lastLsn);
+   }
+
+   private void finish() {
+      finished = true;
+      active.remove(txnum);
+   }
+
+   /**
+    * Rollback the transaction, by following the chain
+    * of its log records from the latest one until it finds
     * the transaction's START record,
     * calling undo() for each of the transaction's
     * log records.
     */
    private void doRollback() {
-      Iterator<byte[]> iter = lm.iterator();
+      long lsn = lastLsn;
+      while (true) {
+         LogRecord rec = LogRecord.createLogRecord(lm.read(lsn));
+         if (rec.op() == START)
+            return;
+         lsn = undoStep(rec);
+      }
+   }
+
+   /**
+    * Undoes the log record unless it is a compensation record,
+    * and returns the LSN of the transaction's next record to undo.
+    */
+   private long undoStep(LogRecord rec) {
+      if (rec.op() == COMPENSATION)
+         return ((CompensationRecord) rec).undoNextLSN();
+      undoNext = rec.prevLSN();
+      rec.undo(tx);
+      return rec.prevLSN();
+   }
+
+   /**
+    * Do a complete database recovery, in three passes.
+    * The analysis pass reads the log forward from the latest
+    * checkpoint, rebuilding the tables of active transactions
+    * and dirty pages.
+    * The redo pass reads the log forward from the earliest change
+    * to a dirty page, and redoes each change that its page lacks.
+    * The undo pass follows the record chains of the transactions
+    * that were active, always undoing the latest of their records,
+    * until it has reached the START record of each of them.
+    * Temporary files do not survive a restart, so their
+    * changes are neither redone nor undone.
+    * The redo and undo passes hand the changes to the pages
+    * to the recovery workers, which are given the changes
+    * to each page in log order.
+    */
+   private void doRecover() {
+      Map<Integer,Long> txs = new HashMap<>();
+      Map<BlockId,Long> dirty = new HashMap<>();
+      analyze(txs, dirty);
+      txs.remove(txnum);
+      RecoveryWorkers workers = new RecoveryWorkers(bm, txnum, recoveryThreads);
+      try {
+         if (!dirty.isEmpty())
+            redo(dirty, workers);
+         undo(txs, workers);
+      }
+      finally {
+         workers.finish();
+      }
+   }
+
+   private void analyze(Map<Integer,Long> txs, Map<BlockId,Long> dirty) {
+      long begin = readCheckpoint(txs, dirty);
+      ForwardLogIterator iter = lm.iterator(begin + 1);
       while (iter.hasNext()) {
-         byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes); 
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(tx);
+         LogRecord rec = LogRecord.createLogRecord(iter.next());
+         int op = rec.op();
+         if (op == CHECKPOINT)
+            continue;
+         if (op == COMMIT || op == ROLLBACK) {
+            txs.remove(rec.txNumber());
+            continue;
          }
+         txs.put(rec.txNumber(), iter.lsn());
+         BlockId blk = rec.block();
+         if (blk != null && !isTemp(blk))
+            dirty.putIfAbsent(blk, iter.lsn());
       }
    }
 
    /**
-    * Do a complete database recovery.
-    * The method iterates through the log records.
-    * Whenever it finds a log record for an unfinished
-    * transaction, it calls undo() on that record.
-    * The method stops when it encounters a CHECKPOINT record
-    * or the end of the log.
+    * Reads the tables of the latest complete checkpoint.
+    * @return the checkpoint's begin LSN, or 0 if there is no checkpoint
     */
-   private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<>();
+   private long readCheckpoint(Map<Integer,Long> txs, Map<BlockId,Long> dirty) {
       Iterator<byte[]> iter = lm.iterator();
+      CheckpointRecord last = null;
+      int found = 0;
       while (iter.hasNext()) {
-         byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes);
-         if (rec.op() == CHECKPOINT)
-            return;
-         if (rec.op() == COMMIT || rec.op() == ROLLBACK)
-            finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
-            rec.undo(tx);
+         LogRecord rec = LogRecord.createLogRecord(iter.next());
+         if (rec.op() != CHECKPOINT)
+            continue;
+         CheckpointRecord cp = (CheckpointRecord) rec;
+         if (last == null && cp.part() != cp.parts() - 1)
+            continue;  // the checkpoint was not completed
+         if (last == null)
+            last = cp;
+         else if (cp.beginLSN() != last.beginLSN())
+            continue;
+         txs.putAll(cp.activeTxs());
+         dirty.putAll(cp.dirtyPages());
+         found++;
+         if (found == last.parts())
+            return last.beginLSN();
+      }
+      txs.clear();
+      dirty.clear();
+      return 0;
+   }
+
+   private void redo(Map<BlockId,Long> dirty, RecoveryWorkers workers) {
+      long start = Collections.min(dirty.values());
+      ForwardLogIterator iter = lm.iterator(start);
+      while (iter.hasNext()) {
+         LogRecord rec = LogRecord.createLogRecord(iter.next());
+         BlockId blk = rec.block();
+         if (blk == null)
+            continue;
+         Long recLsn = dirty.get(blk);
+         if (recLsn != null && iter.lsn() >= recLsn)
+            workers.submit(blk, rec::redo, iter.lsn());
+      }
+   }
+
+   /**
+    * Rolls back the specified transactions.
+    * Each undone change is logged as a compensation record,
+    * and the workers then apply the compensation to the page.
+    * @param losers a map from each transaction to its latest LSN
+    */
+   private synchronized void undo(Map<Integer,Long> losers, RecoveryWorkers workers) {
+      chains = losers;
+      TreeMap<Long,Integer> toUndo = new TreeMap<>();
+      for (Map.Entry<Integer,Long> e : losers.entrySet())
+         toUndo.put(e.getValue(), e.getKey());
+      while (!toUndo.isEmpty()) {
+         Map.Entry<Long,Integer> e = toUndo.pollLastEntry();
+         int t = e.getValue();
+         LogRecord rec = LogRecord.createLogRecord(lm.read(e.getKey()));
+         if (rec.op() == START) {
+            RollbackRecord.writeToLog(lm, t, chains.get(t));
+            continue;
+         }
+         long next;
+         if (rec.op() == COMPENSATION)
+            next = ((CompensationRecord) rec).undoNextLSN();
+         else {
+            next = rec.prevLSN();
+            BlockId blk = rec.block();
+            if (blk != null && !isTemp(blk)) {
+               undoNext = next;
+               int[] offsets = rec.undoOffsets();
+               Object[] vals = rec.undoValues();
+               long lsn = compensate(t, blk, offsets, vals);
+               Consumer<Page> restore = p -> {
+                  for (int i=0; i<offsets.length; i++)
+                     LogValues.apply(p, offsets[i], vals[i]);
+               };
+               workers.submit(blk, restore, lsn);
+            }
+         }
+         toUndo.put(next, t);
       }
+      chains = Collections.emptyMap();
+   }
+
+   private boolean isTemp(BlockId blk) {
+      return blk.fileName().startsWith("temp");
    }
 }
@@ -42,6 +42,10 @@ public class RecoveryTest {
       tx2.setString(blk1, 30, "def", false);
       tx1.commit();
       tx2.commit();
+      // commits do not write their pages, and these
+      // changes were not logged, so write them here
+      bm.flushAll(1);
+      bm.flushAll(2);
       printValues("After Initialization:");
    }
 
@@ -63,6 +67,8 @@ public class RecoveryTest {
       printValues("After modification:");
 
       tx3.rollback();
+      // the rollback does not write its pages either
+      bm.flushAll(3);
       printValues("After rollback:");
       // tx4 stops here without committing or rolling back,
       // so all its changes should be undone during recovery.
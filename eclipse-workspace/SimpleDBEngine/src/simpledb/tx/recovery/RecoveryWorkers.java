@@ -0,0 +1,155 @@
+package simpledb.tx.recovery;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import simpledb.file.*;
+import simpledb.buffer.*;
+
+/**
+ * The threads that apply the changes of a recovery to the pages.
+ * Each block is assigned to one worker, by the hash code of the block,
+ * and each worker applies its changes in the order in which they were
+ * submitted; so the changes to a page are applied in log order, while
+ * different pages are changed, and read from disk, in parallel.
+ * With a single worker, the changes are applied by the submitting thread.
+ */
+class RecoveryWorkers {
+   private static final int QUEUE_SIZE = 1024;
+   private BufferMgr bm;
+   private int txnum;
+   private List<BlockingQueue<Change>> queues;
+   private Thread[] threads;
+   private volatile RuntimeException failure = null;
+
+   /**
+    * A change to be applied to a page, unless the page
+    * already contains the change with the specified LSN.
+    */
+   private static class Change {
+      BlockId blk;
+      Consumer<Page> change;
+      long lsn;
+
+      Change(BlockId blk, Consumer<Page> change, long lsn) {
+         this.blk = blk;
+         this.change = change;
+         this.lsn = lsn;
+      }
+   }
+
+   private static final Change DONE = new Change(null, null, 0);
+
+   /**
+    * Starts the specified number of workers.
+    * @param bm the buffer manager
+    * @param txnum the recovering transaction, which is recorded as the pages' modifier
+    * @param n the number of workers
+    */
+   RecoveryWorkers(BufferMgr bm, int txnum, int n) {
+      this.bm = bm;
+      this.txnum = txnum;
+      if (n <= 1)
+         return;
+      queues = new ArrayList<>(n);
+      threads = new Thread[n];
+      for (int i=0; i<n; i++) {
+         BlockingQueue<Change> q = new ArrayBlockingQueue<>(QUEUE_SIZE);
+         queues.add(q);
+         threads[i] = new Thread(() -> work(q), "recovery-" + i);
+         threads[i].setDaemon(true);
+         threads[i].start();
+      }
+   }
+
+   /**
+    * Has the change applied to the page of the specified block,
+    * unless the page's LSN shows that it already contains the change.
+    * @param blk the block to change
+    * @param change the change to the block's page
+    * @param lsn the LSN of the change's log record
+    */
+   void submit(BlockId blk, Consumer<Page> change, long lsn) {
+      if (threads == null) {
+         apply(new Change(blk, change, lsn));
+         return;
+      }
+      checkFailure();
+      put(queues.get(Math.floorMod(blk.hashCode(), queues.size())), new Change(blk, change, lsn));
+   }
+
+   /**
+    * Waits until the workers have applied every submitted change,
+    * and stops them.
+    */
+   void finish() {
+      if (threads == null)
+         return;
+      for (BlockingQueue<Change> q : queues)
+         put(q, DONE);
+      for (Thread t : threads) {
+         try {
+            t.join();
+         }
+         catch(InterruptedException e) {
+            throw new RuntimeException("interrupted while recovering");
+         }
+      }
+      checkFailure();
+   }
+
+   private void work(BlockingQueue<Change> q) {
+      try {
+         while (true) {
+            Change c = q.take();
+            if (c == DONE)
+               return;
+            // after a failure, keep taking changes,
+            // so that the submitter is not blocked
+            if (failure != null)
+               continue;
+            try {
+               apply(c);
+            }
+            catch(RuntimeException e) {
+               failure = e;
+            }
+         }
+      }
+      catch(InterruptedException e) {
+         failure = new RuntimeException("recovery worker interrupted");
+      }
+   }
+
+   private void apply(Change c) {
+      Buffer buff = bm.pin(c.blk);
+      Lock latch = buff.writeLatch();
+      latch.lock();
+      try {
+         if (buff.contents().lsn() < c.lsn) {
+            buff.makeWritable();
+            c.change.accept(buff.contents());
+            buff.setModified(txnum, c.lsn);
+         }
+      }
+      finally {
+         latch.unlock();
+         bm.unpin(buff);
+      }
+   }
+
+   private void put(BlockingQueue<Change> q, Change c) {
+      try {
+         q.put(c);
+      }
+      catch(InterruptedException e) {
+         throw new RuntimeException("interrupted while recovering");
+      }
+   }
+
+   private void checkFailure() {
+      if (failure != null)
+         throw failure;
+   }
+}
@@ -0,0 +1,60 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks that a rollback follows the chain of its transaction's
+ * log records: after a long transaction is interleaved with many
+ * others, its rollback undoes exactly its own changes, and takes
+ * about as long as if the others had not written to the log.
+ */
+public class RollbackChainTest {
+   private static final int NUM_OTHERS = 50, CHANGES = 200;
+
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("rollbackchaintest", 400, 8);
+      BlockId mine = new BlockId("testfile", 0);
+      Transaction init = db.newTx();
+      init.append("testfile");
+      init.pin(mine);
+      init.setInt(mine, 0, 1, true);
+      init.setString(mine, 4, "one", true);
+      init.commit();
+
+      Transaction tx = db.newTx();
+      tx.pin(mine);
+      tx.setInt(mine, 0, 2, true);
+      tx.setString(mine, 4, "two", true);
+      for (int t=0; t<NUM_OTHERS; t++) {
+         Transaction other = db.newTx();
+         BlockId blk = other.append("otherfile");
+         other.pin(blk);
+         for (int i=0; i<CHANGES; i++)
+            other.setInt(blk, 4*(i % 50), i, true);
+         other.unpin(blk);
+         other.commit();
+      }
+      tx.setInt(mine, 0, 3, true);
+
+      long start = System.nanoTime();
+      tx.rollback();
+      long elapsed = (System.nanoTime() - start) / 1000;
+      System.out.println("rollback took " + elapsed + " us after "
+                         + NUM_OTHERS * CHANGES + " other log records");
+
+      Transaction check = db.newTx();
+      check.pin(mine);
+      int n = check.getInt(mine, 0);
+      String s = check.getString(mine, 4);
+      System.out.println("values after the rollback: " + n + " " + s);
+      if (n != 1 || !s.equals("one"))
+         throw new RuntimeException("expected 1 one");
+      BlockId last = new BlockId("otherfile", NUM_OTHERS-1);
+      check.pin(last);
+      if (check.getInt(last, 4*49) != CHANGES-1)
+         throw new RuntimeException("another transaction's change was undone");
+      check.commit();
+   }
+}
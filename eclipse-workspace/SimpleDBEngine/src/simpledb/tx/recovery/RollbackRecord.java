@@ -10,6 +10,7 @@ import simpledb.tx.Transaction;
  */
 public class RollbackRecord implements LogRecord {
    private int txnum;
+   private long prevLsn;
 
    /**
     * Create a RollbackRecord object.
@@ -18,6 +19,8 @@ public class RollbackRecord implements LogRecord {
    public RollbackRecord(Page p) {
       int tpos = Integer.BYTES;
       txnum = p.getInt(tpos);
+      int ppos = tpos + Integer.BYTES;
+      prevLsn = p.getLong(ppos);
    }
 
    public int op() {
@@ -28,6 +31,10 @@ public class RollbackRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLsn;
+   }
+
    /**
     * Does nothing, because a rollback record
     * contains no undo information.
@@ -41,14 +48,16 @@ public class RollbackRecord implements LogRecord {
    /** 
     * A static method to write a rollback record to the log.
     * This log record contains the ROLLBACK operator,
-    * followed by the transaction id.
+    * followed by the transaction id and the LSN of
+    * the transaction's previous log record.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2*Integer.BYTES];
+   public static long writeToLog(LogMgr lm, int txnum, long prevLsn) {
+      byte[] rec = new byte[2*Integer.BYTES + Long.BYTES];
       Page p = new Page(rec);
       p.setInt(0, ROLLBACK);
       p.setInt(Integer.BYTES, txnum);
+      p.setLong(2*Integer.BYTES, prevLsn);
       return lm.append(rec);
    }
 }
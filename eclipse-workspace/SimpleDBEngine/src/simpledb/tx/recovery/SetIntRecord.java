@@ -5,7 +5,8 @@ import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
 public class SetIntRecord implements LogRecord {
-   private int txnum, offset, val;
+   private int txnum, offset, oldval, newval;
+   private long prevLsn;
    private BlockId blk;
 
    /**
@@ -15,15 +16,19 @@ public class SetIntRecord implements LogRecord {
    public SetIntRecord(Page p) {
       int tpos = Integer.BYTES;
       txnum = p.getInt(tpos);
-      int fpos = tpos + Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      prevLsn = p.getLong(ppos);
+      int fpos = ppos + Long.BYTES;
       String filename = p.getString(fpos);
       int bpos = fpos + Page.maxLength(filename.length());
       int blknum = p.getInt(bpos);
       blk = new BlockId(filename, blknum);
       int opos = bpos + Integer.BYTES;
       offset = p.getInt(opos);
-      int vpos = opos + Integer.BYTES;      
-      val = p.getInt(vpos);
+      int vpos = opos + Integer.BYTES;
+      oldval = p.getInt(vpos);
+      int npos = vpos + Integer.BYTES;
+      newval = p.getInt(npos);
    }
 
    public int op() {
@@ -34,45 +39,80 @@ public class SetIntRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLsn;
+   }
+
+   public BlockId block() {
+      return blk;
+   }
+
    public String toString() {
-      return "<SETINT " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETINT " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
 
    /**
     * Replace the specified data value with the value saved in the log record.
     * The method pins a buffer to the specified block,
-    * calls setInt to restore the saved value,
+    * calls undoValues to restore the saved value,
     * and unpins the buffer.
+    * The restore is logged as a compensation record.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(Transaction tx) {
       tx.pin(blk);
-      tx.setInt(blk, offset, val, false); // don't log the undo!
+      tx.undoValues(txnum, blk, undoOffsets(), undoValues());
       tx.unpin(blk);
    }
 
+   /**
+    * Returns the offset of the changed value.
+    */
+   public int[] undoOffsets() {
+      return new int[] {offset};
+   }
+
+   /**
+    * Returns the previous value, which undoing the record restores.
+    */
+   public Object[] undoValues() {
+      return new Object[] {oldval};
+   }
+
+   /**
+    * Write the new value saved in the log record to the page.
+    */
+   public void redo(Page p) {
+      p.setInt(offset, newval);
+   }
+
    /**
     * A static method to write a setInt record to the log.
     * This log record contains the SETINT operator,
-    * followed by the transaction id, the filename, number,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename, number,
     * and offset of the modified block, and the previous
-    * integer value at that offset.
+    * and new integer values at that offset.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, int val) {
+   public static long writeToLog(LogMgr lm, int txnum, long prevLsn, BlockId blk, int offset, int oldval, int newval) {
       int tpos = Integer.BYTES;
-      int fpos = tpos + Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      int fpos = ppos + Long.BYTES;
       int bpos = fpos + Page.maxLength(blk.fileName().length());
       int opos = bpos + Integer.BYTES;
       int vpos = opos + Integer.BYTES;
-      byte[] rec = new byte[vpos + Integer.BYTES];
+      int npos = vpos + Integer.BYTES;
+      byte[] rec = new byte[npos + Integer.BYTES];
       Page p = new Page(rec);
       p.setInt(0, SETINT);
       p.setInt(tpos, txnum);
+      p.setLong(ppos, prevLsn);
       p.setString(fpos, blk.fileName());
       p.setInt(bpos, blk.number());
       p.setInt(opos, offset);
-      p.setInt(vpos, val);
+      p.setInt(vpos, oldval);
+      p.setInt(npos, newval);
       return lm.append(rec);
    }
 }
@@ -6,7 +6,8 @@ import simpledb.tx.Transaction;
 
 public class SetStringRecord implements LogRecord {
    private int txnum, offset;
-   private String val;
+   private long prevLsn;
+   private String oldval, newval;
    private BlockId blk;
 
    /**
@@ -16,7 +17,9 @@ public class SetStringRecord implements LogRecord {
    public SetStringRecord(Page p) {
       int tpos = Integer.BYTES;
       txnum = p.getInt(tpos);
-      int fpos = tpos + Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      prevLsn = p.getLong(ppos);
+      int fpos = ppos + Long.BYTES;
       String filename = p.getString(fpos);
       int bpos = fpos + Page.maxLength(filename.length());
       int blknum = p.getInt(bpos);
@@ -24,7 +27,9 @@ public class SetStringRecord implements LogRecord {
       int opos = bpos + Integer.BYTES;
       offset = p.getInt(opos);
       int vpos = opos + Integer.BYTES;      
-      val = p.getString(vpos);
+      oldval = p.getString(vpos);
+      int npos = vpos + Page.maxLength(oldval.length());
+      newval = p.getString(npos);
    }
 
    public int op() {
@@ -35,46 +40,81 @@ public class SetStringRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLsn;
+   }
+
+   public BlockId block() {
+      return blk;
+   }
+
    public String toString() {
-      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
 
    /**
     * Replace the specified data value with the value saved in the log record.
     * The method pins a buffer to the specified block,
-    * calls setInt to restore the saved value,
+    * calls undoValues to restore the saved value,
     * and unpins the buffer.
+    * The restore is logged as a compensation record.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(Transaction tx) {
       tx.pin(blk);
-      tx.setString(blk, offset, val, false); // don't log the undo!
+      tx.undoValues(txnum, blk, undoOffsets(), undoValues());
       tx.unpin(blk);
    }
 
+   /**
+    * Returns the offset of the changed value.
+    */
+   public int[] undoOffsets() {
+      return new int[] {offset};
+   }
+
+   /**
+    * Returns the previous value, which undoing the record restores.
+    */
+   public Object[] undoValues() {
+      return new Object[] {oldval};
+   }
+
+   /**
+    * Write the new value saved in the log record to the page.
+    */
+   public void redo(Page p) {
+      p.setString(offset, newval);
+   }
+
    /**
     * A static method to write a setInt record to the log.
     * This log record contains the SETINT operator,
-    * followed by the transaction id, the filename, number,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename, number,
     * and offset of the modified block, and the previous
-    * integer value at that offset.
+    * and new string values at that offset.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, String val) {
+   public static long writeToLog(LogMgr lm, int txnum, long prevLsn, BlockId blk, int offset, String oldval, String newval) {
       int tpos = Integer.BYTES;
-      int fpos = tpos + Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      int fpos = ppos + Long.BYTES;
       int bpos = fpos + Page.maxLength(blk.fileName().length());
       int opos = bpos + Integer.BYTES;
       int vpos = opos + Integer.BYTES;
-      int reclen = vpos + Page.maxLength(val.length());
+      int npos = vpos + Page.maxLength(oldval.length());
+      int reclen = npos + Page.maxLength(newval.length());
       byte[] rec = new byte[reclen];
       Page p = new Page(rec);
       p.setInt(0, SETSTRING);
       p.setInt(tpos, txnum);
+      p.setLong(ppos, prevLsn);
       p.setString(fpos, blk.fileName());
       p.setInt(bpos, blk.number());
       p.setInt(opos, offset);
-      p.setString(vpos, val);
+      p.setString(vpos, oldval);
+      p.setString(npos, newval);
       return lm.append(rec);
    }
 }
\ No newline at end of file
@@ -23,6 +23,14 @@ public class StartRecord implements LogRecord {
    public int txNumber() {
       return txnum;
    }
+
+   /**
+    * Returns 0, because a start record is the
+    * first log record of its transaction.
+    */
+   public long prevLSN() {
+      return 0;
+   }
    
    /**
     * Does nothing, because a start record
@@ -40,7 +48,7 @@ public class StartRecord implements LogRecord {
     * followed by the transaction id.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
+   public static long writeToLog(LogMgr lm, int txnum) {
       byte[] rec = new byte[2*Integer.BYTES];
       Page p = new Page(rec);
       p.setInt(0, START);
@@ -0,0 +1,149 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * The UPDATE log record, which describes changes to
+ * one or more fields of the record in a slot.
+ * It holds the previous and the new value of each field.
+ */
+public class UpdateRecord implements LogRecord {
+   private int txnum, slotpos;
+   private long prevLsn;
+   private BlockId blk;
+   private int[] offsets;
+   private Object[] oldvals, newvals;
+
+   /**
+    * Create a new update log record.
+    * @param p the page containing the log values
+    */
+   public UpdateRecord(Page p) {
+      int tpos = Integer.BYTES;
+      txnum = p.getInt(tpos);
+      int ppos = tpos + Integer.BYTES;
+      prevLsn = p.getLong(ppos);
+      int fpos = ppos + Long.BYTES;
+      String filename = p.getString(fpos);
+      int bpos = fpos + Page.maxLength(filename.length());
+      int blknum = p.getInt(bpos);
+      blk = new BlockId(filename, blknum);
+      int spos = bpos + Integer.BYTES;
+      slotpos = p.getInt(spos);
+      int npos = spos + Integer.BYTES;
+      int n = p.getInt(npos);
+      offsets = new int[n];
+      oldvals = new Object[n];
+      newvals = new Object[n];
+      int pos = npos + Integer.BYTES;
+      for (int i=0; i<n; i++) {
+         int stored = p.getInt(pos);
+         pos += Integer.BYTES;
+         offsets[i] = LogValues.offset(stored);
+         oldvals[i] = LogValues.readValue(p, pos, stored);
+         pos += LogValues.valueSize(oldvals[i]);
+         newvals[i] = LogValues.readValue(p, pos, stored);
+         pos += LogValues.valueSize(newvals[i]);
+      }
+   }
+
+   public int op() {
+      return UPDATE;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public long prevLSN() {
+      return prevLsn;
+   }
+
+   public BlockId block() {
+      return blk;
+   }
+
+   public String toString() {
+      StringBuilder sb = new StringBuilder("<UPDATE " + txnum + " " + blk + " " + slotpos);
+      for (int i=0; i<offsets.length; i++)
+         sb.append(" " + offsets[i] + " " + oldvals[i] + " " + newvals[i]);
+      return sb + ">";
+   }
+
+   /**
+    * Restore the previous values of the fields.
+    * The restore is logged as a compensation record.
+    */
+   public void undo(Transaction tx) {
+      tx.pin(blk);
+      tx.undoValues(txnum, blk, undoOffsets(), undoValues());
+      tx.unpin(blk);
+   }
+
+   /**
+    * Returns the offsets of the changed fields.
+    */
+   public int[] undoOffsets() {
+      return offsets;
+   }
+
+   /**
+    * Returns the previous values of the fields, which undoing the record restores.
+    */
+   public Object[] undoValues() {
+      return oldvals;
+   }
+
+   /**
+    * Write the new values saved in the log record to the page.
+    */
+   public void redo(Page p) {
+      for (int i=0; i<offsets.length; i++)
+         LogValues.apply(p, offsets[i], newvals[i]);
+   }
+
+   /**
+    * A static method to write an update record to the log.
+    * This log record contains the UPDATE operator,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename and
+    * number of the modified block, the offset of the slot,
+    * and the number of changed fields, followed by the
+    * offset, previous value and new value of each.
+    * @param offsets the offsets of the fields
+    * @param oldvals the previous values, each an Integer or a String
+    * @param newvals the new values, of the same types
+    * @return the LSN of the last log value
+    */
+   public static long writeToLog(LogMgr lm, int txnum, long prevLsn, BlockId blk, int slotpos,
+                                int[] offsets, Object[] oldvals, Object[] newvals) {
+      int tpos = Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      int fpos = ppos + Long.BYTES;
+      int bpos = fpos + Page.maxLength(blk.fileName().length());
+      int spos = bpos + Integer.BYTES;
+      int npos = spos + Integer.BYTES;
+      int reclen = npos + Integer.BYTES;
+      for (int i=0; i<newvals.length; i++)
+         reclen += Integer.BYTES + LogValues.valueSize(oldvals[i])
+                                 + LogValues.valueSize(newvals[i]);
+      byte[] rec = new byte[reclen];
+      Page p = new Page(rec);
+      p.setInt(0, UPDATE);
+      p.setInt(tpos, txnum);
+      p.setLong(ppos, prevLsn);
+      p.setString(fpos, blk.fileName());
+      p.setInt(bpos, blk.number());
+      p.setInt(spos, slotpos);
+      p.setInt(npos, newvals.length);
+      int pos = npos + Integer.BYTES;
+      for (int i=0; i<newvals.length; i++) {
+         pos = LogValues.writeOffset(p, pos, offsets[i], newvals[i]);
+         pos = LogValues.writeValue(p, pos, oldvals[i]);
+         pos = LogValues.writeValue(p, pos, newvals[i]);
+      }
+      return lm.append(rec);
+   }
+}